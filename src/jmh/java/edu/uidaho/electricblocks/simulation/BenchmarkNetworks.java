@@ -0,0 +1,129 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Builds the networks the benchmarks are run on out of TestTileEntities, so they can be run without a game.
+ */
+final class BenchmarkNetworks {
+
+    /*
+     * Stand-ins for the blocks the mod registers, in the order they are registered in RegistryHandler. Blocks can't be
+     * created without bootstrapping the game, but they are only ever compared by identity, which these are as well.
+     */
+    static final Object LAMP_BLOCK = new Object();
+    static final Object BATTERY_BLOCK = new Object();
+    static final Object EXTERNAL_GRID_BLOCK = new Object();
+    static final Object WIRE_BLOCK = new Object();
+    static final Object BUS_BLOCK = new Object();
+    static final Object GENERATOR_BLOCK = new Object();
+    static final Object LOAD_BLOCK = new Object();
+    static final Object TRANSFORMER_BLOCK = new Object();
+    static final Object ELEC_FURNACE_BLOCK = new Object();
+    static final Object[] REGISTERED_BLOCKS = {
+            LAMP_BLOCK, BATTERY_BLOCK, EXTERNAL_GRID_BLOCK, WIRE_BLOCK, BUS_BLOCK, GENERATOR_BLOCK, LOAD_BLOCK,
+            TRANSFORMER_BLOCK, ELEC_FURNACE_BLOCK
+    };
+    // Every other block in the world
+    static final Object AIR = new Object();
+
+    private BenchmarkNetworks() {
+    }
+
+    /**
+     * Electric blocks placed in a world that hasn't been discovered yet. The blocks are kept both in an
+     * ElectricBlockIndex, which is what networks are discovered from, and as a map of the block at each position,
+     * which is what the world looked like to discovery before there was an index.
+     */
+    static final class Layout {
+
+        final ElectricBlockIndex index = new ElectricBlockIndex();
+        final Map<BlockPos, Object> blocks = new HashMap<>();
+        final Map<BlockPos, SimulationTileEntity> tileEntities = new HashMap<>();
+        final List<SimulationTileEntity> simTileEntities = new ArrayList<>();
+        int wires = 0;
+
+        private void place(BlockPos pos, Object block) {
+            index.setElectric(pos, true);
+            blocks.put(pos, block);
+            if (block == WIRE_BLOCK) {
+                wires++;
+            }
+        }
+
+        private TestTileEntity place(SimulationType simulationType, BlockPos pos, Object block) {
+            TestTileEntity ste = new TestTileEntity(simulationType, pos);
+            place(pos, block);
+            index.addTileEntity(ste);
+            tileEntities.put(pos, ste);
+            simTileEntities.add(ste);
+            return ste;
+        }
+
+        /**
+         * @return The block at a position, AIR if there isn't an electric block
+         */
+        Object getBlock(BlockPos pos) {
+            return blocks.getOrDefault(pos, AIR);
+        }
+
+        /**
+         * @return A new network that discovers the blocks of this layout from the first tile entity placed
+         */
+        SimulationNetwork network() {
+            return new SimulationNetwork(simTileEntities.get(0), index);
+        }
+
+    }
+
+    /**
+     * Lays out a straight line of wire along the x axis with an external grid at the start. The wire is broken up by a
+     * load every wiresPerLine blocks and ends on a load, so the network has one line per load.
+     * @param loads The number of loads on the line
+     * @param wiresPerLine The number of wires between two tile entities. Each wire is a metre of line.
+     * @return The layout of the line
+     */
+    static Layout line(int loads, int wiresPerLine) {
+        Layout layout = new Layout();
+        layout.place(SimulationType.EXT_GRID, new BlockPos(0, 64, 0), EXTERNAL_GRID_BLOCK);
+        int x = 1;
+        for (int i = 0; i < loads; i++) {
+            for (int wire = 0; wire < wiresPerLine; wire++) {
+                layout.place(new BlockPos(x++, 64, 0), WIRE_BLOCK);
+            }
+            layout.place(SimulationType.LOAD, new BlockPos(x++, 64, 0), LOAD_BLOCK);
+        }
+        return layout;
+    }
+
+    /**
+     * Builds an already discovered radial feeder: an external grid followed by a row of loads, each on a 100 m line
+     * from the element before it. Every load is on its own embedded bus, so the network has 3 elements per load.
+     * @param loads The number of loads on the feeder
+     * @return The network of the feeder
+     */
+    static SimulationNetwork feeder(int loads) {
+        List<SimulationTileEntity> simTileEntities = new ArrayList<>();
+        List<SimulationConnection> lines = new ArrayList<>();
+        TestTileEntity previous = new TestTileEntity(SimulationType.EXT_GRID, new BlockPos(0, 64, 0));
+        simTileEntities.add(previous);
+        for (int i = 1; i <= loads; i++) {
+            TestTileEntity load = new TestTileEntity(SimulationType.LOAD, new BlockPos(2 * i, 64, 0));
+            load.setInput("p_mw", 0.001 * (i % 100));
+            SimulationConnection line = new SimulationConnection(previous.getBus(), previous.getPos().east().toLong());
+            line.setToBus(load.getBus());
+            line.incrementLength(100);
+            simTileEntities.add(load);
+            lines.add(line);
+            previous = load;
+        }
+        return new SimulationNetwork(new NetworkTopology(new LongOpenHashSet(), simTileEntities, lines, false));
+    }
+
+}
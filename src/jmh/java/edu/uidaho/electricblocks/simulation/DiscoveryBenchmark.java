@@ -0,0 +1,61 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures discovering a network of 100001 blocks: an external grid and 1000 loads in a row, with 99 wires between
+ * each load and the one before it. packedPositions is the current discovery with wire runs not compressed, so that it
+ * visits every block like legacy does. legacy is the walk with a BlockPos, a ConnectedBlock and a LinkedList node per
+ * block visited, see LegacyDiscovery, with electric blocks classified by an identity set. compressed is the current
+ * discovery with wire runs compressed.
+ *
+ * Run with -prof gc to compare the bytes allocated by each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscoveryBenchmark {
+
+    private BenchmarkNetworks.Layout layout;
+    private final Set<Object> electricBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    @Setup
+    public void setUp() {
+        layout = BenchmarkNetworks.line(1000, 99);
+        electricBlocks.addAll(Arrays.asList(BenchmarkNetworks.REGISTERED_BLOCKS));
+    }
+
+    @Benchmark
+    public NetworkTopology packedPositions() {
+        return layout.network().discover(false);
+    }
+
+    @Benchmark
+    public NetworkTopology compressed() {
+        return layout.network().discover(true);
+    }
+
+    @Benchmark
+    public LegacyDiscovery legacy() {
+        return new LegacyDiscovery(layout, electricBlocks::contains).run();
+    }
+
+}
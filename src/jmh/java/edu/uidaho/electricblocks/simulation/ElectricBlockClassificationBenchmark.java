@@ -0,0 +1,88 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost per visited block of discovering a line of 10000 wires between an external grid and a load, with
+ * electric blocks classified in three ways:
+ *
+ * registryScan is discovery as it was at first, resolving every RegistryObject in RegistryHandler.BLOCKS for each
+ * neighbour of each visited block. The registry is a LinkedHashSet of suppliers standing in for the RegistryObjects,
+ * with one for each of the blocks the mod registers, in the same order.
+ * identitySet is the same discovery with blocks classified by the identity set built by
+ * RegistryHandler.bakeElectricBlocks.
+ * electricBlockIndex is discovery as it is now, where blocks are classified once as they are placed or loaded and
+ * discovery only reads the bit sets of the ElectricBlockIndex. Wire runs aren't compressed so every wire is visited.
+ *
+ * The blocks in the world are stand-in objects, see BenchmarkNetworks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(ElectricBlockClassificationBenchmark.WIRES + 2)
+public class ElectricBlockClassificationBenchmark {
+
+    static final int WIRES = 10000;
+
+    private BenchmarkNetworks.Layout layout;
+    private Collection<Supplier<Object>> registryEntries;
+    private Set<Object> electricBlocks;
+
+    @Setup
+    public void setUp() {
+        layout = BenchmarkNetworks.line(1, WIRES);
+        Set<Supplier<Object>> entries = new LinkedHashSet<>();
+        electricBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object block : BenchmarkNetworks.REGISTERED_BLOCKS) {
+            entries.add(() -> block);
+            electricBlocks.add(block);
+        }
+        registryEntries = Collections.unmodifiableSet(entries);
+    }
+
+    @Benchmark
+    public LegacyDiscovery registryScan() {
+        return new LegacyDiscovery(layout, this::isRegistered).run();
+    }
+
+    @Benchmark
+    public LegacyDiscovery identitySet() {
+        return new LegacyDiscovery(layout, electricBlocks::contains).run();
+    }
+
+    @Benchmark
+    public NetworkTopology electricBlockIndex() {
+        return layout.network().discover(false);
+    }
+
+    private boolean isRegistered(Object block) {
+        for (Supplier<Object> registryObject : registryEntries) {
+            if (registryObject.get() == block) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
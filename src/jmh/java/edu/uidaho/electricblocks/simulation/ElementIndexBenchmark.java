@@ -0,0 +1,85 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how discovering a network and looking up its elements scale with the number of elements. The network is an
+ * external grid and a row of loads with one wire between each load and the one before it, so half of the elements
+ * are tile entities and half are lines. The sizes are a decade apart, up to 100000 elements where the quadratic term
+ * of legacy dominates its cost. Divide the scores by the number of elements to compare the cost per element.
+ *
+ * discover is the current discovery, which keeps the tile entities found in an identity set and indexes the elements
+ * once when the topology is created. Its cost per element only goes up as far as its hash sets outgrow the CPU caches.
+ * legacy is the walk from before, which checked whether each tile entity had already been found with
+ * ArrayList.contains, see LegacyDiscovery. Its cost per element grows with the number of tile entities found. indexOf
+ * looks up the index of every element by its simulation ID, as is done for each element of a response. It makes one
+ * hash lookup per element, but each lookup reads a key string from elsewhere in memory, so the time per lookup goes up
+ * once the IDs no longer fit in the CPU caches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ElementIndexBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int elements;
+
+    private BenchmarkNetworks.Layout layout;
+    private final Set<Object> electricBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+    private NetworkTopology topology;
+    private final List<String> ids = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        layout = BenchmarkNetworks.line(elements / 2, 1);
+        electricBlocks.addAll(Arrays.asList(BenchmarkNetworks.REGISTERED_BLOCKS));
+        topology = layout.network().discover(false);
+        for (SimulationTileEntity sim : topology.getSimulationList()) {
+            ids.add(sim.getSimulationID().toString());
+        }
+        for (SimulationConnection simConn : topology.getSimulationConnections()) {
+            ids.add(simConn.getSimId().toString());
+        }
+    }
+
+    @Benchmark
+    public NetworkTopology discover() {
+        return layout.network().discover(false);
+    }
+
+    @Benchmark
+    public LegacyDiscovery legacy() {
+        return new LegacyDiscovery(layout, electricBlocks::contains).run();
+    }
+
+    @Benchmark
+    public int indexOf() {
+        int sum = 0;
+        for (String id : ids) {
+            sum += topology.indexOf(id);
+        }
+        return sum;
+    }
+
+}
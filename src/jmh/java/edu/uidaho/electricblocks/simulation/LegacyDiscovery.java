@@ -0,0 +1,139 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.Predicate;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import javax.annotation.Nullable;
+
+/**
+ * The way SimulationNetwork.addConnectedBlocks discovered networks before the ElectricBlockIndex, kept as the baseline
+ * the discovery benchmarks compare against. Each block visited is a ConnectedBlock in a LinkedList queue, its position
+ * is a BlockPos in a HashSet of checked blocks and its neighbours are a new list of BlockPos. The block at each
+ * neighbour is read from the layout like it was read from the world and classified with the given predicate.
+ *
+ * Lines are created with the constructor SimulationConnection has now, which takes the position of the first wire.
+ */
+final class LegacyDiscovery {
+
+    private final BenchmarkNetworks.Layout layout;
+    private final Predicate<Object> electricBlock;
+    final List<SimulationTileEntity> simTileEntities = new ArrayList<>();
+    final List<SimulationConnection> simConnections = new ArrayList<>();
+    boolean hasLoop = false;
+
+    /**
+     * @param layout The blocks to discover
+     * @param electricBlock Checks whether a block is an electric block
+     */
+    LegacyDiscovery(BenchmarkNetworks.Layout layout, Predicate<Object> electricBlock) {
+        this.layout = layout;
+        this.electricBlock = electricBlock;
+    }
+
+    private class ConnectedBlock {
+
+        final BlockPos pos;
+        final SimulationTileEntity ste;
+        SimulationConnection currConnection = null;
+        ConnectedBlock previousBlock = null;
+
+        ConnectedBlock(SimulationTileEntity ste) {
+            this.ste = ste;
+            this.pos = ste.getPos();
+        }
+
+        ConnectedBlock(BlockPos pos) {
+            this.pos = pos;
+            this.ste = layout.tileEntities.get(pos);
+        }
+
+        boolean previousBlockNotEqualTo(@Nullable BlockPos newPos) {
+            if (newPos == null || previousBlock == null) {
+                return true;
+            }
+            return !newPos.equals(previousBlock.pos);
+        }
+
+    }
+
+    /**
+     * Discovers every block connected to the first tile entity of the layout
+     * @return This discovery
+     */
+    LegacyDiscovery run() {
+        HashSet<BlockPos> checked = new HashSet<>();
+        Queue<ConnectedBlock> unchecked = new LinkedList<>();
+        unchecked.add(new ConnectedBlock(layout.simTileEntities.get(0)));
+
+        while (!unchecked.isEmpty()) {
+            ConnectedBlock cb = unchecked.remove();
+            if (checked.contains(cb.pos) && cb.ste == null) {
+                hasLoop = true;
+                continue;
+            }
+
+            if (cb.ste != null) {
+                if (!simTileEntities.contains(cb.ste)) simTileEntities.add(cb.ste);
+
+                if (cb.currConnection != null) {
+                    cb.currConnection.setToBus(cb.ste.getEmbeddedBus(cb.previousBlock.pos));
+                    simConnections.add(cb.currConnection);
+                }
+
+                for (BlockPos pos : getSurroundingBlocks(cb.pos)) {
+                    if (isWire(pos) && cb.previousBlockNotEqualTo(pos)) {
+                        ConnectedBlock ncb = new ConnectedBlock(pos);
+                        ncb.previousBlock = cb;
+                        ncb.currConnection = new SimulationConnection(cb.ste.getEmbeddedBus(pos), pos.toLong());
+                        unchecked.add(ncb);
+                    }
+                }
+            } else {
+                cb.currConnection.incrementLength();
+
+                for (BlockPos pos : getSurroundingBlocks(cb.pos)) {
+                    if (electricBlock.test(layout.getBlock(pos)) && cb.previousBlockNotEqualTo(pos)) {
+                        ConnectedBlock ncb = new ConnectedBlock(pos);
+                        ncb.previousBlock = cb;
+                        ncb.currConnection = cb.currConnection;
+                        unchecked.add(ncb);
+                    }
+                }
+            }
+
+            checked.add(cb.pos);
+        }
+        return this;
+    }
+
+    private boolean isWire(BlockPos pos) {
+        return electricBlock.test(layout.getBlock(pos)) && !layout.tileEntities.containsKey(pos);
+    }
+
+    private static List<BlockPos> getSurroundingBlocks(BlockPos pos) {
+        List<BlockPos> list = new ArrayList<>();
+
+        BlockPos up = pos.up();
+        if (World.isValid(up)) list.add(up);
+        BlockPos down = pos.down();
+        if (World.isValid(down)) list.add(down);
+        BlockPos north = pos.north();
+        if (World.isValid(north)) list.add(north);
+        BlockPos south = pos.south();
+        if (World.isValid(south)) list.add(south);
+        BlockPos east = pos.east();
+        if (World.isValid(east)) list.add(east);
+        BlockPos west = pos.west();
+        if (World.isValid(west)) list.add(west);
+
+        return list;
+    }
+
+}
@@ -0,0 +1,102 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.internal.bind.JsonTreeWriter;
+import com.google.gson.stream.JsonWriter;
+
+import edu.uidaho.electricblocks.ElectricBlocksConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares streaming a SIM_REQUEST onto the output stream with SimulationNetwork.writeJson against building it as a
+ * JSON tree first, which is how requests were sent before. The tree path does what toJson did: each element is built as
+ * its own JsonObject, its entries are copied into the elements object, and the whole tree is turned into a String and
+ * then into the bytes that are written. Both paths write to a stream that discards the bytes.
+ *
+ * Run with -prof gc, the bytes allocated per request are reported as gc.alloc.rate.norm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestEncodingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int loads;
+
+    private final OutputStream out = ByteStreams.nullOutputStream();
+    private SimulationNetwork network;
+
+    @Setup
+    public void setUp() {
+        network = BenchmarkNetworks.feeder(loads);
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        network.writeJson(writer);
+        writer.flush();
+    }
+
+    @Benchmark
+    public void tree() throws IOException {
+        JsonObject elements = new JsonObject();
+        for (SimulationTileEntity sim : network.getSimulationList()) {
+            JsonTreeWriter element = new JsonTreeWriter();
+            element.beginObject();
+            sim.writeJson(element);
+            element.endObject();
+            copy(element.get().getAsJsonObject(), elements);
+        }
+        for (SimulationConnection simConn : network.getCompleteConnections()) {
+            JsonTreeWriter element = new JsonTreeWriter();
+            element.beginObject();
+            simConn.writeJson(element);
+            element.endObject();
+            copy(element.get().getAsJsonObject(), elements);
+        }
+
+        JsonObject request = new JsonObject();
+        request.addProperty("status", "SIM_REQUEST");
+        request.addProperty("3phase", false);
+        request.add("elements", elements);
+        if (ElectricBlocksConfig.getWarmStart()) {
+            JsonTreeWriter init = new JsonTreeWriter();
+            init.beginObject();
+            network.getWarmStart().writeJson(init);
+            init.endObject();
+            copy(init.get().getAsJsonObject(), request);
+        }
+        out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void copy(JsonObject from, JsonObject to) {
+        for (Map.Entry<String, JsonElement> entry : from.entrySet()) {
+            to.add(entry.getKey(), entry.getValue());
+        }
+    }
+
+}
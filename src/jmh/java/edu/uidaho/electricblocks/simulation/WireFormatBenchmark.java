@@ -0,0 +1,143 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import edu.uidaho.electricblocks.simulation.cbor.CborIdTable;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonReader;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares JSON and CBOR for the traffic of a large grid, a radial feeder of 1000 or 10000 loads. The encode
+ * benchmarks write the SIM_REQUEST the way SimulationHandler does, and the decode benchmarks read a SIM_RESULT for
+ * every element of the network with SimulationNetwork.readSimulationResults. The CBOR response numbers its IDs with
+ * the table the request was written with, as EBPP does.
+ *
+ * The size of each payload is printed when the benchmark is set up. The embedded power flow doesn't converge on a
+ * feeder this long, so the response is made up of results with the same fields as those of the embedded power flow
+ * and random values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    private static final String[] TILE_ENTITY_RESULTS = {"p_mw", "q_mvar"};
+    private static final String[] BUS_RESULTS = {"vm_pu", "va_degree", "p_mw", "q_mvar"};
+    private static final String[] LINE_RESULTS = {
+            "p_from_mw", "q_from_mvar", "p_to_mw", "q_to_mvar", "pl_mw", "ql_mvar", "i_from_ka", "i_to_ka",
+            "vm_from_pu", "vm_to_pu", "i_ka", "loading_percent"
+    };
+
+    @Param({"1000", "10000"})
+    public int loads;
+
+    private SimulationNetwork network;
+    private CborIdTable ids;
+    private byte[] jsonResponse;
+    private byte[] cborResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        network = BenchmarkNetworks.feeder(loads);
+        ids = new CborIdTable();
+        byte[] jsonRequest = encodeJson();
+        byte[] cborRequest = encodeCbor(ids);
+
+        Random random = new Random(0);
+        JsonObject elements = new JsonObject();
+        for (SimulationTileEntity sim : network.getSimulationList()) {
+            elements.add(sim.getSimulationID().toString(), results(TILE_ENTITY_RESULTS, random));
+            for (UUID bus : sim.getEmbeddedBuses().values()) {
+                elements.add(bus.toString(), results(BUS_RESULTS, random));
+            }
+        }
+        for (SimulationConnection simConn : network.getSimulationConnections()) {
+            elements.add(simConn.getSimId().toString(), results(LINE_RESULTS, random));
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("status", SimulationResponse.SIM_RESULT);
+        response.addProperty("iterations", 3);
+        response.add("elements", elements);
+
+        jsonResponse = response.toString().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new CborJsonWriter(out, ids);
+        new Gson().toJson(response, writer);
+        writer.flush();
+        cborResponse = out.toByteArray();
+
+        System.out.printf("%n%d loads, request JSON %d bytes CBOR %d bytes, response JSON %d bytes CBOR %d bytes%n",
+                loads, jsonRequest.length, cborRequest.length, jsonResponse.length, cborResponse.length);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        writer.setLenient(true);
+        network.writeJson(writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeCbor() throws IOException {
+        return encodeCbor(new CborIdTable());
+    }
+
+    @Benchmark
+    public SimulationResponse decodeJson() throws IOException {
+        return network.readSimulationResults(new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(jsonResponse), StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public SimulationResponse decodeCbor() throws IOException {
+        return network.readSimulationResults(new CborJsonReader(new ByteArrayInputStream(cborResponse), ids));
+    }
+
+    private byte[] encodeCbor(CborIdTable ids) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new CborJsonWriter(out, ids);
+        network.writeJson(writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    private static JsonObject results(String[] names, Random random) {
+        JsonObject results = new JsonObject();
+        for (String name : names) {
+            results.addProperty(name, random.nextDouble());
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,61 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures discovering a transmission line of 1 km and of 10 km, a straight run of 1000 or 10000 wires between an
+ * external grid and a load, with wire runs compressed and with every wire queued and visited on its own. legacy is the
+ * walk from before the ElectricBlockIndex, where every wire was a ConnectedBlock in the queue, see LegacyDiscovery.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WireRunBenchmark {
+
+    @Param({"1000", "10000"})
+    public int wires;
+
+    private BenchmarkNetworks.Layout layout;
+    private final Set<Object> electricBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    @Setup
+    public void setUp() {
+        layout = BenchmarkNetworks.line(1, wires);
+        electricBlocks.addAll(Arrays.asList(BenchmarkNetworks.REGISTERED_BLOCKS));
+    }
+
+    @Benchmark
+    public NetworkTopology compressed() {
+        return layout.network().discover(true);
+    }
+
+    @Benchmark
+    public NetworkTopology uncompressed() {
+        return layout.network().discover(false);
+    }
+
+    @Benchmark
+    public LegacyDiscovery legacy() {
+        return new LegacyDiscovery(layout, electricBlocks::contains).run();
+    }
+
+}
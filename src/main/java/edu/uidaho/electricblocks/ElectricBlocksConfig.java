@@ -2,9 +2,15 @@ package edu.uidaho.electricblocks;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import edu.uidaho.electricblocks.simulation.EBPPTransport;
+import edu.uidaho.electricblocks.simulation.SolverBackend;
+
 import net.minecraftforge.common.ForgeConfigSpec;
 import net.minecraftforge.common.ForgeConfigSpec.BooleanValue;
 import net.minecraftforge.common.ForgeConfigSpec.ConfigValue;
+import net.minecraftforge.common.ForgeConfigSpec.DoubleValue;
+import net.minecraftforge.common.ForgeConfigSpec.EnumValue;
+import net.minecraftforge.common.ForgeConfigSpec.IntValue;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
 import net.minecraftforge.fml.config.ModConfig;
@@ -26,6 +32,27 @@ public class ElectricBlocksConfig {
     private static String proxyURL;
     private static boolean updateOnBlockBreak;
     private static boolean logJSONRequests;
+    private static int simulationThreads;
+    private static int connectTimeoutMs;
+    private static int readTimeoutMs;
+    private static int maxConnections;
+    private static boolean chunkedRequests;
+    private static double resultApplyBudgetMs;
+    private static int discoveryThreads;
+    private static boolean compressWireRuns;
+    private static int resultCacheSize;
+    private static boolean deltaRequests;
+    private static boolean binaryEncoding;
+    private static int compressionThreshold;
+    private static int compressionLevel;
+    private static SolverBackend solverBackend;
+    private static boolean warmStart;
+    private static int maxBatchSize;
+    private static int pipelineThreads;
+    private static int breakerFailureThreshold;
+    private static int breakerBackoffMs;
+    private static int breakerMaxBackoffMs;
+    private static boolean keepLastKnownGood;
 
     /**
      * Get the host URL of the EBPP simulation server endpoint. This is used by the simulation handler to create
@@ -56,11 +83,216 @@ public class ElectricBlocksConfig {
         return logJSONRequests;
     }
 
+    /**
+     * The number of worker threads used to simulate networks. Networks that don't share any blocks are simulated in
+     * parallel up to this limit, while requests for networks that share blocks are always simulated one at a time.
+     * @return The number of simulation worker threads
+     */
+    public static int getSimulationThreads() {
+        return simulationThreads;
+    }
+
+    /**
+     * How long to wait when opening a connection to the EBPP simulation server before giving up
+     * @return The connect timeout in milliseconds
+     */
+    public static int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    /**
+     * How long to wait for the EBPP simulation server to respond to a request before giving up. Large networks can take
+     * a while to simulate so this should be fairly generous.
+     * @return The read timeout in milliseconds
+     */
+    public static int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    /**
+     * The maximum number of connections to the EBPP simulation server that can be in use at once. Idle connections are
+     * kept alive and reused for later requests. The JDK keeps at most EBPPTransport.KEEP_ALIVE_CACHE_SIZE idle sockets
+     * per host, so more connections than that would be closed after each request instead of reused.
+     * @return The maximum number of connections to EBPP
+     */
+    public static int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Whether requests should be streamed to the EBPP simulation server with chunked transfer encoding. This avoids
+     * buffering the request, but the server must support chunked request bodies.
+     * @return Whether requests to EBPP are chunked
+     */
+    public static boolean getChunkedRequests() {
+        return chunkedRequests;
+    }
+
+    /**
+     * How much time the server thread may spend applying simulation results at the end of each tick. Results that
+     * don't fit in the budget are applied on the following ticks.
+     * @return The per tick budget for applying simulation results in milliseconds
+     */
+    public static double getResultApplyBudgetMs() {
+        return resultApplyBudgetMs;
+    }
+
+    /**
+     * @return The number of threads used to discover the blocks that make up a simulation network
+     */
+    public static int getDiscoveryThreads() {
+        return discoveryThreads;
+    }
+
+    /**
+     * Whether straight runs of wire are walked in one go while discovering a network instead of queueing every wire
+     * block individually. The resulting network is the same either way.
+     * @return Whether or not straight wire runs are compressed during network discovery
+     */
+    public static boolean getCompressWireRuns() {
+        return compressWireRuns;
+    }
+
+    /**
+     * How many recent simulation results are kept so that networks returning to a recent state don't need to be sent
+     * to EBPP again.
+     * @return The maximum number of cached simulation results, 0 if caching is disabled
+     */
+    public static int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * Whether networks are sent to EBPP as sessions, where only the changes since the previous request are sent. This
+     * requires a version of EBPP that supports SIM_DELTA requests.
+     * @return Whether or not delta requests are enabled
+     */
+    public static boolean getDeltaRequests() {
+        return deltaRequests;
+    }
+
+    /**
+     * Whether simulation requests are sent to EBPP as CBOR with UUIDs replaced by small integers. This is only used if
+     * EBPP lists CBOR as a supported encoding in its keep alive response, otherwise JSON is used.
+     * @return Whether or not binary encoding is enabled
+     */
+    public static boolean getBinaryEncoding() {
+        return binaryEncoding;
+    }
+
+    /**
+     * Size in bytes above which requests to EBPP are gzip compressed. When this is 0 requests are never compressed and
+     * EBPP isn't told that compressed responses are accepted.
+     * @return The compression threshold in bytes
+     */
+    public static int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Deflate level used to compress requests to EBPP, from 1 (fastest) to 9 (smallest).
+     * @return The compression level
+     */
+    public static int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * The backend used to solve the power flow of simulation networks. EBPP sends every network to the EBPP simulation
+     * server while EMBEDDED solves them in process.
+     * @return The solver backend
+     */
+    public static SolverBackend getSolverBackend() {
+        return solverBackend;
+    }
+
+    /**
+     * Whether the bus voltages from the last simulation of a network are sent as the initial guess for the next one.
+     * @return Whether or not warm starts are enabled
+     */
+    public static boolean getWarmStart() {
+        return warmStart;
+    }
+
+    /**
+     * The most networks that are sent to EBPP together in a single SIM_BATCH request. Networks are only batched when
+     * more of them are ready than there are simulation threads free to send them. When this is 1 every network is sent
+     * in its own request.
+     * @return The maximum number of networks in a batch
+     */
+    public static int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Number of threads used by each of the encode and decode stages of the simulation pipeline. The transport stage
+     * uses one thread per simulation thread since it spends most of its time waiting on EBPP.
+     * @return The number of threads per encode and decode stage
+     */
+    public static int getPipelineThreads() {
+        return pipelineThreads;
+    }
+
+    /**
+     * Number of simulation requests in a row that have to fail to reach EBPP before requests stop being sent to it.
+     * While requests aren't being sent they fail straight away instead of waiting for a timeout.
+     * @return The failure threshold of the circuit breaker, 0 if requests are always sent
+     */
+    public static int getBreakerFailureThreshold() {
+        return breakerFailureThreshold;
+    }
+
+    /**
+     * Milliseconds to wait after EBPP becomes unavailable before checking whether it is back. The wait doubles each time
+     * EBPP is still unavailable.
+     * @return The initial backoff of the circuit breaker in milliseconds
+     */
+    public static int getBreakerBackoffMs() {
+        return breakerBackoffMs;
+    }
+
+    /**
+     * The longest time to wait between checks of whether EBPP is back.
+     * @return The maximum backoff of the circuit breaker in milliseconds
+     */
+    public static int getBreakerMaxBackoffMs() {
+        return breakerMaxBackoffMs;
+    }
+
+    /**
+     * Whether blocks keep their last simulated outputs when EBPP can't be reached, instead of having them zeroed.
+     * @return Whether or not the last known good outputs are kept
+     */
+    public static boolean getKeepLastKnownGood() {
+        return keepLastKnownGood;
+    }
+
     public static void bakeConfig() {
         hostURL = SERVER.hostURL.get();
         proxyURL = SERVER.proxyURL.get();
         updateOnBlockBreak = SERVER.updateOnBlockBreak.get();
         logJSONRequests = SERVER.logJSONRequests.get();
+        simulationThreads = SERVER.simulationThreads.get();
+        connectTimeoutMs = SERVER.connectTimeoutMs.get();
+        readTimeoutMs = SERVER.readTimeoutMs.get();
+        maxConnections = SERVER.maxConnections.get();
+        chunkedRequests = SERVER.chunkedRequests.get();
+        resultApplyBudgetMs = SERVER.resultApplyBudgetMs.get();
+        discoveryThreads = SERVER.discoveryThreads.get();
+        compressWireRuns = SERVER.compressWireRuns.get();
+        resultCacheSize = SERVER.resultCacheSize.get();
+        deltaRequests = SERVER.deltaRequests.get();
+        binaryEncoding = SERVER.binaryEncoding.get();
+        compressionThreshold = SERVER.compressionThreshold.get();
+        compressionLevel = SERVER.compressionLevel.get();
+        solverBackend = SERVER.solverBackend.get();
+        warmStart = SERVER.warmStart.get();
+        maxBatchSize = SERVER.maxBatchSize.get();
+        pipelineThreads = SERVER.pipelineThreads.get();
+        breakerFailureThreshold = SERVER.breakerFailureThreshold.get();
+        breakerBackoffMs = SERVER.breakerBackoffMs.get();
+        breakerMaxBackoffMs = SERVER.breakerMaxBackoffMs.get();
+        keepLastKnownGood = SERVER.keepLastKnownGood.get();
     }
 
     @SubscribeEvent
@@ -76,6 +308,27 @@ public class ElectricBlocksConfig {
         public final ConfigValue<String> proxyURL;
         public final BooleanValue updateOnBlockBreak;
         public final BooleanValue logJSONRequests;
+        public final IntValue simulationThreads;
+        public final IntValue connectTimeoutMs;
+        public final IntValue readTimeoutMs;
+        public final IntValue maxConnections;
+        public final BooleanValue chunkedRequests;
+        public final DoubleValue resultApplyBudgetMs;
+        public final IntValue discoveryThreads;
+        public final BooleanValue compressWireRuns;
+        public final IntValue resultCacheSize;
+        public final BooleanValue deltaRequests;
+        public final BooleanValue binaryEncoding;
+        public final IntValue compressionThreshold;
+        public final IntValue compressionLevel;
+        public final EnumValue<SolverBackend> solverBackend;
+        public final BooleanValue warmStart;
+        public final IntValue maxBatchSize;
+        public final IntValue pipelineThreads;
+        public final IntValue breakerFailureThreshold;
+        public final IntValue breakerBackoffMs;
+        public final IntValue breakerMaxBackoffMs;
+        public final BooleanValue keepLastKnownGood;
         
         public ServerConfig(ForgeConfigSpec.Builder builder) {
             hostURL = builder
@@ -94,6 +347,90 @@ public class ElectricBlocksConfig {
                 .comment("Should JSON requests to EBPP be included in the log. Useful for debugging")
                 .translation("config.electricblocks.log_json_requests")
                 .define("logJSONRequests", false);
+            simulationThreads = builder
+                .comment("Number of networks that can be simulated at the same time. Networks sharing blocks are always simulated in order")
+                .translation("config.electricblocks.simulation_threads")
+                .defineInRange("simulationThreads", 4, 1, 64);
+            connectTimeoutMs = builder
+                .comment("Milliseconds to wait when connecting to the EBPP Simulation Server before giving up")
+                .translation("config.electricblocks.connect_timeout_ms")
+                .defineInRange("connectTimeoutMs", 2000, 0, Integer.MAX_VALUE);
+            readTimeoutMs = builder
+                .comment("Milliseconds to wait for the EBPP Simulation Server to respond before giving up")
+                .translation("config.electricblocks.read_timeout_ms")
+                .defineInRange("readTimeoutMs", 30000, 0, Integer.MAX_VALUE);
+            maxConnections = builder
+                .comment("Maximum number of kept alive connections to the EBPP Simulation Server in use at once. At most the number of idle connections the JVM keeps alive per host")
+                .translation("config.electricblocks.max_connections")
+                .defineInRange("maxConnections", 4, 1, EBPPTransport.KEEP_ALIVE_CACHE_SIZE);
+            chunkedRequests = builder
+                .comment("Stream requests to the EBPP Simulation Server using chunked transfer encoding. The server must support it")
+                .translation("config.electricblocks.chunked_requests")
+                .define("chunkedRequests", false);
+            resultApplyBudgetMs = builder
+                .comment("Milliseconds per server tick that may be spent applying simulation results to blocks")
+                .translation("config.electricblocks.result_apply_budget_ms")
+                .defineInRange("resultApplyBudgetMs", 5.0, 0.0, 50.0);
+            discoveryThreads = builder
+                .comment("Number of threads used to find the blocks connected to a modified block")
+                .translation("config.electricblocks.discovery_threads")
+                .defineInRange("discoveryThreads", 2, 1, 16);
+            compressWireRuns = builder
+                .comment("Walk straight runs of wire in one go when discovering a network instead of one block at a time")
+                .translation("config.electricblocks.compress_wire_runs")
+                .define("compressWireRuns", true);
+            resultCacheSize = builder
+                .comment("Number of recent simulation results to reuse when a network returns to a recent state. 0 disables the cache")
+                .translation("config.electricblocks.result_cache_size")
+                .defineInRange("resultCacheSize", 256, 0, 65536);
+            deltaRequests = builder
+                .comment("Only send the changes to a network after the first request. Requires an EBPP server that supports SIM_DELTA requests")
+                .translation("config.electricblocks.delta_requests")
+                .define("deltaRequests", false);
+            binaryEncoding = builder
+                .comment("Send simulation requests as CBOR instead of JSON when EBPP supports it")
+                .translation("config.electricblocks.binary_encoding")
+                .define("binaryEncoding", false);
+            compressionThreshold = builder
+                .comment("Requests to the EBPP Simulation Server larger than this many bytes are gzip compressed. 0 disables compression. The server must support it")
+                .translation("config.electricblocks.compression_threshold")
+                .defineInRange("compressionThreshold", 0, 0, Integer.MAX_VALUE);
+            compressionLevel = builder
+                .comment("Compression level used for requests to the EBPP Simulation Server, from 1 (fastest) to 9 (smallest)")
+                .translation("config.electricblocks.compression_level")
+                .defineInRange("compressionLevel", 6, 1, 9);
+            solverBackend = builder
+                .comment("Where power flows are solved. EBPP uses the EBPP Simulation Server, EMBEDDED solves networks in process without EBPP")
+                .translation("config.electricblocks.solver_backend")
+                .defineEnum("solverBackend", SolverBackend.EBPP);
+            warmStart = builder
+                .comment("Start each power flow from the bus voltages of the last simulation of the same network instead of a flat start")
+                .translation("config.electricblocks.warm_start")
+                .define("warmStart", true);
+            maxBatchSize = builder
+                .comment("Most networks sent to EBPP in a single SIM_BATCH request when many are waiting. 1 disables batching. Requires an EBPP server that supports SIM_BATCH requests")
+                .translation("config.electricblocks.max_batch_size")
+                .defineInRange("maxBatchSize", 1, 1, 256);
+            pipelineThreads = builder
+                .comment("Number of threads used to encode requests to EBPP and the same number again to decode its responses")
+                .translation("config.electricblocks.pipeline_threads")
+                .defineInRange("pipelineThreads", 2, 1, 16);
+            breakerFailureThreshold = builder
+                .comment("Failed requests in a row after which requests stop being sent to EBPP until it responds to a keep alive again. 0 always sends requests")
+                .translation("config.electricblocks.breaker_failure_threshold")
+                .defineInRange("breakerFailureThreshold", 3, 0, 1000);
+            breakerBackoffMs = builder
+                .comment("Milliseconds to wait after EBPP becomes unavailable before checking if it is back. Doubles every time it is still unavailable")
+                .translation("config.electricblocks.breaker_backoff_ms")
+                .defineInRange("breakerBackoffMs", 1000, 1, 3600000);
+            breakerMaxBackoffMs = builder
+                .comment("Most milliseconds to wait between checks of whether EBPP is back")
+                .translation("config.electricblocks.breaker_max_backoff_ms")
+                .defineInRange("breakerMaxBackoffMs", 60000, 1, 3600000);
+            keepLastKnownGood = builder
+                .comment("Keep the last simulated outputs of blocks when EBPP can't be reached instead of zeroing them")
+                .translation("config.electricblocks.keep_last_known_good")
+                .define("keepLastKnownGood", false);
         }
 
     }
@@ -20,8 +20,12 @@ import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.uidaho.electricblocks.commands.ElectricBlocksCommand;
 import edu.uidaho.electricblocks.eventhandlers.BlockEventHandler;
+import edu.uidaho.electricblocks.eventhandlers.ConnectivityEventHandler;
+import edu.uidaho.electricblocks.eventhandlers.ServerTickEventHandler;
 import edu.uidaho.electricblocks.simulation.SimulationHandler;
+import edu.uidaho.electricblocks.simulation.SolverBackend;
 
 import edu.uidaho.electricblocks.plugins.FeatureEBInService;
 import edu.uidaho.electricblocks.plugins.FeatureEBInputs;
@@ -65,6 +69,8 @@ public class ElectricBlocksMod {
         // Register ourselves for server and other game events we are interested in
         MinecraftForge.EVENT_BUS.register(this);
         MinecraftForge.EVENT_BUS.register(new BlockEventHandler());
+        MinecraftForge.EVENT_BUS.register(new ServerTickEventHandler());
+        MinecraftForge.EVENT_BUS.register(new ConnectivityEventHandler());
 
         ElectricBlocksPacketHandler.registerPackets();
 
@@ -82,6 +88,7 @@ public class ElectricBlocksMod {
     private void setup(final FMLCommonSetupEvent event)
     {
         LOGGER.info("HELLO FROM PREINIT");
+        RegistryHandler.bakeElectricBlocks();
     }
 
     private void doClientStuff(final FMLClientSetupEvent event) {
@@ -90,6 +97,11 @@ public class ElectricBlocksMod {
 
     @SubscribeEvent
     public void onServerStarting(FMLServerStartingEvent event) {
+        ElectricBlocksCommand.register(event.getCommandDispatcher());
+        if (ElectricBlocksConfig.getSolverBackend() == SolverBackend.EMBEDDED) {
+            LOGGER.info("Using the embedded power flow solver, EBPP will not be contacted.");
+            return;
+        }
         boolean keepAliveSuccessful;
         try {
             keepAliveSuccessful = SimulationHandler.instance().sendKeepAlive();
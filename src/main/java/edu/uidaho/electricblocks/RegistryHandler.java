@@ -6,6 +6,7 @@ import edu.uidaho.electricblocks.items.*;
 import edu.uidaho.electricblocks.tileentities.*;
 
 import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
 import net.minecraft.inventory.container.ContainerType;
 import net.minecraft.item.Item;
 import net.minecraft.tileentity.AbstractFurnaceTileEntity;
@@ -17,6 +18,12 @@ import net.minecraftforge.registries.DeferredRegister;
 import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.IForgeRegistryEntry;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
 import static edu.uidaho.electricblocks.init.RecipeSerializerInit.RECIPE_SERIALIZERS;
 
 /**
@@ -79,6 +86,10 @@ public final class RegistryHandler {
     public static final RegistryObject<TileEntityType<ElecFurnaceTileEntity>> ELEC_FURNACE_TILE_ENTITY =
             TILE_ENTITIES.register("elec_furnace_tileentity", () -> TileEntityType.Builder.create(ElecFurnaceTileEntity::new).build(null));
 
+    // Every block registered by this mod, see bakeElectricBlocks
+    private static volatile Set<Block> electricBlocks = Collections.emptySet();
+    private static volatile List<BlockState> electricStates = Collections.emptyList();
+
     //Containers
     public static final RegistryObject<ContainerType<ElecFurnaceContainer>> ELEC_FURNACE_CONTAINER = CONTAINER_TYPES
             .register("electric_furnace", () -> IForgeContainerType.create(ElecFurnaceContainer::new));
@@ -95,4 +106,39 @@ public final class RegistryHandler {
         RECIPE_SERIALIZERS.register(FMLJavaModLoadingContext.get().getModEventBus());
     }
 
+    /**
+     * Builds the set of blocks registered by this mod. Must be called once registration has finished, which is the case
+     * by the time the common setup event is fired. Blocks are compared by identity as there is only ever one instance
+     * of each registered block. Every state of those blocks is kept as well for checking chunk palettes.
+     */
+    public static void bakeElectricBlocks() {
+        Set<Block> blocks = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<BlockState> states = new ArrayList<>();
+        for (RegistryObject<Block> registryObject : BLOCKS.getEntries()) {
+            Block block = registryObject.get();
+            blocks.add(block);
+            states.addAll(block.getStateContainer().getValidStates());
+        }
+        electricBlocks = Collections.unmodifiableSet(blocks);
+        electricStates = Collections.unmodifiableList(states);
+    }
+
+    /**
+     * Checks if a block was registered by this mod. This helps differentiate between blocks specific to this mod and
+     * all the other blocks in the game.
+     * @param block The block to check
+     * @return Whether or not the block is an electric block
+     */
+    public static boolean isElectricBlock(Block block) {
+        return electricBlocks.contains(block);
+    }
+
+    /**
+     * Gets every block state of the blocks registered by this mod. Only filled in once bakeElectricBlocks was called.
+     * @return The block states of all electric blocks
+     */
+    public static List<BlockState> getElectricStates() {
+        return electricStates;
+    }
+
 }
@@ -0,0 +1,45 @@
+package edu.uidaho.electricblocks.commands;
+
+import java.util.Map;
+
+import com.mojang.brigadier.CommandDispatcher;
+
+import edu.uidaho.electricblocks.simulation.SimulationMetrics;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+import net.minecraft.util.text.TranslationTextComponent;
+
+/**
+ * Registers the /electricblocks server command. This is used by server operators to look at what the simulation code
+ * is doing without having to attach a profiler.
+ */
+public final class ElectricBlocksCommand {
+
+    private ElectricBlocksCommand() {} // Class cannot be instantiated
+
+    /**
+     * Registers the command with the server's command dispatcher. Called when the server is starting.
+     * @param dispatcher The server's command dispatcher
+     */
+    public static void register(CommandDispatcher<CommandSource> dispatcher) {
+        dispatcher.register(Commands.literal("electricblocks")
+                .requires(source -> source.hasPermissionLevel(2))
+                .then(Commands.literal("metrics")
+                        .executes(context -> sendMetrics(context.getSource()))));
+    }
+
+    /**
+     * Sends every simulation metric to whoever ran the command, one metric per line.
+     * @param source The source of the command
+     * @return The number of metrics sent
+     */
+    private static int sendMetrics(CommandSource source) {
+        Map<String, Long> snapshot = SimulationMetrics.snapshot();
+        source.sendFeedback(new TranslationTextComponent("command.electricblocks.metrics"), false);
+        for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+            source.sendFeedback(new TranslationTextComponent("command.electricblocks.metrics.entry", entry.getKey(), entry.getValue()), false);
+        }
+        return snapshot.size();
+    }
+
+}
@@ -0,0 +1,114 @@
+package edu.uidaho.electricblocks.eventhandlers;
+
+import edu.uidaho.electricblocks.simulation.ConnectivityIndex;
+import edu.uidaho.electricblocks.simulation.ElectricBlockIndex;
+import edu.uidaho.electricblocks.simulation.SimulationTileEntity;
+import net.minecraft.block.BlockState;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorld;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+/**
+ * This class holds methods called by Forge API whenever blocks or chunks change in a way that could change how electric
+ * blocks are connected to each other. This keeps the ElectricBlockIndex and ConnectivityIndex of each dimension up to
+ * date.
+ */
+public class ConnectivityEventHandler {
+
+    /**
+     * This function is called by the Forge API when a block is placed in the world.
+     * @param event The event object that triggered this function call
+     */
+    @SubscribeEvent
+    public void blockPlaced(BlockEvent.EntityPlaceEvent event) {
+        update(event.getWorld(), event.getPos(), event.getPlacedBlock());
+    }
+
+    /**
+     * This function is called by the Forge API when a player breaks a block.
+     * @param event The event object that triggered this function call
+     */
+    @SubscribeEvent
+    public void blockBroken(BlockEvent.BreakEvent event) {
+        invalidate(event.getWorld(), event.getPos());
+    }
+
+    /**
+     * This function is called by the Forge API whenever a block changes and its neighbours are notified. This catches
+     * changes that aren't made by players such as pistons, explosions and commands.
+     * @param event The event object that triggered this function call
+     */
+    @SubscribeEvent
+    public void neighborNotified(BlockEvent.NeighborNotifyEvent event) {
+        update(event.getWorld(), event.getPos(), event.getState());
+    }
+
+    /**
+     * This function is called by the Forge API when a chunk is loaded.
+     * @param event The event object that triggered this function call
+     */
+    @SubscribeEvent
+    public void chunkLoaded(ChunkEvent.Load event) {
+        IWorld world = event.getWorld();
+        if (world != null && !world.isRemote()) {
+            // Only a chunk with electric blocks in it can join or split a group
+            if (ElectricBlockIndex.forWorld(world).loadChunk(event.getChunk())) {
+                ConnectivityIndex.forWorld(world).invalidateChunk(event.getChunk().getPos());
+            }
+        }
+    }
+
+    /**
+     * This function is called by the Forge API when a chunk is unloaded.
+     * @param event The event object that triggered this function call
+     */
+    @SubscribeEvent
+    public void chunkUnloaded(ChunkEvent.Unload event) {
+        IWorld world = event.getWorld();
+        if (world != null && !world.isRemote()) {
+            if (ElectricBlockIndex.forWorld(world).unloadChunk(event.getChunk().getPos())) {
+                ConnectivityIndex.forWorld(world).invalidateChunk(event.getChunk().getPos());
+            }
+        }
+    }
+
+    /**
+     * This function is called by the Forge API when a world is unloaded.
+     * @param event The event object that triggered this function call
+     */
+    @SubscribeEvent
+    public void worldUnloaded(WorldEvent.Unload event) {
+        IWorld world = event.getWorld();
+        if (!world.isRemote()) {
+            ElectricBlockIndex.unload(world);
+            ConnectivityIndex.unload(world);
+        }
+    }
+
+    private static void update(IWorld world, BlockPos pos, BlockState state) {
+        if (!world.isRemote()) {
+            ElectricBlockIndex index = ElectricBlockIndex.forWorld(world);
+            boolean changed = index.setBlock(pos, state.getBlock());
+            // New tile entities aren't loaded until the next tick, but may be part of a network requested before then
+            TileEntity te = world.getTileEntity(pos);
+            if (te instanceof SimulationTileEntity) {
+                changed |= index.addTileEntity((SimulationTileEntity) te);
+            }
+            // Most neighbor notifications are for blocks that have nothing to do with any network
+            if (changed) {
+                ConnectivityIndex.forWorld(world).invalidate(pos);
+            }
+        }
+    }
+
+    private static void invalidate(IWorld world, BlockPos pos) {
+        if (!world.isRemote() && ElectricBlockIndex.forWorld(world).isElectricBlock(pos)) {
+            ConnectivityIndex.forWorld(world).invalidate(pos);
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package edu.uidaho.electricblocks.eventhandlers;
+
+import edu.uidaho.electricblocks.simulation.SimulationResultApplier;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+/**
+ * This class holds methods called by Forge API on every server tick. This is used to apply simulation results on the
+ * server thread.
+ */
+public class ServerTickEventHandler {
+
+    /**
+     * This function is called by the Forge API at the start and end of every server tick. At the end of each tick any
+     * simulation results that have been received are applied to their blocks, up to the configured time budget.
+     * @param event The event object that triggered this function call
+     */
+    @SubscribeEvent
+    public void serverTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.END) {
+            SimulationResultApplier.instance().applyPending();
+        }
+    }
+
+}
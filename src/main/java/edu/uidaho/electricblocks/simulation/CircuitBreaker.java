@@ -0,0 +1,153 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.uidaho.electricblocks.ElectricBlocksMod;
+import edu.uidaho.electricblocks.utils.NamedThreadFactory;
+
+/**
+ * Stops simulation requests from being sent to EBPP while it is unreachable. Without it every request during an outage
+ * waits for the connection to time out before failing, and the networks queued behind it wait as well.
+ *
+ * The breaker starts closed and lets every request through. After a number of requests in a row fail to reach EBPP it
+ * opens and rejects requests straight away. Once a backoff has passed it goes half open and sends a single probe,
+ * which is a keep alive request. If the probe succeeds the breaker closes again, otherwise it opens for twice as long
+ * as the last time, up to a maximum. A request that was already in flight when the breaker opened and succeeds also
+ * closes it.
+ */
+public class CircuitBreaker {
+
+    public static final String OPENED = "breaker.opened";
+    public static final String REJECTED = "breaker.rejected";
+    public static final String PROBES = "breaker.probes";
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Checks whether EBPP is reachable again
+     */
+    @FunctionalInterface
+    public interface Probe {
+        boolean probe() throws Exception;
+    }
+
+    /**
+     * Thrown instead of sending a request while the breaker is open
+     */
+    public static class OpenException extends IOException {
+        public OpenException() {
+            super("EBPP is unavailable, the request was not sent");
+        }
+    }
+
+    private final int failureThreshold;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    private final Probe probe;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("ElectricBlocks EBPP Probe"));
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private int openings = 0; // Times opened since the breaker was last closed, used for the backoff
+
+    /**
+     * @param failureThreshold The number of failed requests in a row that open the breaker, 0 to never open it
+     * @param backoffMs Milliseconds the breaker stays open the first time before it is probed
+     * @param maxBackoffMs The most milliseconds the breaker stays open before it is probed
+     * @param probe Checks whether EBPP is reachable again
+     */
+    public CircuitBreaker(int failureThreshold, long backoffMs, long maxBackoffMs, Probe probe) {
+        this.failureThreshold = failureThreshold;
+        this.backoffMs = Math.max(1, backoffMs);
+        this.maxBackoffMs = Math.max(this.backoffMs, maxBackoffMs);
+        this.probe = probe;
+        SimulationMetrics.registerGauge("breaker.state", () -> getState().ordinal());
+    }
+
+    /**
+     * Checks whether a request can be sent. Rejected requests are counted.
+     * @return Whether or not the breaker is closed
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        SimulationMetrics.increment(REJECTED);
+        return false;
+    }
+
+    /**
+     * Records a request that reached EBPP
+     */
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            close();
+        }
+        failures = 0;
+    }
+
+    /**
+     * Records a request that failed to reach EBPP, opening the breaker if too many have failed in a row
+     */
+    public synchronized void recordFailure() {
+        if (state == State.CLOSED && failureThreshold > 0 && ++failures >= failureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * @return The current state of the breaker
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void open() {
+        long backoff = Math.min(maxBackoffMs, backoffMs << Math.min(openings, 20));
+        state = State.OPEN;
+        openings++;
+        SimulationMetrics.increment(OPENED);
+        ElectricBlocksMod.LOGGER.warn("EBPP is unavailable. Simulation requests will not be sent for the next {} ms.", backoff);
+        scheduler.schedule(this::runProbe, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        failures = 0;
+        openings = 0;
+        ElectricBlocksMod.LOGGER.info("EBPP is available again. Simulation requests will be sent.");
+    }
+
+    /**
+     * Moves the breaker to half open and probes EBPP. Runs on the probe thread once the backoff has passed.
+     */
+    private void runProbe() {
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return; // A request that was in flight closed the breaker already
+            }
+            state = State.HALF_OPEN;
+        }
+        SimulationMetrics.increment(PROBES);
+        boolean reachable;
+        try {
+            reachable = probe.probe();
+        } catch (Exception e) {
+            reachable = false;
+        }
+        synchronized (this) {
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            if (reachable) {
+                close();
+            } else {
+                open();
+            }
+        }
+    }
+
+}
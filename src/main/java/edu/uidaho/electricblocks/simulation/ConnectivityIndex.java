@@ -0,0 +1,225 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.dimension.DimensionType;
+
+import javax.annotation.Nullable;
+
+/**
+ * Index of the groups of connected electric blocks that have been discovered in a single dimension. Each block position
+ * maps to the NetworkTopology of the group it belongs to, so building a SimulationNetwork for a block that hasn't
+ * changed since the last time it was simulated is a single lookup instead of a walk over the world.
+ *
+ * The index is kept up to date from block and chunk events. Removing a block can split a group in two and placing one
+ * can join two groups, so instead of patching the topologies in place any group that touches a changed position is
+ * dropped from the index and is discovered again the next time it is needed. Each stored group is also listed under
+ * every chunk it has a block in or borders, so a chunk being loaded or unloaded only looks at the groups in that
+ * chunk.
+ *
+ * Every change is given a number from a clock and the chunk it happened in is stamped with that number. A discovery
+ * reads the clock before it starts and its topology is only stored if none of the chunks the topology touches were
+ * stamped since then, so a change elsewhere in the dimension doesn't throw away a discovery that was running at the
+ * time. Stamps are only needed while a discovery is running and are cleared once none are.
+ */
+public class ConnectivityIndex {
+
+    public static final String HITS = "connectivity.hits";
+    public static final String MISSES = "connectivity.misses";
+    public static final String INVALIDATED = "connectivity.invalidated";
+    public static final String DISCARDED = "connectivity.discarded";
+
+    private static final Map<DimensionType, ConnectivityIndex> indices = new ConcurrentHashMap<>();
+
+    private final Long2ObjectOpenHashMap<NetworkTopology> topologies = new Long2ObjectOpenHashMap<>();
+    private final Map<NetworkTopology, long[]> stored = new IdentityHashMap<>(); // Topology to the chunks it touches
+    private final Long2ObjectOpenHashMap<Set<NetworkTopology>> byChunk = new Long2ObjectOpenHashMap<>();
+    private final Long2LongOpenHashMap chunkStamps = new Long2LongOpenHashMap();
+    private long clock = 0;
+    private int discoveries = 0;
+
+    /**
+     * Gets the index for the dimension of a world, creating it if it doesn't exist yet.
+     * @param world The world to get the index for
+     * @return The connectivity index of the world's dimension
+     */
+    public static ConnectivityIndex forWorld(IWorld world) {
+        return indices.computeIfAbsent(world.getDimension().getType(), k -> new ConnectivityIndex());
+    }
+
+    /**
+     * Drops the index of a world's dimension. Called when the world is unloaded.
+     * @param world The world that was unloaded
+     */
+    public static void unload(IWorld world) {
+        indices.remove(world.getDimension().getType());
+    }
+
+    /**
+     * Looks up the group of blocks that a position belongs to.
+     * @param pos The position of a block in the group
+     * @return The topology of the group or null if it hasn't been discovered since it last changed
+     */
+    @Nullable
+    public synchronized NetworkTopology lookup(BlockPos pos) {
+        NetworkTopology topology = topologies.get(pos.toLong());
+        if (topology != null && topology.isValid()) {
+            SimulationMetrics.increment(HITS);
+            return topology;
+        }
+        SimulationMetrics.increment(MISSES);
+        return null;
+    }
+
+    /**
+     * Marks the start of a discovery. Every call must be followed by a call to finishDiscovery once the discovery has
+     * finished, whether or not it succeeded.
+     * @return The time the discovery started, which must be passed to store
+     */
+    public synchronized long startDiscovery() {
+        discoveries++;
+        return clock;
+    }
+
+    /**
+     * Marks the end of a discovery started with startDiscovery.
+     */
+    public synchronized void finishDiscovery() {
+        if (--discoveries == 0) {
+            chunkStamps.clear();
+        }
+    }
+
+    /**
+     * Stores a newly discovered group of blocks. Nothing is stored if a chunk the group touches has changed since the
+     * discovery started, as the topology may already be out of date.
+     * @param topology The topology that was discovered
+     * @param startTime The time returned by startDiscovery when the discovery started
+     */
+    public synchronized void store(NetworkTopology topology, long startTime) {
+        long[] chunks = chunksOf(topology);
+        for (long chunk : chunks) {
+            if (chunkStamps.get(chunk) > startTime) {
+                SimulationMetrics.increment(DISCARDED);
+                return;
+            }
+        }
+        LongIterator iterator = topology.getPositions().iterator();
+        while (iterator.hasNext()) {
+            topologies.put(iterator.nextLong(), topology);
+        }
+        stored.put(topology, chunks);
+        for (long chunk : chunks) {
+            Set<NetworkTopology> inChunk = byChunk.get(chunk);
+            if (inChunk == null) {
+                inChunk = Collections.newSetFromMap(new IdentityHashMap<>());
+                byChunk.put(chunk, inChunk);
+            }
+            inChunk.add(topology);
+        }
+    }
+
+    /**
+     * Drops every group of blocks that contains or is next to a position that has changed.
+     * @param pos The position of the block that changed
+     */
+    public synchronized void invalidate(BlockPos pos) {
+        long packed = pos.toLong();
+        stamp(ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4));
+        remove(topologies.get(packed));
+        for (Direction direction : Direction.values()) {
+            remove(topologies.get(BlockPos.offset(packed, direction)));
+        }
+    }
+
+    /**
+     * Drops every group of blocks that has a block in or next to a chunk that was loaded or unloaded. The tile
+     * entities in an unloaded chunk are no longer part of the world, and the blocks in a loaded chunk may join groups
+     * that end at its border.
+     * @param chunkPos The position of the chunk that was loaded or unloaded
+     */
+    public synchronized void invalidateChunk(ChunkPos chunkPos) {
+        long chunk = chunkPos.asLong();
+        stamp(chunk);
+        Set<NetworkTopology> inChunk = byChunk.get(chunk);
+        if (inChunk != null) {
+            for (NetworkTopology topology : new ArrayList<>(inChunk)) {
+                remove(topology);
+            }
+        }
+    }
+
+    private void stamp(long chunk) {
+        clock++;
+        if (discoveries > 0) {
+            chunkStamps.put(chunk, clock);
+        }
+    }
+
+    /**
+     * Removes every position of a topology from the index.
+     * @param topology The topology to remove, may be null
+     */
+    private void remove(@Nullable NetworkTopology topology) {
+        long[] chunks = topology == null ? null : stored.remove(topology);
+        if (chunks == null) {
+            return;
+        }
+        SimulationMetrics.increment(INVALIDATED);
+        LongIterator iterator = topology.getPositions().iterator();
+        while (iterator.hasNext()) {
+            long pos = iterator.nextLong();
+            if (topologies.get(pos) == topology) {
+                topologies.remove(pos);
+            }
+        }
+        for (long chunk : chunks) {
+            Set<NetworkTopology> inChunk = byChunk.get(chunk);
+            if (inChunk != null && inChunk.remove(topology) && inChunk.isEmpty()) {
+                byChunk.remove(chunk);
+            }
+        }
+    }
+
+    /**
+     * Gets every chunk a group of blocks has a block in, along with the chunks its blocks border. A block placed just
+     * across a chunk border from the group can join it, so a change there has to reach the group as well.
+     * @param topology The group of blocks
+     * @return The packed positions of the chunks
+     */
+    private static long[] chunksOf(NetworkTopology topology) {
+        LongOpenHashSet chunks = new LongOpenHashSet();
+        LongIterator iterator = topology.getPositions().iterator();
+        while (iterator.hasNext()) {
+            long pos = iterator.nextLong();
+            int x = BlockPos.unpackX(pos);
+            int z = BlockPos.unpackZ(pos);
+            chunks.add(ChunkPos.asLong(x >> 4, z >> 4));
+            chunks.add(ChunkPos.asLong((x - 1) >> 4, z >> 4));
+            chunks.add(ChunkPos.asLong((x + 1) >> 4, z >> 4));
+            chunks.add(ChunkPos.asLong(x >> 4, (z - 1) >> 4));
+            chunks.add(ChunkPos.asLong(x >> 4, (z + 1) >> 4));
+        }
+        long[] result = new long[chunks.size()];
+        int i = 0;
+        LongIterator chunkIterator = chunks.iterator();
+        while (chunkIterator.hasNext()) {
+            result[i++] = chunkIterator.nextLong();
+        }
+        return result;
+    }
+
+}
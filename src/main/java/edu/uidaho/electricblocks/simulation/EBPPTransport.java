@@ -0,0 +1,433 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reusable HTTP transport used to send requests to the EBPP simulation server. Connections are never explicitly
+ * disconnected and every response body is read to the end and closed, which allows the JDK to return the underlying
+ * socket to its keep-alive cache and reuse it for the next request to the same host. This removes the TCP handshake
+ * from every simulation after the first one. The number of requests in flight is bounded so that the number of open
+ * sockets stays within the size of the keep-alive cache. The JDK only keeps http.maxConnections idle sockets per host,
+ * KEEP_ALIVE_CACHE_SIZE unless the property is set, and closes any socket returned past that. The property is read
+ * once for the whole JVM and may already have been read by the time the mod loads, so it isn't set here. Instead the
+ * number of connections is limited to the size of the cache, see the maxConnections config.
+ *
+ * Request and response bodies are streamed. The caller writes the request straight onto the connection and reads the
+ * response straight from it, so the bodies never need to exist as a String.
+ *
+ * Large request bodies can be gzip compressed, and gzip or deflate compressed responses are accepted when compression
+ * is enabled. The bytes saved and CPU time spent on compression are reported as metrics so that the threshold and
+ * level can be tuned.
+ */
+public class EBPPTransport {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Number of idle sockets the JDK keeps alive per host when http.maxConnections is not set. Allowing more requests
+     * than this in flight would close the extra sockets once they are done and bring back a handshake per request.
+     */
+    public static final int KEEP_ALIVE_CACHE_SIZE = 5;
+
+    public static final String JSON = "application/json";
+    public static final String CBOR = "application/cbor";
+
+    public static final String BYTES_SENT = "transport.bytes_sent";
+    public static final String BYTES_RECEIVED = "transport.bytes_received";
+    public static final String BYTES_SAVED = "transport.compression.bytes_saved";
+    public static final String COMPRESSED_REQUESTS = "transport.compression.requests";
+    public static final String COMPRESS_NANOS = "transport.compression.cpu_nanos";
+    public static final String DECOMPRESSED_RESPONSES = "transport.compression.responses";
+    public static final String DECOMPRESS_NANOS = "transport.compression.decompress_cpu_nanos";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Writes the body of a request onto the connection's output stream.
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads the body of a response from the connection's input stream. The stream does not need to be closed by the
+     * reader.
+     * @param <T> The type of the value read from the response
+     */
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    private final URL url;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final boolean chunked;
+    private final int compressionThreshold;
+    private final int compressionLevel;
+    private final Semaphore connections;
+
+    /**
+     * @param address The URL of the EBPP endpoint
+     * @param connectTimeoutMs Timeout in milliseconds for establishing a connection, 0 to wait forever
+     * @param readTimeoutMs Timeout in milliseconds while waiting for the response, 0 to wait forever
+     * @param maxConnections Maximum number of requests that can be in flight at once, limited to the size of the JDK's
+     *                       keep-alive cache
+     * @param chunked Whether the request is streamed to the server using chunked transfer encoding. When false the
+     *                request is buffered so that its Content-Length can be sent, which some servers require.
+     * @param compressionThreshold Request bodies larger than this many bytes are gzip compressed, 0 to never compress.
+     *                             Compressed responses are only accepted when this is enabled.
+     * @param compressionLevel The deflate level used to compress requests, from 1 (fastest) to 9 (smallest)
+     * @throws IOException If the address is not a valid URL
+     */
+    public EBPPTransport(String address, int connectTimeoutMs, int readTimeoutMs, int maxConnections, boolean chunked,
+                         int compressionThreshold, int compressionLevel) throws IOException {
+        this.url = new URL(address);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.chunked = chunked;
+        this.compressionThreshold = compressionThreshold;
+        this.compressionLevel = compressionLevel;
+        int permits = Math.max(1, Math.min(maxConnections, keepAliveCacheSize()));
+        this.connections = new Semaphore(permits, true);
+        SimulationMetrics.registerGauge("transport.in_flight", () -> permits - connections.availablePermits());
+    }
+
+    /**
+     * Sends a JSON POST request to the EBPP server and reads the response.
+     * @param body Writes the request body
+     * @param reader Reads the response body
+     * @param <T> The type of the value read from the response
+     * @return The value returned by the reader
+     * @throws IOException If the connection failed, timed out, or the server responded with an error status
+     */
+    public <T> T post(BodyWriter body, BodyReader<T> reader) throws IOException {
+        return post(JSON, body, reader);
+    }
+
+    /**
+     * Sends a POST request to the EBPP server and reads the response.
+     * @param contentType The media type of both the request and the response, either JSON or CBOR
+     * @param body Writes the request body
+     * @param reader Reads the response body
+     * @param <T> The type of the value read from the response
+     * @return The value returned by the reader
+     * @throws IOException If the connection failed, timed out, or the server responded with an error status
+     */
+    public <T> T post(String contentType, BodyWriter body, BodyReader<T> reader) throws IOException {
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an EBPP connection");
+        }
+        SimulationMetrics.increment("transport.requests");
+        try {
+            return exchange(contentType, body, reader);
+        } catch (IOException e) {
+            SimulationMetrics.increment("transport.failures");
+            throw e;
+        } finally {
+            connections.release();
+        }
+    }
+
+    /**
+     * Performs a single request/response exchange on a connection that is either new or taken from the keep-alive
+     * cache.
+     */
+    private <T> T exchange(String contentType, BodyWriter body, BodyReader<T> reader) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", contentType.equals(JSON) ? JSON + "; charset=utf-8" : contentType);
+        conn.setRequestProperty("Accept", contentType);
+        if (compressionThreshold > 0) {
+            conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
+        conn.setConnectTimeout(connectTimeoutMs);
+        conn.setReadTimeout(readTimeoutMs);
+        conn.setUseCaches(false);
+        conn.setDoInput(true);
+        conn.setDoOutput(true);
+
+        if (chunked) {
+            conn.setChunkedStreamingMode(BUFFER_SIZE);
+            try (RequestStream out = new RequestStream(conn)) {
+                body.write(out);
+            }
+        } else {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+            body.write(buffer);
+            if (shouldCompress(buffer.size())) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(buffer.size() / 4);
+                GzipStream gzip = new GzipStream(compressed, compressionLevel);
+                buffer.writeTo(gzip);
+                gzip.close();
+                recordCompression(buffer.size(), compressed.size(), gzip.nanos);
+                conn.setRequestProperty("Content-Encoding", "gzip");
+                buffer = compressed;
+            }
+            conn.setFixedLengthStreamingMode(buffer.size());
+            SimulationMetrics.add(BYTES_SENT, buffer.size());
+            try (OutputStream out = conn.getOutputStream()) {
+                buffer.writeTo(out);
+            }
+        }
+
+        int code = conn.getResponseCode();
+        if (code < 200 || code >= 300) {
+            drain(conn.getErrorStream());
+            throw new IOException("EBPP responded with HTTP " + code + " " + conn.getResponseMessage());
+        }
+
+        try (CountingInputStream wire = new CountingInputStream(conn.getInputStream())) {
+            String encoding = conn.getContentEncoding();
+            if ("gzip".equalsIgnoreCase(encoding) || "deflate".equalsIgnoreCase(encoding)) {
+                try (InflateStream in = new InflateStream(wire, "gzip".equalsIgnoreCase(encoding))) {
+                    T result = reader.read(in);
+                    drain(in);
+                    SimulationMetrics.add(BYTES_RECEIVED, wire.getCount());
+                    SimulationMetrics.increment(DECOMPRESSED_RESPONSES);
+                    SimulationMetrics.add(DECOMPRESS_NANOS, in.nanos);
+                    SimulationMetrics.add(BYTES_SAVED, in.inflated - wire.getCount());
+                    return result;
+                }
+            }
+            T result = reader.read(wire);
+            drain(wire); // Anything the reader didn't consume has to be read for the connection to be reused
+            SimulationMetrics.add(BYTES_RECEIVED, wire.getCount());
+            return result;
+        }
+    }
+
+    /**
+     * Checks whether a request body of a specific size is large enough to be compressed
+     * @param size The size of the uncompressed request body in bytes
+     * @return Whether the request body should be compressed
+     */
+    private boolean shouldCompress(long size) {
+        return compressionThreshold > 0 && size > compressionThreshold;
+    }
+
+    /**
+     * Records that a request body was compressed
+     * @param raw The size of the request body before compression
+     * @param compressed The size of the request body after compression
+     * @param nanos The CPU time in nanoseconds spent compressing the request body
+     */
+    private static void recordCompression(long raw, long compressed, long nanos) {
+        SimulationMetrics.increment(COMPRESSED_REQUESTS);
+        SimulationMetrics.add(BYTES_SAVED, raw - compressed);
+        SimulationMetrics.add(COMPRESS_NANOS, nanos);
+    }
+
+    /**
+     * Stream used for chunked request bodies. The size of a chunked request isn't known up front, so the start of the
+     * body is held back until either it grows past the compression threshold, in which case everything is gzip
+     * compressed onto the connection, or the body ends, in which case it is sent as is. The Content-Encoding header
+     * can still be set at that point because the connection's output stream hasn't been opened yet.
+     */
+    private class RequestStream extends OutputStream {
+
+        private final HttpURLConnection conn;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream(BUFFER_SIZE);
+        private long raw = 0;
+        private CountingOutputStream wire = null;
+        private OutputStream out = null;
+
+        RequestStream(HttpURLConnection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            raw += len;
+            if (out != null) {
+                out.write(b, off, len);
+            } else if (compressionThreshold <= 0) {
+                open(false);
+                out.write(b, off, len);
+            } else {
+                pending.write(b, off, len);
+                if (shouldCompress(raw)) {
+                    open(true);
+                }
+            }
+        }
+
+        /**
+         * Opens the connection's output stream and writes everything that was held back onto it
+         * @param compress Whether the body is compressed
+         */
+        private void open(boolean compress) throws IOException {
+            if (compress) {
+                conn.setRequestProperty("Content-Encoding", "gzip");
+            }
+            wire = new CountingOutputStream(new BufferedOutputStream(conn.getOutputStream(), BUFFER_SIZE));
+            out = compress ? new GzipStream(wire, compressionLevel) : wire;
+            pending.writeTo(out);
+            pending.reset();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                open(false);
+            }
+            out.close();
+            SimulationMetrics.add(BYTES_SENT, wire.getCount());
+            if (out instanceof GzipStream) {
+                recordCompression(raw, wire.getCount(), ((GzipStream) out).nanos);
+            }
+        }
+
+    }
+
+    /**
+     * Gzip stream with a configurable compression level that keeps track of the CPU time spent compressing.
+     */
+    private static class GzipStream extends GZIPOutputStream {
+
+        private long nanos = 0;
+
+        GzipStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            long start = cpuTime();
+            super.write(b, off, len);
+            nanos += cpuTime() - start;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            long start = cpuTime();
+            super.finish();
+            nanos += cpuTime() - start;
+        }
+
+    }
+
+    /**
+     * Decompresses a gzip or deflate response while keeping track of the CPU time spent and the number of bytes the
+     * response would have taken uncompressed. Closing the stream releases the native memory of its inflater.
+     */
+    private static class InflateStream extends FilterInputStream {
+
+        @Nullable
+        private final Inflater inflater; // Only set for deflate, GZIPInputStream ends its own inflater when closed
+        private long nanos = 0;
+        private long inflated = 0;
+
+        InflateStream(InputStream in, boolean gzip) throws IOException {
+            this(in, gzip ? null : new Inflater());
+        }
+
+        private InflateStream(InputStream in, @Nullable Inflater inflater) throws IOException {
+            super(inflater == null ? new GZIPInputStream(in, BUFFER_SIZE) : new InflaterInputStream(in, inflater, BUFFER_SIZE));
+            this.inflater = inflater;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = cpuTime();
+            int read = super.read(b, off, len);
+            nanos += cpuTime() - start;
+            if (read > 0) {
+                inflated += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (inflater != null) {
+                    inflater.end();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Gets the number of idle sockets the JDK keeps alive per host, which is lower than KEEP_ALIVE_CACHE_SIZE if the
+     * server was started with a lower http.maxConnections
+     * @return The size of the keep-alive cache
+     */
+    private static int keepAliveCacheSize() {
+        int size = Integer.getInteger("http.maxConnections", KEEP_ALIVE_CACHE_SIZE);
+        return size > 0 ? size : KEEP_ALIVE_CACHE_SIZE;
+    }
+
+    /**
+     * Gets the CPU time used by the current thread, falling back to wall clock time if the JVM can't measure it
+     * @return The current thread's CPU time in nanoseconds
+     */
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Reads a stream to the end and closes it so that the connection it belongs to can be kept alive.
+     * @param in The stream to drain, may be null
+     */
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // Discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+}
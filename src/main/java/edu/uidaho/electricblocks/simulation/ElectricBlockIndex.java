@@ -0,0 +1,406 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.uidaho.electricblocks.RegistryHandler;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.dimension.DimensionType;
+
+import javax.annotation.Nullable;
+
+/**
+ * Thread safe copy of where the electric blocks are in a single dimension. This lets SimulationNetworks be discovered
+ * on other threads without reading the world, which is only safe to do from the server thread.
+ *
+ * Only chunks that contain at least one electric block or SimulationTileEntity have an entry, so chunks without any
+ * are never touched while they are loaded, changed or unloaded. Within a chunk each 16x16x16 section that contains an
+ * electric block has a 4096 bit set with one bit per block. The bit sets are copy on write: a change replaces the
+ * section's bit set with an updated copy, so a discovery thread always sees either the old or the new state of a
+ * section and never a half written one. The positions of SimulationTileEntities are kept in a separate table per
+ * chunk as there are far fewer of them than there are wires, which is also replaced with an updated copy on change.
+ *
+ * The bit sets are filled in when chunks are loaded and updated on the server thread whenever a block changes. Tile
+ * entities add and remove themselves as they are loaded and unloaded. A change only copies the section or tile entity
+ * table it changes and nothing is copied if the change doesn't affect an electric block.
+ *
+ * Block changes are picked up from neighbor notifications, so a change made without notifying neighbors, like a
+ * setblock with flag 2, a fill without block updates or a structure being placed, leaves the bit set stale. The entry
+ * is corrected the next time the block or one of its neighbors is updated, or when the chunk is loaded again.
+ *
+ * Positions can be given either as a BlockPos or packed into a long with BlockPos.toLong. Lookups made while
+ * discovering a network never lock.
+ */
+public class ElectricBlockIndex {
+
+    private static final int SECTION_WORDS = 4096 / 64;
+    private static final int SECTIONS = 16;
+    private static final Map<DimensionType, ElectricBlockIndex> indices = new ConcurrentHashMap<>();
+
+    /**
+     * The electric blocks and SimulationTileEntities in a single chunk
+     */
+    private static class ChunkEntry {
+
+        // The bit set of each section from the bottom of the world up, null if the section has no electric blocks
+        final AtomicReferenceArray<long[]> sections = new AtomicReferenceArray<>(SECTIONS);
+        volatile Long2ObjectOpenHashMap<SimulationTileEntity> tileEntities = new Long2ObjectOpenHashMap<>();
+
+        boolean isEmpty() {
+            for (int i = 0; i < SECTIONS; i++) {
+                if (sections.get(i) != null) {
+                    return false;
+                }
+            }
+            return tileEntities.size() == 0;
+        }
+
+    }
+
+    // Stands in for a chunk without an entry, it never has any electric blocks or SimulationTileEntities
+    private static final ChunkEntry NO_CHUNK = new ChunkEntry();
+
+    private final Map<Long, ChunkEntry> chunks = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the index for the dimension of a world, creating it if it doesn't exist yet.
+     * @param world The world to get the index for
+     * @return The electric block index of the world's dimension
+     */
+    public static ElectricBlockIndex forWorld(IWorld world) {
+        return indices.computeIfAbsent(world.getDimension().getType(), k -> new ElectricBlockIndex());
+    }
+
+    /**
+     * Drops the index of a world's dimension. Called when the world is unloaded.
+     * @param world The world that was unloaded
+     */
+    public static void unload(IWorld world) {
+        indices.remove(world.getDimension().getType());
+    }
+
+    /**
+     * Checks whether or not there is an electric block at a position.
+     * @param pos The position to check
+     * @return Whether or not there is an electric block at the position
+     */
+    public boolean isElectricBlock(BlockPos pos) {
+        return isElectricBlock(pos.toLong());
+    }
+
+    /**
+     * Checks whether or not there is an electric block at a packed position.
+     * @param pos The position to check, packed with BlockPos.toLong
+     * @return Whether or not there is an electric block at the position
+     */
+    public boolean isElectricBlock(long pos) {
+        return isElectricBlock(chunks.get(chunkKey(pos)), pos);
+    }
+
+    /**
+     * Checks whether or not the block at a position is a wire, which is any electric block without a
+     * SimulationTileEntity.
+     * @param pos The position to check
+     * @return Whether or not the block at the position is a wire
+     */
+    public boolean isWire(BlockPos pos) {
+        return isWire(pos.toLong());
+    }
+
+    /**
+     * Checks whether or not the block at a packed position is a wire, which is any electric block without a
+     * SimulationTileEntity.
+     * @param pos The position to check, packed with BlockPos.toLong
+     * @return Whether or not the block at the position is a wire
+     */
+    public boolean isWire(long pos) {
+        return isElectricBlock(pos) && getSimulationTileEntity(pos) == null;
+    }
+
+    /**
+     * Gets the SimulationTileEntity at a position.
+     * @param pos The position to check
+     * @return The SimulationTileEntity at the position or null if there isn't one
+     */
+    @Nullable
+    public SimulationTileEntity getSimulationTileEntity(BlockPos pos) {
+        return getSimulationTileEntity(pos.toLong());
+    }
+
+    /**
+     * Gets the SimulationTileEntity at a packed position.
+     * @param pos The position to check, packed with BlockPos.toLong
+     * @return The SimulationTileEntity at the position or null if there isn't one
+     */
+    @Nullable
+    public SimulationTileEntity getSimulationTileEntity(long pos) {
+        ChunkEntry chunk = chunks.get(chunkKey(pos));
+        return chunk == null ? null : chunk.tileEntities.get(pos);
+    }
+
+    /**
+     * Creates a reader for a single discovery, see Reader.
+     * @return A new reader of this index
+     */
+    public Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * Reads the index for a single discovery on one thread. The reader keeps every chunk it has looked up in a map of
+     * its own keyed by primitive longs, including chunks without an entry, so each chunk is only looked up in the map
+     * of chunks once. A discovery reads the neighbours of every block it visits, and the neighbours of a block on the
+     * edge of a chunk are in the next chunk over, so the chunk of nearly every lookup has been seen before. The last
+     * chunk is also kept on its own as most lookups are in the same chunk as the one before.
+     *
+     * A chunk that gains its first or loses its last electric block while the reader is in use may be missed. Any
+     * discovery that sees blocks change part way through is thrown away, see ConnectivityIndex.
+     */
+    public class Reader {
+
+        private final Long2ObjectOpenHashMap<ChunkEntry> seen = new Long2ObjectOpenHashMap<>();
+        private long lastKey;
+        private ChunkEntry lastChunk = NO_CHUNK;
+        private boolean cached = false;
+
+        private Reader() {
+        }
+
+        /**
+         * Checks whether or not there is an electric block at a packed position.
+         * @param pos The position to check, packed with BlockPos.toLong
+         * @return Whether or not there is an electric block at the position
+         */
+        public boolean isElectricBlock(long pos) {
+            return ElectricBlockIndex.isElectricBlock(chunk(pos), pos);
+        }
+
+        /**
+         * Checks whether or not the block at a packed position is a wire, which is any electric block without a
+         * SimulationTileEntity.
+         * @param pos The position to check, packed with BlockPos.toLong
+         * @return Whether or not the block at the position is a wire
+         */
+        public boolean isWire(long pos) {
+            return isElectricBlock(pos) && getSimulationTileEntity(pos) == null;
+        }
+
+        /**
+         * Gets the SimulationTileEntity at a packed position.
+         * @param pos The position to check, packed with BlockPos.toLong
+         * @return The SimulationTileEntity at the position or null if there isn't one
+         */
+        @Nullable
+        public SimulationTileEntity getSimulationTileEntity(long pos) {
+            return chunk(pos).tileEntities.get(pos);
+        }
+
+        /**
+         * @return The entry of the chunk a position is in, NO_CHUNK if the chunk doesn't have one
+         */
+        private ChunkEntry chunk(long pos) {
+            long key = chunkKey(pos);
+            if (!cached || key != lastKey) {
+                ChunkEntry chunk = seen.get(key);
+                if (chunk == null) {
+                    chunk = chunks.getOrDefault(key, NO_CHUNK);
+                    seen.put(key, chunk);
+                }
+                lastChunk = chunk;
+                lastKey = key;
+                cached = true;
+            }
+            return lastChunk;
+        }
+
+    }
+
+    /**
+     * Updates whether or not there is an electric block at a position. Must be called from the server thread.
+     * @param pos The position of the block that changed
+     * @param block The block that is now at the position
+     * @return Whether or not the position changed between being an electric block and not being one
+     */
+    public boolean setBlock(BlockPos pos, Block block) {
+        return setElectric(pos, RegistryHandler.isElectricBlock(block));
+    }
+
+    /**
+     * Updates whether or not there is an electric block at a position without looking at the block. Used by setBlock
+     * and by benchmarks, which can't create blocks outside of a game.
+     * @param pos The position of the block that changed
+     * @param electric Whether or not the block that is now at the position is an electric block
+     * @return Whether or not the position changed between being an electric block and not being one
+     */
+    synchronized boolean setElectric(BlockPos pos, boolean electric) {
+        if (electric == isElectricBlock(pos) || pos.getY() < 0 || pos.getY() >= SECTIONS * 16) {
+            return false;
+        }
+        long key = ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4);
+        ChunkEntry chunk = chunks.computeIfAbsent(key, k -> new ChunkEntry());
+        int sectionY = pos.getY() >> 4;
+        long[] old = chunk.sections.get(sectionY);
+        long[] bits = old == null ? new long[SECTION_WORDS] : old.clone();
+        int index = bitIndex(pos.getX(), pos.getY(), pos.getZ());
+        if (electric) {
+            bits[index >> 6] |= 1L << index;
+        } else {
+            bits[index >> 6] &= ~(1L << index);
+        }
+        chunk.sections.set(sectionY, isEmpty(bits) ? null : bits);
+        removeIfEmpty(key, chunk);
+        return true;
+    }
+
+    /**
+     * Fills in the bit sets of a chunk that was loaded. Sections that are entirely air or whose palette holds no electric
+     * block states are skipped without reading their blocks. Must be called from the server thread.
+     * @param chunk The chunk that was loaded
+     * @return Whether or not the chunk contains any electric blocks
+     */
+    public synchronized boolean loadChunk(IChunk chunk) {
+        ChunkPos chunkPos = chunk.getPos();
+        long[][] found = new long[SECTIONS][];
+        boolean any = false;
+        List<BlockState> electricStates = RegistryHandler.getElectricStates();
+        for (ChunkSection section : chunk.getSections()) {
+            if (ChunkSection.isEmpty(section) || !containsAny(section, electricStates)) {
+                continue;
+            }
+            long[] bits = new long[SECTION_WORDS];
+            boolean electric = false;
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        if (RegistryHandler.isElectricBlock(section.getBlockState(x, y, z).getBlock())) {
+                            int index = bitIndex(x, y, z);
+                            bits[index >> 6] |= 1L << index;
+                            electric = true;
+                        }
+                    }
+                }
+            }
+            if (electric) {
+                found[section.getYLocation() >> 4] = bits;
+                any = true;
+            }
+        }
+
+        long key = chunkPos.asLong();
+        ChunkEntry entry = any ? chunks.computeIfAbsent(key, k -> new ChunkEntry()) : chunks.get(key);
+        if (entry != null) {
+            for (int i = 0; i < SECTIONS; i++) {
+                entry.sections.set(i, found[i]);
+            }
+            removeIfEmpty(key, entry);
+        }
+        return any;
+    }
+
+    /**
+     * Drops the bit sets and tile entities of a chunk that was unloaded.
+     * @param chunkPos The position of the chunk that was unloaded
+     * @return Whether or not the chunk contained any electric blocks or SimulationTileEntities
+     */
+    public synchronized boolean unloadChunk(ChunkPos chunkPos) {
+        return chunks.remove(chunkPos.asLong()) != null;
+    }
+
+    /**
+     * Adds a SimulationTileEntity that was loaded into the world.
+     * @param ste The SimulationTileEntity that was loaded
+     * @return Whether or not the SimulationTileEntity wasn't in the index yet
+     */
+    public synchronized boolean addTileEntity(SimulationTileEntity ste) {
+        long pos = ste.getPos().toLong();
+        ChunkEntry chunk = chunks.computeIfAbsent(chunkKey(pos), k -> new ChunkEntry());
+        if (chunk.tileEntities.get(pos) == ste) {
+            return false;
+        }
+        Long2ObjectOpenHashMap<SimulationTileEntity> updated = new Long2ObjectOpenHashMap<>(chunk.tileEntities);
+        updated.put(pos, ste);
+        chunk.tileEntities = updated;
+        return true;
+    }
+
+    /**
+     * Removes a SimulationTileEntity that was removed from the world or unloaded.
+     * @param ste The SimulationTileEntity that was removed
+     * @return Whether or not the SimulationTileEntity was in the index
+     */
+    public synchronized boolean removeTileEntity(SimulationTileEntity ste) {
+        long pos = ste.getPos().toLong();
+        long key = chunkKey(pos);
+        ChunkEntry chunk = chunks.get(key);
+        if (chunk == null || chunk.tileEntities.get(pos) != ste) {
+            return false;
+        }
+        Long2ObjectOpenHashMap<SimulationTileEntity> updated = new Long2ObjectOpenHashMap<>(chunk.tileEntities);
+        updated.remove(pos);
+        chunk.tileEntities = updated;
+        removeIfEmpty(key, chunk);
+        return true;
+    }
+
+    /**
+     * Drops the entry of a chunk once it no longer has any electric blocks or SimulationTileEntities
+     */
+    private void removeIfEmpty(long key, ChunkEntry chunk) {
+        if (chunk.isEmpty()) {
+            chunks.remove(key, chunk);
+        }
+    }
+
+    /**
+     * Checks a section's palette for any of the given states. This is much cheaper than reading all 4096 blocks as the
+     * palette of most sections only has a handful of states.
+     */
+    private static boolean containsAny(ChunkSection section, List<BlockState> states) {
+        for (BlockState state : states) {
+            if (section.contains(state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isElectricBlock(@Nullable ChunkEntry chunk, long pos) {
+        int y = BlockPos.unpackY(pos);
+        if (chunk == null || y < 0 || y >= SECTIONS * 16) {
+            return false;
+        }
+        long[] bits = chunk.sections.get(y >> 4);
+        if (bits == null) {
+            return false;
+        }
+        int index = bitIndex(BlockPos.unpackX(pos), y, BlockPos.unpackZ(pos));
+        return (bits[index >> 6] & (1L << index)) != 0;
+    }
+
+    private static long chunkKey(long pos) {
+        return ChunkPos.asLong(BlockPos.unpackX(pos) >> 4, BlockPos.unpackZ(pos) >> 4);
+    }
+
+    private static int bitIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    private static boolean isEmpty(long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
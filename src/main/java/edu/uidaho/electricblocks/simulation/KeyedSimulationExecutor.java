@@ -0,0 +1,195 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import edu.uidaho.electricblocks.ElectricBlocksMod;
+
+/**
+ * Runs simulations for networks that don't share any SimulationTileEntities concurrently. The simulation of a batch
+ * runs asynchronously through the stages of the simulation pipeline and its elements are released once the future
+ * returned for it completes. Networks are keyed on the simulation IDs of their elements. A network is only started once no running
+ * network shares an element with it and no network that was submitted before it and shares an element with it is
+ * still waiting, so changes to the same block are always simulated in the order that the player made them in game.
+ *
+ * Networks that are still waiting also act as a coalescing point. If a newer request for exactly the same set of
+ * elements is submitted while an older one is waiting, the older one is replaced since the newer one holds the latest
+ * topology and the tile entities are read when the network is encoded.
+ *
+ * At most a fixed number of batches are in the pipeline at a time, which bounds the work queued in each of its stages.
+ * When more networks can be started than there is room for, such as after an explosion dirties many networks at once,
+ * the ones left waiting are grouped into batches of up to the maximum batch size so that several networks are sent in
+ * a single request.
+ */
+public class KeyedSimulationExecutor {
+
+    private final int threads;
+    private final int maxBatchSize;
+    private final Function<List<SimulationNetwork>, CompletableFuture<?>> simulator;
+    private final LinkedList<SimulationNetwork> waiting = new LinkedList<>();
+    private final Set<UUID> running = new HashSet<>();
+    private int runningNetworks = 0;
+    private int runningBatches = 0;
+
+    /**
+     * @param threads The number of batches that can be simulated at the same time
+     * @param maxBatchSize The most networks that are simulated together in one batch
+     * @param simulator The function that starts the simulation of a batch of networks that don't share any elements and
+     *                  returns a future that is completed once the simulation is finished
+     */
+    public KeyedSimulationExecutor(int threads, int maxBatchSize, Function<List<SimulationNetwork>, CompletableFuture<?>> simulator) {
+        this.threads = threads;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.simulator = simulator;
+        SimulationMetrics.registerGauge("executor.waiting", this::getWaitingCount);
+        SimulationMetrics.registerGauge("executor.running", this::getRunningCount);
+    }
+
+    /**
+     * Submits a network that has finished being built to be simulated. Must be called in the order that the networks
+     * were requested in.
+     * @param network The network to be simulated
+     */
+    public void submit(SimulationNetwork network) {
+        List<List<SimulationNetwork>> started;
+        synchronized (this) {
+            if (!coalesce(network)) {
+                waiting.add(network);
+            }
+            started = schedule();
+        }
+        start(started);
+    }
+
+    /**
+     * Replaces a waiting network covering exactly the same elements as the new network. The waiting networks are
+     * scanned from newest to oldest and the scan stops at the first network that shares only some elements with the new
+     * one, since replacing anything older than that would move the new network ahead of a request it overlaps with.
+     * @param network The newly submitted network
+     * @return Whether or not the network replaced a waiting network
+     */
+    private boolean coalesce(SimulationNetwork network) {
+        ListIterator<SimulationNetwork> iterator = waiting.listIterator(waiting.size());
+        while (iterator.hasPrevious()) {
+            SimulationNetwork older = iterator.previous();
+            if (older.hasSameElements(network)) {
+                network.absorb(older);
+                iterator.set(network);
+                SimulationMetrics.increment(SimulationMetrics.COALESCED);
+                ElectricBlocksMod.LOGGER.debug("Coalesced simulation requests for a network of {} elements. {} of {} requests merged so far.",
+                        network.getElementIds().size(), SimulationMetrics.get(SimulationMetrics.COALESCED), SimulationMetrics.get(SimulationMetrics.REQUESTED));
+                return true;
+            }
+            if (!Collections.disjoint(older.getElementIds(), network.getElementIds())) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes batches of waiting networks while there is room for more batches in the pipeline. A network can be started
+     * if it doesn't share an element with a running network or with a network that was submitted before it and is
+     * still waiting. The batches are started outside of the lock by start.
+     * @return The batches to start
+     */
+    private synchronized List<List<SimulationNetwork>> schedule() {
+        List<List<SimulationNetwork>> started = new ArrayList<>();
+        while (runningBatches < threads) {
+            List<SimulationNetwork> batch = nextBatch();
+            if (batch.isEmpty()) {
+                break;
+            }
+            runningBatches++;
+            runningNetworks += batch.size();
+            started.add(batch);
+        }
+        return started;
+    }
+
+    /**
+     * Takes the oldest waiting networks that can be started, up to the maximum batch size. The networks in a batch
+     * never share an element with each other since each one blocks the elements of the networks after it.
+     * @return The networks to simulate together, empty if no waiting network can be started
+     */
+    private List<SimulationNetwork> nextBatch() {
+        List<SimulationNetwork> batch = new ArrayList<>();
+        Set<UUID> blocked = new HashSet<>(running);
+        Iterator<SimulationNetwork> iterator = waiting.iterator();
+        while (iterator.hasNext() && batch.size() < maxBatchSize) {
+            SimulationNetwork network = iterator.next();
+            Set<UUID> keys = network.getElementIds();
+            if (Collections.disjoint(blocked, keys)) {
+                iterator.remove();
+                running.addAll(keys);
+                batch.add(network);
+            }
+            blocked.addAll(keys);
+        }
+        return batch;
+    }
+
+    /**
+     * Starts the simulation of each batch. The elements of a batch are released once its simulation finishes, whether
+     * or not it succeeded, so that any network waiting on them can be started.
+     * @param batches The batches to be simulated
+     */
+    private void start(List<List<SimulationNetwork>> batches) {
+        for (List<SimulationNetwork> batch : batches) {
+            CompletableFuture<?> simulation;
+            try {
+                simulation = simulator.apply(batch);
+            } catch (Throwable t) {
+                simulation = new CompletableFuture<>();
+                simulation.completeExceptionally(t);
+            }
+            simulation.whenComplete((result, error) -> {
+                if (error != null) {
+                    ElectricBlocksMod.LOGGER.error("Unexpected error while simulating network.", error);
+                }
+                release(batch);
+            });
+        }
+    }
+
+    /**
+     * Releases the elements of a batch that finished simulating and starts any batches that were waiting on them
+     * @param batch The networks that were simulated
+     */
+    private void release(List<SimulationNetwork> batch) {
+        List<List<SimulationNetwork>> started;
+        synchronized (this) {
+            for (SimulationNetwork network : batch) {
+                running.removeAll(network.getElementIds());
+            }
+            runningNetworks -= batch.size();
+            runningBatches--;
+            started = schedule();
+        }
+        start(started);
+    }
+
+    /**
+     * @return The number of networks that are waiting for an overlapping network to finish or for room in the pipeline
+     */
+    public synchronized long getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * @return The number of networks that are currently being simulated
+     */
+    public synchronized long getRunningCount() {
+        return runningNetworks;
+    }
+
+}
@@ -0,0 +1,183 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import edu.uidaho.electricblocks.simulation.cbor.CborIdTable;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonReader;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonWriter;
+
+import javax.annotation.Nullable;
+
+/**
+ * Several networks sent to EBPP in a single SIM_BATCH request. Each network is written as the request it would have
+ * been sent as on its own, either a SIM_REQUEST or a request from its session, under its position in the batch. Every
+ * network keeps its own elements object so element IDs never have to be unique across the batch. EBPP answers with a
+ * SIM_BATCH response holding one response per network under the same keys, and each one is read by the network it
+ * belongs to as it arrives.
+ *
+ * When the batch is sent as CBOR, each session request in it is numbered by the ID table of its own session and its
+ * response is read with the same table, since EBPP keeps the elements of each session under those numbers.
+ *
+ * A network that has no response in the batch, for example because EBPP doesn't support SIM_BATCH and answered with an
+ * error, is left without a response so that it can be sent on its own instead.
+ */
+public class NetworkBatch {
+
+    public static final String SIM_BATCH = "SIM_BATCH";
+
+    public static final String BATCHES = "batch.requests";
+    public static final String BATCHED_NETWORKS = "batch.networks";
+    public static final String FALLBACKS = "batch.fallbacks";
+
+    private final List<SimulationNetwork> networks;
+    @Nullable
+    private final List<NetworkSession.Request> requests;
+    private final SimulationResponse[] responses;
+
+    /**
+     * @param networks The networks in the batch, which must not share any elements
+     * @param requests The session request built for each network, in the same order, or null if the networks are sent
+     *                 as full SIM_REQUESTs
+     */
+    public NetworkBatch(List<SimulationNetwork> networks, @Nullable List<NetworkSession.Request> requests) {
+        this.networks = networks;
+        this.requests = requests;
+        this.responses = new SimulationResponse[networks.size()];
+    }
+
+    /**
+     * Writes the SIM_BATCH request.
+     * @param writer The JsonWriter the request is written to
+     * @throws IOException If the writer could not be written to
+     */
+    public void writeJson(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("status").value(SIM_BATCH);
+        writer.name("networks").beginObject();
+        for (int i = 0; i < networks.size(); i++) {
+            writer.name(Integer.toString(i));
+            if (requests != null && writer instanceof CborJsonWriter) {
+                CborIdTable batchIds = ((CborJsonWriter) writer).setIds(requests.get(i).getIds());
+                try {
+                    requests.get(i).writeJson(writer);
+                } finally {
+                    ((CborJsonWriter) writer).setIds(batchIds);
+                }
+            } else if (requests != null) {
+                requests.get(i).writeJson(writer);
+            } else {
+                networks.get(i).writeJson(writer);
+            }
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+
+    /**
+     * Reads the SIM_BATCH response, handing the response of each network to that network to be read.
+     * @param reader The JsonReader positioned at the start of the response
+     * @return Whether or not EBPP answered with a SIM_BATCH response
+     * @throws IOException If the response could not be read or is not valid JSON
+     */
+    public boolean readResponses(JsonReader reader) throws IOException {
+        String status = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("status") && reader.peek() == JsonToken.STRING) {
+                status = reader.nextString();
+            } else if (name.equals("networks") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    int index = indexOf(reader.nextName());
+                    if (index >= 0 && responses[index] == null && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        responses[index] = readResponse(reader, index);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return SIM_BATCH.equals(status);
+    }
+
+    /**
+     * Reads the response of a single network, with the ID table of its session if it was sent as a CBOR session request
+     */
+    private SimulationResponse readResponse(JsonReader reader, int index) throws IOException {
+        if (requests == null || !(reader instanceof CborJsonReader)) {
+            return networks.get(index).readSimulationResults(reader);
+        }
+        CborIdTable batchIds = ((CborJsonReader) reader).setIds(requests.get(index).getIds());
+        try {
+            return networks.get(index).readSimulationResults(reader);
+        } finally {
+            ((CborJsonReader) reader).setIds(batchIds);
+        }
+    }
+
+    /**
+     * @param key The key of a network's response
+     * @return The position of the network in the batch, -1 if the key doesn't belong to a network in the batch
+     */
+    private int indexOf(String key) {
+        try {
+            int index = Integer.parseInt(key);
+            return index < networks.size() ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The networks in the batch
+     */
+    public List<SimulationNetwork> getNetworks() {
+        return networks;
+    }
+
+    /**
+     * @param index The position of a network in the batch
+     * @return The session request built for the network, or null if the networks are sent as full SIM_REQUESTs
+     */
+    @Nullable
+    public NetworkSession.Request getRequest(int index) {
+        return requests == null ? null : requests.get(index);
+    }
+
+    /**
+     * @param index The position of a network in the batch
+     * @return The response EBPP sent for the network, or null if there wasn't one
+     */
+    @Nullable
+    public SimulationResponse getResponse(int index) {
+        return responses[index];
+    }
+
+    /**
+     * @return The number of networks in the batch
+     */
+    public int size() {
+        return networks.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{\"status\":\"" + SIM_BATCH + "\",\"networks\":{");
+        for (int i = 0; i < networks.size(); i++) {
+            builder.append(i == 0 ? "" : ",").append('"').append(i).append("\":");
+            builder.append(requests != null ? requests.get(i).toString() : networks.get(i).toJsonString());
+        }
+        return builder.append("}}").toString();
+    }
+
+}
@@ -0,0 +1,115 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.uidaho.electricblocks.ElectricBlocksConfig;
+import edu.uidaho.electricblocks.ElectricBlocksMod;
+import edu.uidaho.electricblocks.utils.NamedThreadFactory;
+
+/**
+ * Singleton executor that builds SimulationNetworks by walking the blocks connected to the block that was modified.
+ * The number of threads is bounded, so a redstone clock or a player spamming a block can't cause an unbounded number
+ * of threads to be created. Discovery never runs on the thread that requested it, which is usually the server thread.
+ *
+ * Networks wait in order of the block they start from, and at most one network per starting block is waiting at any
+ * time. A network requested for a block that already has a network waiting is not queued at all. The waiting network
+ * hasn't been discovered yet, so it will see the same blocks the new one would have, and it is simulated in its place.
+ * Because of this the number of waiting networks can never grow past the number of simulation blocks in the world,
+ * however often they are modified, and requests never have to be turned away or run on the caller.
+ */
+public class NetworkDiscoveryExecutor {
+
+    public static final String QUEUED = "discovery.queued";
+    public static final String COALESCED = "discovery.coalesced";
+
+    private static NetworkDiscoveryExecutor instance = null;
+    private final int threads;
+    private final ExecutorService executor;
+    private final LinkedHashMap<SimulationTileEntity, SimulationNetwork> waiting = new LinkedHashMap<>(); // Oldest starting block first
+    private int running = 0;
+
+    private NetworkDiscoveryExecutor() {
+        threads = Math.max(1, ElectricBlocksConfig.getDiscoveryThreads());
+        executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("ElectricBlocks Network Discovery"));
+        SimulationMetrics.registerGauge("discovery.queue_depth", this::getWaitingCount);
+        SimulationMetrics.registerGauge("discovery.active", this::getRunningCount);
+    }
+
+    /**
+     * Get the instance of the NetworkDiscoveryExecutor singleton. Will instantiate if the singleton has not been
+     * created yet.
+     * @return The singleton instance
+     */
+    public static synchronized NetworkDiscoveryExecutor instance() {
+        if (instance == null) {
+            instance = new NetworkDiscoveryExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Queues a network to be discovered. If a network from the same starting block is already waiting the new network
+     * joins it instead. The waiting network takes over the new network's player, if it has one, so that the player
+     * who made the latest change hears about the outcome.
+     * @param network The network to discover
+     * @return The network that will be discovered, which is the waiting network if the new one joined it
+     */
+    public synchronized SimulationNetwork submit(SimulationNetwork network) {
+        SimulationMetrics.increment(QUEUED);
+        SimulationNetwork pending = waiting.get(network.getStartingBlock());
+        if (pending != null) {
+            SimulationMetrics.increment(COALESCED);
+            if (network.hasPlayer()) {
+                pending.setPlayer(network.getPlayer());
+            }
+            return pending;
+        }
+        waiting.put(network.getStartingBlock(), network);
+        schedule();
+        return network;
+    }
+
+    /**
+     * Hands the oldest waiting networks to the discovery threads while there are threads free
+     */
+    private void schedule() {
+        Iterator<SimulationNetwork> iterator = waiting.values().iterator();
+        while (running < threads && iterator.hasNext()) {
+            SimulationNetwork network = iterator.next();
+            iterator.remove();
+            running++;
+            executor.execute(() -> run(network));
+        }
+    }
+
+    private void run(SimulationNetwork network) {
+        try {
+            network.discoverBlocks();
+        } catch (Throwable t) {
+            ElectricBlocksMod.LOGGER.error("Unexpected error while discovering network.", t);
+        } finally {
+            synchronized (this) {
+                running--;
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * @return The number of networks waiting for a discovery thread, at most one per starting block
+     */
+    public synchronized long getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * @return The number of discovery threads that are busy
+     */
+    public synchronized long getRunningCount() {
+        return running;
+    }
+
+}
@@ -0,0 +1,316 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.gson.stream.JsonWriter;
+
+import edu.uidaho.electricblocks.simulation.cbor.CborIdTable;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps track of what EBPP already knows about a network so that only the changes need to be sent. The first request
+ * in a session uploads the whole network. Every request after that is a SIM_DELTA request that only contains the
+ * elements that have changed since the last request EBPP acknowledged, along with the IDs of the elements that are no
+ * longer part of the network. Elements that aren't mentioned in a delta are left as they were.
+ *
+ * Changes are found without writing the network out. Each SimulationTileEntity counts the changes made to its inputs,
+ * and the session remembers the count of every tile entity as of the last acknowledged request, so only the tile
+ * entities whose count has moved on are written. Lines are compared field by field with the lines that were
+ * acknowledged, which is cheap as their IDs are worked out from where they start.
+ *
+ * A session outlives the NetworkTopology it was created for. It is held by one of the network's SimulationTileEntities,
+ * and the topology discovered after the blocks change takes over the session of any tile entity in it, so the changed
+ * network is sent as a delta against what EBPP already has. See claim.
+ *
+ * An initial guess is only sent with a full upload. EBPP keeps the solution of the last request in a session and starts
+ * the solution of a delta from it, so sending the bus voltages again with every delta would only repeat what it has.
+ *
+ * When requests are sent as CBOR the session numbers the IDs of its elements with its own CborIdTable, which is kept
+ * until the session is reset. EBPP stores the elements of the session under those numbers, so every delta has to
+ * number them the same way as the full upload did.
+ *
+ * Requests are numbered with a version. EBPP echoes the version back once it has updated its copy of the network, and
+ * the session only moves forward when it does. If EBPP doesn't know the session or is on a different version it
+ * responds with SESSION_UNKNOWN and the whole network is uploaded again.
+ */
+public class NetworkSession {
+
+    public static final String SIM_DELTA = "SIM_DELTA";
+    public static final String SESSION_UNKNOWN = "SESSION_UNKNOWN";
+
+    public static final String DELTA_REQUESTS = "session.delta_requests";
+    public static final String FULL_REQUESTS = "session.full_requests";
+    public static final String RESETS = "session.resets";
+    public static final String DELTA_ELEMENTS = "session.delta_elements";
+
+    private final String sessionId = UUID.randomUUID().toString();
+    private int version = 0; // The last version acknowledged by EBPP, 0 if EBPP doesn't know about this session
+    @Nullable
+    private Snapshot acknowledged = null;
+    private CborIdTable ids = new CborIdTable();
+
+    /**
+     * What EBPP has of the network as of a request
+     */
+    private static class Snapshot {
+
+        // The input revision each tile entity was written with and the IDs of the elements it was written as
+        final Map<SimulationTileEntity, Integer> revisions = new IdentityHashMap<>();
+        final Map<SimulationTileEntity, List<String>> ids = new IdentityHashMap<>();
+        final Map<UUID, SimulationConnection> lines = new HashMap<>();
+
+    }
+
+    /**
+     * Finds the session for a group of SimulationTileEntities that was just discovered. If any of them holds a session
+     * the group takes it over, otherwise a new session is started and held by the first of them. When two groups are
+     * joined the session of the first tile entity found is kept and the others are dropped. When a group is split only
+     * the part with the tile entity holding the session keeps it.
+     * @param simTileEntities The SimulationTileEntities in the group
+     * @return The session of the group
+     */
+    public static NetworkSession claim(List<SimulationTileEntity> simTileEntities) {
+        NetworkSession claimed = null;
+        for (SimulationTileEntity sim : simTileEntities) {
+            NetworkSession session = sim.getSession();
+            if (session == null) {
+                continue;
+            }
+            if (claimed == null) {
+                claimed = session;
+            } else if (session != claimed) {
+                sim.setSession(null);
+            }
+        }
+        if (claimed == null) {
+            claimed = new NetworkSession();
+            if (!simTileEntities.isEmpty()) {
+                simTileEntities.get(0).setSession(claimed);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Builds the next request for a network in this session. This is a full request if EBPP hasn't acknowledged any
+     * request in this session yet, otherwise it is a delta from the last acknowledged request.
+     * @param network The network to build the request for
+     * @return The request to send to EBPP
+     */
+    public Request prepare(SimulationNetwork network) {
+        network.warnIncompleteConnections();
+        return prepare(network.getSimulationList(), network.getCompleteConnections(), network.getInitialGuess());
+    }
+
+    /**
+     * Builds the next request for a group of elements in this session.
+     * @param simTileEntities The SimulationTileEntities in the network
+     * @param simConnections The lines in the network, which must all be complete
+     * @param init The initial guess sent if the request is a full upload, or null if there isn't one
+     * @return The request to send to EBPP
+     */
+    public synchronized Request prepare(List<SimulationTileEntity> simTileEntities, List<SimulationConnection> simConnections, @Nullable WarmStart init) {
+        Snapshot previous = acknowledged;
+        Snapshot next = new Snapshot();
+        List<SimulationTileEntity> changedTileEntities = new ArrayList<>();
+        List<SimulationConnection> changedLines = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+
+        for (SimulationTileEntity sim : simTileEntities) {
+            int revision = sim.getInputRevision(); // Read before the inputs are written so a later change is sent again
+            List<String> ids = elementIds(sim);
+            next.revisions.put(sim, revision);
+            next.ids.put(sim, ids);
+            Integer acknowledgedRevision = previous == null ? null : previous.revisions.get(sim);
+            if (acknowledgedRevision == null || acknowledgedRevision != revision) {
+                changedTileEntities.add(sim);
+            }
+            if (acknowledgedRevision != null) {
+                for (String id : previous.ids.get(sim)) {
+                    if (!ids.contains(id)) {
+                        removed.add(id);
+                    }
+                }
+            }
+        }
+        for (SimulationConnection simConn : simConnections) {
+            next.lines.put(simConn.getSimId(), simConn);
+            SimulationConnection acknowledgedLine = previous == null ? null : previous.lines.get(simConn.getSimId());
+            if (acknowledgedLine == null || !acknowledgedLine.isSameLine(simConn)) {
+                changedLines.add(simConn);
+            }
+        }
+        if (previous != null) {
+            for (Map.Entry<SimulationTileEntity, List<String>> entry : previous.ids.entrySet()) {
+                if (!next.revisions.containsKey(entry.getKey())) {
+                    removed.addAll(entry.getValue());
+                }
+            }
+            for (UUID line : previous.lines.keySet()) {
+                if (!next.lines.containsKey(line)) {
+                    removed.add(line.toString());
+                }
+            }
+        }
+
+        if (previous != null) {
+            SimulationMetrics.add(DELTA_ELEMENTS, changedTileEntities.size() + changedLines.size());
+        }
+        return new Request(sessionId, previous == null ? 0 : version, version + 1, changedTileEntities, changedLines,
+                removed, previous == null ? init : null, next, previous != null, ids);
+    }
+
+    /**
+     * Moves the session forward if EBPP acknowledged a request.
+     * @param request The request that was sent
+     * @param response The response that was received for the request
+     */
+    public synchronized void acknowledge(Request request, SimulationResponse response) {
+        if (response.getVersion() == request.version) {
+            version = request.version;
+            acknowledged = request.snapshot;
+        }
+    }
+
+    /**
+     * Forgets everything EBPP was known to have, so the next request uploads the whole network and numbers its IDs
+     * afresh.
+     */
+    public synchronized void reset() {
+        version = 0;
+        acknowledged = null;
+        ids = new CborIdTable();
+    }
+
+    /**
+     * @return The ID EBPP knows this session by
+     */
+    public String getId() {
+        return sessionId;
+    }
+
+    /**
+     * Gets the IDs of the elements a SimulationTileEntity may be written as, which are its own and those of its
+     * embedded buses. Not every tile entity writes all of its embedded buses, but removing an element EBPP doesn't
+     * have does nothing.
+     */
+    private static List<String> elementIds(SimulationTileEntity sim) {
+        List<String> ids = new ArrayList<>();
+        ids.add(sim.getSimulationID().toString());
+        for (UUID bus : sim.getEmbeddedBuses().values()) {
+            ids.add(bus.toString());
+        }
+        return ids;
+    }
+
+    /**
+     * A request built for a network in a session. The elements are written straight from the tile entities and lines
+     * when the request is sent.
+     */
+    public static class Request {
+
+        private final String sessionId;
+        private final int baseVersion;
+        private final int version;
+        private final List<SimulationTileEntity> simTileEntities;
+        private final List<SimulationConnection> simConnections;
+        private final List<String> removed;
+        @Nullable
+        private final WarmStart init;
+        private final Snapshot snapshot;
+        private final boolean delta;
+        private final CborIdTable ids;
+
+        private Request(String sessionId, int baseVersion, int version, List<SimulationTileEntity> simTileEntities,
+                        List<SimulationConnection> simConnections, List<String> removed, @Nullable WarmStart init,
+                        Snapshot snapshot, boolean delta, CborIdTable ids) {
+            this.sessionId = sessionId;
+            this.baseVersion = baseVersion;
+            this.version = version;
+            this.simTileEntities = simTileEntities;
+            this.simConnections = simConnections;
+            this.removed = removed;
+            this.init = init;
+            this.snapshot = snapshot;
+            this.delta = delta;
+            this.ids = ids;
+        }
+
+        /**
+         * Writes this request to EBPP.
+         * @param writer The JsonWriter the request is written to
+         * @throws IOException If the writer could not be written to
+         */
+        public void writeJson(JsonWriter writer) throws IOException {
+            writer.beginObject();
+            if (delta) {
+                writer.name("status").value(SIM_DELTA);
+                writer.name("session").value(sessionId);
+                writer.name("base_version").value(baseVersion);
+            } else {
+                writer.name("status").value("SIM_REQUEST");
+                writer.name("3phase").value(false); // TODO make 3phase system work
+                writer.name("session").value(sessionId);
+            }
+            writer.name("version").value(version);
+            writer.name("elements").beginObject();
+            for (SimulationTileEntity sim : simTileEntities) {
+                sim.writeJson(writer);
+            }
+            for (SimulationConnection simConn : simConnections) {
+                simConn.writeJson(writer);
+            }
+            writer.endObject();
+            if (!removed.isEmpty()) {
+                writer.name("removed").beginArray();
+                for (String id : removed) {
+                    writer.value(id);
+                }
+                writer.endArray();
+            }
+            if (init != null) {
+                init.writeJson(writer);
+            }
+            writer.endObject();
+        }
+
+        /**
+         * @return Whether this request only contains the changes since the last acknowledged request
+         */
+        public boolean isDelta() {
+            return delta;
+        }
+
+        /**
+         * @return The table the IDs in this request are numbered with when it is sent as CBOR, which is the table of
+         * its session
+         */
+        public CborIdTable getIds() {
+            return ids;
+        }
+
+        @Override
+        public String toString() {
+            StringWriter out = new StringWriter();
+            try {
+                JsonWriter writer = new JsonWriter(out);
+                writer.setLenient(true);
+                writeJson(writer);
+                writer.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to write session request to string", e);
+            }
+            return out.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * The result of discovering a connected group of electric blocks. This holds every block position that is part of the
+ * group along with the SimulationTileEntities and SimulationConnections found in it. A topology is never modified
+ * after it has been created so it can be shared between every SimulationNetwork built from the same group of blocks.
+ *
+ * Every element is given an index when the topology is created. SimulationTileEntities are numbered first in the
+ * order of their block positions, followed by the SimulationConnections. Numbering the tile entities by position means
+ * the same blocks are numbered the same way however they were discovered, so results cached for one topology line up
+ * with the elements of another topology of the same blocks. The index of an element can be looked up from its
+ * simulation ID, which is used to match the results received from EBPP to the element they belong to.
+ */
+public class NetworkTopology {
+
+    // Topology of a network that hasn't been discovered yet
+    public static final NetworkTopology EMPTY = new NetworkTopology(new LongOpenHashSet(), Collections.emptyList(), Collections.emptyList(), false);
+
+    private final LongOpenHashSet positions;
+    private final List<SimulationTileEntity> simTileEntities;
+    private final List<SimulationConnection> simConnections;
+    private final boolean hasLoop;
+    private final Set<SimulationTileEntity> tileEntitySet = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<UUID> elementIds;
+    private final Object2IntOpenHashMap<String> elementIndex = new Object2IntOpenHashMap<>();
+    private final NetworkSession session;
+    private final WarmStart warmStart = new WarmStart();
+
+    /**
+     * @param positions Every block position that is part of the group including wires, packed with BlockPos.toLong
+     * @param simTileEntities The SimulationTileEntities in the group
+     * @param simConnections The lines that connect the SimulationTileEntities in the group
+     * @param hasLoop Whether a bus connected to itself was found and discarded while discovering the group
+     */
+    public NetworkTopology(LongOpenHashSet positions, List<SimulationTileEntity> simTileEntities, List<SimulationConnection> simConnections, boolean hasLoop) {
+        this.positions = positions;
+        List<SimulationTileEntity> sorted = new ArrayList<>(simTileEntities);
+        sorted.sort(Comparator.comparingLong(sim -> sim.getPos().toLong()));
+        this.simTileEntities = Collections.unmodifiableList(sorted);
+        this.simConnections = Collections.unmodifiableList(simConnections);
+        this.hasLoop = hasLoop;
+
+        Set<UUID> ids = new HashSet<>();
+        elementIndex.defaultReturnValue(-1);
+        for (SimulationTileEntity sim : this.simTileEntities) {
+            tileEntitySet.add(sim);
+            ids.add(sim.getSimulationID());
+            elementIndex.put(sim.getSimulationID().toString(), elementIndex.size());
+        }
+        for (SimulationConnection simConn : simConnections) {
+            elementIndex.put(simConn.getSimId().toString(), elementIndex.size());
+        }
+        this.elementIds = Collections.unmodifiableSet(ids);
+        this.session = NetworkSession.claim(this.simTileEntities);
+    }
+
+    /**
+     * @return Every block position that is part of this group of blocks, packed with BlockPos.toLong. Must not be
+     * modified.
+     */
+    public LongOpenHashSet getPositions() {
+        return positions;
+    }
+
+    /**
+     * @return The SimulationTileEntities in this group of blocks, in the order of their block positions
+     */
+    public List<SimulationTileEntity> getSimulationList() {
+        return simTileEntities;
+    }
+
+    /**
+     * @return The lines that connect the SimulationTileEntities in this group of blocks
+     */
+    public List<SimulationConnection> getSimulationConnections() {
+        return simConnections;
+    }
+
+    /**
+     * @return Whether a bus connected to itself was found and discarded while discovering this group of blocks
+     */
+    public boolean hasLoop() {
+        return hasLoop;
+    }
+
+    /**
+     * @return The simulation IDs of every SimulationTileEntity in this group of blocks
+     */
+    public Set<UUID> getElementIds() {
+        return elementIds;
+    }
+
+    /**
+     * @return The session used to send only the changes to this group of blocks to EBPP, which may have been taken over
+     * from a group these blocks were part of before they changed
+     */
+    public NetworkSession getSession() {
+        return session;
+    }
+
+    /**
+     * @return The bus voltages from the last successful simulation of this group of blocks
+     */
+    public WarmStart getWarmStart() {
+        return warmStart;
+    }
+
+    /**
+     * Checks whether or not a SimulationTileEntity is part of this group of blocks.
+     * @param ste The SimulationTileEntity to check
+     * @return Whether or not the SimulationTileEntity is part of this group
+     */
+    public boolean contains(SimulationTileEntity ste) {
+        return tileEntitySet.contains(ste);
+    }
+
+    /**
+     * Gets the index of an element from its simulation ID. Indices below the size of the simulation list refer to a
+     * SimulationTileEntity, the rest refer to a SimulationConnection.
+     * @param simId The simulation ID of the element as a string
+     * @return The index of the element or -1 if it isn't part of this group
+     */
+    public int indexOf(String simId) {
+        return elementIndex.getInt(simId);
+    }
+
+    /**
+     * Checks that every SimulationTileEntity in this topology is still loaded in the world. A topology that refers to a
+     * removed tile entity can't be used to build a network.
+     * @return Whether or not every SimulationTileEntity in this topology is still loaded
+     */
+    public boolean isValid() {
+        for (SimulationTileEntity sim : simTileEntities) {
+            if (sim.isRemoved()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,83 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import edu.uidaho.electricblocks.utils.NamedThreadFactory;
+
+/**
+ * One stage of the simulation pipeline. Each stage has its own threads and a bounded queue of work waiting for them,
+ * so a slow stage only holds up the work queued in front of it while the other stages keep running. Work is handed
+ * between stages as CompletableFutures. When the queue of a stage is full the work is run on the thread that handed
+ * it over, which slows the stage before it down until this one catches up.
+ *
+ * Every stage reports the same metrics under pipeline.name: the depth of its queue, how many threads are busy, how
+ * many tasks have completed or failed and the total time spent running them.
+ */
+public class PipelineStage {
+
+    /**
+     * The work done by a stage for a single item
+     * @param <T> The type of the value passed on to the next stage
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final String completed;
+    private final String failures;
+    private final String nanos;
+
+    /**
+     * @param name The name of the stage, used for its threads and metrics
+     * @param threads The number of items that are worked on at the same time
+     * @param queueSize The number of items that can wait for a thread
+     */
+    public PipelineStage(String name, int threads, int queueSize) {
+        ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        String prefix = "pipeline." + name;
+        RejectedExecutionHandler backPressure = (task, pool) -> {
+            SimulationMetrics.increment(prefix + ".caller_runs");
+            if (!pool.isShutdown()) {
+                task.run();
+            }
+        };
+        int size = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, queue,
+                new NamedThreadFactory("ElectricBlocks Pipeline " + name), backPressure);
+        completed = prefix + ".completed";
+        failures = prefix + ".failures";
+        nanos = prefix + ".nanos";
+        SimulationMetrics.registerGauge(prefix + ".queue_depth", queue::size);
+        SimulationMetrics.registerGauge(prefix + ".active", executor::getActiveCount);
+    }
+
+    /**
+     * Queues a task to be run by this stage
+     * @param task The task
+     * @param <T> The type of the value returned by the task
+     * @return A future completed with the value returned by the task, or completed exceptionally if the task threw
+     */
+    public <T> CompletableFuture<T> submit(Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                future.complete(task.run());
+                SimulationMetrics.increment(completed);
+            } catch (Throwable t) {
+                SimulationMetrics.increment(failures);
+                future.completeExceptionally(t);
+            } finally {
+                SimulationMetrics.add(nanos, System.nanoTime() - start);
+            }
+        });
+        return future;
+    }
+
+}
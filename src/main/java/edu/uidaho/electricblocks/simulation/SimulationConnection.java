@@ -1,8 +1,13 @@
 package edu.uidaho.electricblocks.simulation;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 import java.util.UUID;
 
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import javax.annotation.Nullable;
 
 /**
  * SimulationConnection represents a line/wire that is ran between two buses in a SimulationNetwork.
@@ -11,11 +16,20 @@ public class SimulationConnection {
     private UUID simId;
     private UUID fromBus;
     private UUID toBus;
+    private final long startPos;
     private double lengthKm = 0.0;
     private String stdType = "NAYY 4x50 SE";
 
-    public SimulationConnection() {
-        this.simId = UUID.randomUUID();
+    /**
+     * Creates a line leaving a bus. The ID of the line is worked out from the bus and the first wire of the line, so
+     * the same line is given the same ID every time the network is discovered.
+     * @param fromBus The UUID of the bus at the start of this line, null if the wire isn't next to a bus
+     * @param startPos The position of the first wire of this line, packed with BlockPos.toLong
+     */
+    public SimulationConnection(@Nullable UUID fromBus, long startPos) {
+        this.simId = UUID.nameUUIDFromBytes((fromBus + "/" + startPos).getBytes(StandardCharsets.UTF_8));
+        this.fromBus = fromBus;
+        this.startPos = startPos;
     }
 
     /**
@@ -27,17 +41,44 @@ public class SimulationConnection {
     }
 
     /**
-     * Gets the JSON representation of this line for use in simulations
-     * @return The JSON representation of this line
+     * Gets the position of the first wire of this line
+     * @return The position of the first wire, packed with BlockPos.toLong
+     */
+    public long getStartPos() {
+        return startPos;
+    }
+
+    /**
+     * Writes the JSON representation of this line for use in simulations straight to the request being sent to EBPP
+     * @param writer The JsonWriter positioned inside of the request's elements object
+     * @throws IOException If the writer could not be written to
+     */
+    public void writeJson(JsonWriter writer) throws IOException {
+        writer.name(simId.toString()).beginObject();
+        writer.name("etype").value(SimulationType.LINE.toString());
+        writer.name("from_bus").value(fromBus.toString());
+        writer.name("to_bus").value(toBus.toString());
+        writer.name("length_km").value(lengthKm);
+        writer.name("std_type").value(stdType);
+        writer.endObject();
+    }
+
+    /**
+     * Checks whether both ends of this line are connected to a bus. Lines that go nowhere can't be simulated.
+     * @return True if this line has both a from bus and a to bus
+     */
+    public boolean isComplete() {
+        return fromBus != null && toBus != null;
+    }
+
+    /**
+     * Checks whether another line is written to EBPP exactly the same as this one.
+     * @param other The line to compare with
+     * @return True if both lines have the same ID, buses, length and type
      */
-    public JsonObject toJson() throws NullPointerException {
-        JsonObject json = new JsonObject();
-        json.addProperty("etype", "line");
-        json.addProperty("from_bus", fromBus.toString());
-        json.addProperty("to_bus", toBus.toString());
-        json.addProperty("length_km", lengthKm);
-        json.addProperty("std_type", stdType);
-        return json;
+    public boolean isSameLine(SimulationConnection other) {
+        return simId.equals(other.simId) && Objects.equals(fromBus, other.fromBus) && Objects.equals(toBus, other.toBus)
+                && lengthKm == other.lengthKm && stdType.equals(other.stdType);
     }
 
     /**
@@ -53,7 +94,15 @@ public class SimulationConnection {
      * Increments the length of this line by 1 meter (one block)
      */
     public void incrementLength() {
-        this.lengthKm += 0.001;
+        incrementLength(1);
+    }
+
+    /**
+     * Increments the length of this line by a number of blocks. Used to add a whole run of wire at once.
+     * @param blocks The number of blocks, each one meter long, to add to this line
+     */
+    public void incrementLength(int blocks) {
+        this.lengthKm += blocks * 0.001;
     }
 
     /**
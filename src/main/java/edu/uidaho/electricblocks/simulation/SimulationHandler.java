@@ -1,85 +1,179 @@
 package edu.uidaho.electricblocks.simulation;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.io.ByteStreams;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import edu.uidaho.electricblocks.ElectricBlocksConfig;
 import edu.uidaho.electricblocks.ElectricBlocksMod;
+import edu.uidaho.electricblocks.simulation.cbor.CborIdTable;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonReader;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonWriter;
+import edu.uidaho.electricblocks.simulation.powerflow.EmbeddedPowerFlow;
 import edu.uidaho.electricblocks.utils.PlayerUtils;
 import net.minecraft.entity.player.PlayerEntity;
 
 import javax.annotation.Nullable;
 
 /**
- * Singleton class that handles simulation tasks. This class contains a list of
+ * Singleton class that handles simulation tasks. This class contains a queue of
  * SimulationNetworks. Each SimulationNetwork is responsible for converting
  * itself into a format that can be understood by the simulator. This class
  * handles the actual communication between the simulator and the
  * SimulationNetworks. When the simulation is complete and results are received,
  * the results are passed off to the SimulationNetwork to be parsed and then to
  * update each element in the Simulation.
+ *
+ * Simulations run as a pipeline of stages that hand work to each other as
+ * CompletableFutures: networks are discovered on the NetworkDiscoveryExecutor,
+ * handed to the KeyedSimulationExecutor in the order they were requested, encoded,
+ * sent to EBPP, decoded and finally applied on the server thread by the
+ * SimulationResultApplier. Each stage has its own threads and bounded queue, so the
+ * next network can be discovered and encoded while the previous one is waiting on
+ * EBPP.
  */
 public class SimulationHandler {
 
     private static SimulationHandler instance = null;
-    private static final String addr = ElectricBlocksConfig.getHostURL();
-    private List<SimulationNetwork> networkList = Collections.synchronizedList(new ArrayList<>());
-    private Thread asyncSimThread;
+    private final AtomicInteger discovering = new AtomicInteger();
+    private CompletableFuture<Void> dispatched = CompletableFuture.completedFuture(null);
+    private final KeyedSimulationExecutor executor;
+    private final PipelineStage encodeStage;
+    private final PipelineStage transportStage;
+    private final PipelineStage decodeStage;
+    private EBPPTransport transport = null;
+    private volatile boolean cborSupported = false;
+    private volatile boolean batchSupported = true;
+    private final CircuitBreaker breaker;
+
+    /**
+     * Writes the JSON body of a request to EBPP
+     */
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * Reads the JSON body of a response from EBPP
+     * @param <T> The type of the value read from the response
+     */
+    @FunctionalInterface
+    private interface JsonResponse<T> {
+        T read(JsonReader reader) throws IOException;
+    }
 
     private SimulationHandler() {
-        asyncSimThread = new Thread() {
-            /**
-             * Simulations are ran asynchronously in a separate thread, but are all
-             * calculated in order. This is done so that subsequent changes to the same
-             * block are always performed in the order that the player modifies them in
-             * game.
-             */
-            public void run() {
-                ElectricBlocksMod.LOGGER.info("Starting simulation handler thread!");
-                while (true) {
-                    if (networkList.size() > 0 && networkList.get(0).isReady()) {
-                        SimulationNetwork sim = networkList.remove(0); // Pop network from beginning of list
-                        JsonObject result = simRequest(sim);
-                        if (result == null) {
-                            // Notifying player about failed connection is done in simRequest call
-                            sim.zeroSimResults();
-                        } else {
-                            JsonElement status = result.get("status");
-                            if (status != null) {
-                                String status_str = status.getAsString();
-                                if (status_str.equals("SIM_RESULT")) {
-                                    sim.handleSimulationResults(result);
-                                } else if (status_str.equals("CONV_ERROR")) {
-                                    sim.zeroSimResults();
-                                    PlayerUtils.warn(sim.getPlayer(), "command.electricblocks.requestsimulation.warn_conv");
-                                } else {
-                                    sim.zeroSimResults();
-                                    PlayerUtils.error(sim.getPlayer(), "command.electricblocks.requestsimulation.err", result.get("status").getAsString(), result.get("response").getAsString());
-                                }
-                            } else {
-                                sim.zeroSimResults();
-                                PlayerUtils.error(sim.getPlayer(), "command.electricblocks.requestsimulation.unknown_err");
-                            }
-                        }
-                    }
-                }
+        int threads = Math.max(1, ElectricBlocksConfig.getSimulationThreads());
+        int pipelineThreads = Math.max(1, ElectricBlocksConfig.getPipelineThreads());
+        SimulationMetrics.registerGauge("queue.pending", discovering::get);
+        // At most one batch per simulation thread is in the pipeline, so no stage queue ever holds more than that
+        encodeStage = new PipelineStage("encode", pipelineThreads, threads);
+        transportStage = new PipelineStage("transport", threads, threads);
+        decodeStage = new PipelineStage("decode", pipelineThreads, threads);
+        int maxBatchSize = ElectricBlocksConfig.getSolverBackend() == SolverBackend.EMBEDDED ? 1 : ElectricBlocksConfig.getMaxBatchSize();
+        executor = new KeyedSimulationExecutor(threads, maxBatchSize, this::simulate);
+        breaker = new CircuitBreaker(ElectricBlocksConfig.getBreakerFailureThreshold(), ElectricBlocksConfig.getBreakerBackoffMs(),
+                ElectricBlocksConfig.getBreakerMaxBackoffMs(), this::sendKeepAlive);
+    }
+
+    /**
+     * Networks are built asynchronously, but are handed to the simulation executor in the order they were requested.
+     * Each network is chained onto the one requested before it, so it is only handed over once both it has been built
+     * and every earlier network has been handed over. No thread waits for discovery to finish and no later network can
+     * overtake an earlier one. A network that fails to build is logged and skipped without holding up the others.
+     * @param sim The network that was requested
+     */
+    private synchronized void dispatch(SimulationNetwork sim) {
+        discovering.incrementAndGet();
+        dispatched = dispatched.thenCompose(previous -> sim.getReadyFuture()).handle((network, error) -> {
+            discovering.decrementAndGet();
+            if (error != null) {
+                ElectricBlocksMod.LOGGER.error("Failed to build simulation network, it will not be simulated.",
+                        error.getCause() == null ? error : error.getCause());
+            } else {
+                executor.submit(network);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Simulates a batch of networks that have finished being built by passing them through the encode, transport and
+     * decode stages of the pipeline. Results are handed off to be applied on the server thread.
+     * @param batch The networks to be simulated, which don't share any elements
+     * @return A future that is completed once every network in the batch has been handled
+     */
+    private CompletableFuture<Void> simulate(List<SimulationNetwork> batch) {
+        return simulate(new Exchange(batch, false));
+    }
+
+    /**
+     * Passes an exchange through the encode, transport and decode stages, followed by the exchanges of any networks
+     * that have to be sent again on their own.
+     * @param exchange The exchange to simulate
+     * @return A future that is completed once every network in the exchange has been handled
+     */
+    private CompletableFuture<Void> simulate(Exchange exchange) {
+        return encodeStage.submit(exchange::encode)
+                .thenCompose(encoded -> transportStage.submit(encoded::send))
+                .thenCompose(sent -> decodeStage.submit(sent::decode))
+                .thenCompose(decoded -> {
+                    decoded.finish();
+                    return decoded.resend();
+                });
+    }
+
+    /**
+     * Handles the status of the response to a single network. The bus voltages of a successful simulation are kept as
+     * the starting point for the next simulation of the same network. If EBPP couldn't be reached the outputs are
+     * zeroed unless the last known good outputs are being kept.
+     * @param sim The network that was simulated
+     * @param response The response to the network, or null if the request failed
+     */
+    private void handleResponse(SimulationNetwork sim, @Nullable SimulationResponse response) {
+        WarmStart warmStart = sim.getWarmStart();
+        if (response != null && response.isSuccess() && !response.getBusVoltages().isEmpty()) {
+            warmStart.update(response.getBusVoltages());
+        } else if (response != null && !response.isSuccess()) {
+            warmStart.clear();
+        }
+        if (response == null) {
+            // Notifying player about failed connection is done in connectionFailed
+            if (!ElectricBlocksConfig.getKeepLastKnownGood()) {
+                sim.zeroSimResults();
             }
-        };
-        asyncSimThread.start();
+        } else if (response.getStatus() == null) {
+            sim.zeroSimResults();
+            PlayerUtils.error(sim.getPlayer(), "command.electricblocks.requestsimulation.unknown_err");
+        } else if (response.getStatus().equals(SimulationResponse.CONV_ERROR)) {
+            sim.zeroSimResults();
+            PlayerUtils.warn(sim.getPlayer(), "command.electricblocks.requestsimulation.warn_conv");
+        } else if (!response.isSuccess()) {
+            sim.zeroSimResults();
+            PlayerUtils.error(sim.getPlayer(), "command.electricblocks.requestsimulation.err", response.getStatus(), response.getMessage());
+        } else {
+            sim.applySimulationResults(response);
+        }
     }
 
     /**
@@ -96,19 +190,30 @@ public class SimulationHandler {
     /**
      * Sends a keep alive request to the EBPP simulation server which will just check if the server is accessible and
      * that the server on the other end is in fact the EBPP server and not just any other server responding to a
-     * request.
+     * request. The keep alive response also lists the encodings the server accepts besides JSON, which is used to
+     * decide whether simulation requests can be sent as CBOR.
      * @return Whether or not the keep alive request was successful
      * @throws Exception Throws a general Exception if Electric Blocks could not connect to the EBPP simulation server
      * during the sendPost call or if the response could not be parsed as JSON. It's not possible to tell the which has
      * occurred, but that's irrelevant.
      */
     public boolean sendKeepAlive() throws Exception {
-        String keepAlive = "{\"status\": \"KEEP_ALIVE\"}";
-        String response = sendPost(keepAlive);
         ElectricBlocksMod.LOGGER.info("Sending keep alive.");
-        JsonObject jsonObject = new JsonParser().parse(response).getAsJsonObject();
+        EncodedRequest request = EncodedRequest.encode(
+                writer -> writer.beginObject().name("status").value("KEEP_ALIVE").endObject(), null);
+        JsonObject jsonObject = request.decode(send(request), reader -> new JsonParser().parse(reader).getAsJsonObject());
         if (jsonObject.get("status").getAsString().equals("KEEP_ALIVE")) {
             ElectricBlocksMod.LOGGER.info("Keep Alive successful!");
+            cborSupported = false;
+            if (jsonObject.has("encodings") && jsonObject.get("encodings").isJsonArray()) {
+                for (JsonElement encoding : jsonObject.getAsJsonArray("encodings")) {
+                    cborSupported |= encoding.getAsString().equals("cbor");
+                }
+            }
+            if (ElectricBlocksConfig.getBinaryEncoding() && !cborSupported) {
+                ElectricBlocksMod.LOGGER.warn("Binary encoding is enabled but EBPP doesn't support CBOR. Requests will be sent as JSON.");
+            }
+            batchSupported = true;
             return true;
         }
         ElectricBlocksMod.LOGGER.fatal("Invalid or malformed keep alive request! Dumping response:");
@@ -117,81 +222,216 @@ public class SimulationHandler {
     }
 
     /**
-     * This function starts by getting the JSON request from the simulation network. The request is sent to the EBPP
-     * simulation server and the results are parsed into a JSON object.
+     * Simulates a single network from start to finish on the calling thread. Used by the transport stage when networks
+     * can't be sent in a batch.
      * @param simNetwork The simulation network that we are requesting a simulation for
-     * @return The JSON object representing the response to this simulation request
+     * @return The status of the response to this simulation request or null if the request failed
      */
     @Nullable
-    private JsonObject simRequest(SimulationNetwork simNetwork) {
-        JsonObject requestJson = simNetwork.toJson();
-        String responseString;
+    private SimulationResponse simRequest(SimulationNetwork simNetwork) {
         try {
-            responseString = sendPost(requestJson.toString());
-        } catch (Exception e) {
-            if (simNetwork.hasPlayer()) {
-                PlayerUtils.error(simNetwork.getPlayer(), "command.electricblocks.requestsimulation.error_conn");
+            if (ElectricBlocksConfig.getSolverBackend() == SolverBackend.EMBEDDED) {
+                return embeddedRequest(simNetwork);
+            }
+            if (ElectricBlocksConfig.getDeltaRequests()) {
+                return sessionRequest(simNetwork);
+            }
+            if (ElectricBlocksConfig.getLogJSONRequests()) {
+                ElectricBlocksMod.LOGGER.debug(simNetwork.toJsonString());
             }
-            ElectricBlocksMod.LOGGER.fatal("ElectricBlocks experienced a connection issue with EBPP:");
-            e.printStackTrace();
-            ElectricBlocksMod.LOGGER.fatal("ElectricBlocks experienced a connection issue with EBPP. See the above error for more info.");
+            return sendPost(simNetwork::writeJson, simNetwork::readSimulationResults, useCbor() ? new CborIdTable() : null);
+        } catch (IllegalStateException | JsonParseException e) {
+            ElectricBlocksMod.LOGGER.error("Unable to read the response from EBPP.", e);
+            return new SimulationResponse(null, null, new Object[0][]);
+        } catch (Exception e) {
+            connectionFailed(Collections.singletonList(simNetwork), e);
             return null;
         }
+    }
 
-        JsonObject responseJson = new JsonParser().parse(responseString).getAsJsonObject();
+    /**
+     * Solves a network with the embedded power flow solver instead of sending it to EBPP. The network is written as the
+     * same request EBPP would receive and the response is read the same way, so networks behave the same with either
+     * backend.
+     * @param simNetwork The simulation network that we are requesting a simulation for
+     * @return The response to this simulation request
+     * @throws IOException If the response could not be read
+     */
+    private SimulationResponse embeddedRequest(SimulationNetwork simNetwork) throws IOException {
+        String request = simNetwork.toJsonString();
         if (ElectricBlocksConfig.getLogJSONRequests()) {
-            ElectricBlocksMod.LOGGER.debug(responseJson.toString());
+            ElectricBlocksMod.LOGGER.debug(request);
         }
-        return responseJson;
+        JsonObject response = EmbeddedPowerFlow.solve(new JsonParser().parse(request).getAsJsonObject());
+        if (ElectricBlocksConfig.getLogJSONRequests()) {
+            ElectricBlocksMod.LOGGER.debug(response.toString());
+        }
+        return simNetwork.readSimulationResults(new JsonReader(new StringReader(response.toString())));
+    }
+
+    /**
+     * Sends a network to EBPP as part of its topology's session. Only the changes since the last request EBPP
+     * acknowledged are sent. If EBPP doesn't know about the session the whole network is sent again.
+     * @param simNetwork The simulation network that we are requesting a simulation for
+     * @return The response to this simulation request
+     * @throws Exception If the request failed, see sendPost
+     */
+    private SimulationResponse sessionRequest(SimulationNetwork simNetwork) throws Exception {
+        NetworkSession session = simNetwork.getSession();
+        NetworkSession.Request request = prepareSession(simNetwork);
+        SimulationResponse response = sendSessionRequest(simNetwork, request);
+        if (request.isDelta() && NetworkSession.SESSION_UNKNOWN.equals(response.getStatus())) {
+            SimulationMetrics.increment(NetworkSession.RESETS);
+            session.reset();
+            request = prepareSession(simNetwork);
+            response = sendSessionRequest(simNetwork, request);
+        }
+        session.acknowledge(request, response);
+        return response;
+    }
+
+    /**
+     * Builds the next request in a network's session and counts whether it is a full or a delta request.
+     * @param simNetwork The simulation network that we are requesting a simulation for
+     * @return The full or delta request built for the network
+     */
+    private static NetworkSession.Request prepareSession(SimulationNetwork simNetwork) {
+        NetworkSession.Request request = simNetwork.getSession().prepare(simNetwork);
+        SimulationMetrics.increment(request.isDelta() ? NetworkSession.DELTA_REQUESTS : NetworkSession.FULL_REQUESTS);
+        return request;
+    }
+
+    /**
+     * Sends a single request that was built by a network's session.
+     * @param simNetwork The simulation network that we are requesting a simulation for
+     * @param request The full or delta request built for the network
+     * @return The response to this simulation request
+     * @throws Exception If the request failed, see sendPost
+     */
+    private SimulationResponse sendSessionRequest(SimulationNetwork simNetwork, NetworkSession.Request request) throws Exception {
+        if (ElectricBlocksConfig.getLogJSONRequests()) {
+            ElectricBlocksMod.LOGGER.debug(request.toString());
+        }
+        return sendPost(request::writeJson, simNetwork::readSimulationResults, useCbor() ? request.getIds() : null);
     }
 
     /**
      * Sends a post request to the EBPP simulation server. Only the SimulationHandler is able to call this function and
-     * so the body should only be filled out with properly formatted requests.
-     * @param body The body of the request to be sent
-     * @return The response to this request from the EBPP server
+     * so the body should only be filled out with properly formatted requests. The request is encoded, sent and its
+     * response decoded on the calling thread, see Exchange for requests that go through the pipeline stages instead.
+     * @param body Writes the body of the request to be sent
+     * @param response Reads the response to this request from the EBPP server
+     * @param ids The table UUIDs are numbered with if the request and response are encoded as CBOR, null if they are
+     *            encoded as JSON
+     * @param <T> The type of the value read from the response
+     * @return The value read from the response
      * @throws Exception Throws this general exception for nearly any problem that occurs when trying to make a request.
-     * This includes stuff like malformed urls, connection timeouts, connection closed, IO exceptions, and more. If an
-     * exception is thrown we can just assume the request failed.
-     */
-    private String sendPost(String body) throws Exception {
-        PrintWriter out = null;
-        BufferedReader in = null;
-        StringBuilder result = new StringBuilder();
-        try{
-            URL url = new URL(addr);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setDoInput(true);
-            conn.setDoOutput(true);
-            out = new PrintWriter(conn.getOutputStream());
-            out.print(body);
-            out.flush();
-            in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            String line;
-            while ((line = in.readLine()) != null) {
-                result.append(line).append("\n");
-            }
-        } finally {
-            if (out != null) {
-                out.close();
-            }
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+     * This includes stuff like malformed urls, connection timeouts, connection closed, IO exceptions, responses that
+     * aren't valid JSON, and more. If an exception is thrown we can just assume the request failed.
+     */
+    private <T> T sendPost(JsonBody body, JsonResponse<T> response, @Nullable CborIdTable ids) throws Exception {
+        EncodedRequest request = EncodedRequest.encode(body, ids);
+        return request.decode(post(request), response);
+    }
+
+    /**
+     * Sends an encoded simulation request to the EBPP simulation server through the circuit breaker. While the breaker
+     * is open the request fails straight away instead of waiting for EBPP to time out.
+     * @param request The encoded request
+     * @return The body of the response
+     * @throws IOException If the request failed, see EBPPTransport.post, or CircuitBreaker.OpenException if the request
+     * was not sent because EBPP is unavailable
+     */
+    private byte[] post(EncodedRequest request) throws IOException {
+        if (!breaker.allowRequest()) {
+            throw new CircuitBreaker.OpenException();
+        }
+        try {
+            byte[] response = send(request);
+            breaker.recordSuccess();
+            return response;
+        } catch (IOException e) {
+            breaker.recordFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends an encoded request to the EBPP simulation server and reads the whole response. Keep alive requests are sent
+     * with this directly since they are what the circuit breaker uses to find out whether EBPP is back.
+     * @param request The encoded request
+     * @return The body of the response
+     * @throws IOException If the request failed, see EBPPTransport.post
+     */
+    private byte[] send(EncodedRequest request) throws IOException {
+        return getTransport().post(request.contentType, out -> out.write(request.body), ByteStreams::toByteArray);
+    }
+
+    /**
+     * Reports a request that failed to reach EBPP to the log and to the players who triggered it
+     * @param networks The networks that were in the request
+     * @param e The reason the request failed
+     */
+    private static void connectionFailed(List<SimulationNetwork> networks, Exception e) {
+        boolean open = e instanceof CircuitBreaker.OpenException;
+        for (SimulationNetwork sim : networks) {
+            if (sim.hasPlayer()) {
+                PlayerUtils.error(sim.getPlayer(), open ? "command.electricblocks.requestsimulation.error_unavailable"
+                        : "command.electricblocks.requestsimulation.error_conn");
             }
         }
-        return result.toString();
+        if (open) {
+            return; // Already logged when the breaker opened
+        }
+        ElectricBlocksMod.LOGGER.fatal("ElectricBlocks experienced a connection issue with EBPP:");
+        e.printStackTrace();
+        ElectricBlocksMod.LOGGER.fatal("ElectricBlocks experienced a connection issue with EBPP. See the above error for more info.");
+    }
+
+    /**
+     * Checks whether simulation requests should be sent as CBOR. This is only the case if binary encoding is enabled in
+     * the config and EBPP said it supports CBOR in response to the last keep alive request.
+     * @return Whether or not to use CBOR for simulation requests
+     */
+    private boolean useCbor() {
+        return cborSupported && ElectricBlocksConfig.getBinaryEncoding();
+    }
+
+    /**
+     * Checks whether networks that are ready together should be sent to EBPP in a single SIM_BATCH request. This is
+     * only the case if batching is enabled in the config, EBPP is the solver backend and EBPP hasn't rejected a batch
+     * since the last keep alive request.
+     * @return Whether or not to send batches of networks
+     */
+    private boolean useBatch() {
+        return batchSupported && ElectricBlocksConfig.getMaxBatchSize() > 1
+                && ElectricBlocksConfig.getSolverBackend() == SolverBackend.EBPP;
+    }
+
+    /**
+     * Gets the transport used to talk to the EBPP simulation server, creating it from the config the first time it is
+     * needed. The transport keeps connections to EBPP alive between requests.
+     * @return The EBPP transport
+     * @throws IOException If the configured host URL is not valid
+     */
+    private synchronized EBPPTransport getTransport() throws IOException {
+        if (transport == null) {
+            transport = new EBPPTransport(
+                    ElectricBlocksConfig.getHostURL(),
+                    ElectricBlocksConfig.getConnectTimeoutMs(),
+                    ElectricBlocksConfig.getReadTimeoutMs(),
+                    ElectricBlocksConfig.getMaxConnections(),
+                    ElectricBlocksConfig.getChunkedRequests(),
+                    ElectricBlocksConfig.getCompressionThreshold(),
+                    ElectricBlocksConfig.getCompressionLevel()
+            );
+        }
+        return transport;
     }
 
     /**
      * Creates a new simulation network starting at a specific SimulationTileEntity, but the player who triggered the
-     * request is either unknown or doesn't exist. The new simulation network is added to the simulation network list
+     * request is either unknown or doesn't exist. The new simulation network is added to the simulation network queue
      * and will be queued for simulation.
      * @param ste The SimulationTileEntity that was modified and which will serve as the starting block for the network
      */
@@ -202,13 +442,335 @@ public class SimulationHandler {
     /**
      * Creates a new simulation network starting at a specific SimulationTileEntity and with a known player who
      * triggered the request and will be notified of any relevant information. The new simulation network is added to
-     * the simulation network list and will be queued for simulation.
+     * the simulation network queue and will be queued for simulation.
      * @param ste The SimulationTileEntity that was modified and which will serve as the starting block for the network
      * @param player The player who triggered the simulation
      */
     public void newSimulationNetwork(SimulationTileEntity ste, PlayerEntity player) {
         SimulationNetwork simulationNetwork = new SimulationNetwork(ste);
         simulationNetwork.setPlayer(player);
-        networkList.add(simulationNetwork);
+        SimulationMetrics.increment(SimulationMetrics.REQUESTED);
+        if (simulationNetwork.start()) {
+            dispatch(simulationNetwork);
+        }
+    }
+
+    /**
+     * A request and response body held between the stages of the pipeline. The request is encoded up front so the
+     * transport stage only waits on EBPP, and the response is read in full so it can be decoded on another thread while
+     * the transport stage moves on to the next request. When CBOR is used, UUIDs in the request are replaced with small
+     * integers which are turned back into UUIDs while decoding the response.
+     */
+    private static class EncodedRequest {
+
+        private final String contentType;
+        private final byte[] body;
+        @Nullable
+        private final CborIdTable ids;
+
+        private EncodedRequest(String contentType, byte[] body, @Nullable CborIdTable ids) {
+            this.contentType = contentType;
+            this.body = body;
+            this.ids = ids;
+        }
+
+        /**
+         * Encodes a request
+         * @param body Writes the body of the request
+         * @param ids The table UUIDs are numbered with if the request is encoded as CBOR, which is a new table unless
+         *            the request belongs to a session, or null if the request is encoded as JSON
+         * @return The encoded request
+         * @throws IOException If the body could not be written
+         */
+        private static EncodedRequest encode(JsonBody body, @Nullable CborIdTable ids) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (ids != null) {
+                JsonWriter writer = new CborJsonWriter(out, ids);
+                body.write(writer);
+                writer.flush();
+                return new EncodedRequest(EBPPTransport.CBOR, out.toByteArray(), ids);
+            }
+            // Buffered so that each token doesn't go through the encoder of the OutputStreamWriter on its own
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+            writer.setLenient(true);
+            body.write(writer);
+            writer.flush();
+            return new EncodedRequest(EBPPTransport.JSON, out.toByteArray(), null);
+        }
+
+        /**
+         * Decodes the response to this request. JSON responses are logged when JSON requests are being logged.
+         * @param response The body of the response
+         * @param reader Reads the response
+         * @param <T> The type of the value read from the response
+         * @return The value read from the response
+         * @throws IOException If the response could not be read
+         */
+        private <T> T decode(byte[] response, JsonResponse<T> reader) throws IOException {
+            if (ids != null) {
+                return reader.read(new CborJsonReader(new ByteArrayInputStream(response), ids));
+            }
+            if (ElectricBlocksConfig.getLogJSONRequests()) {
+                ElectricBlocksMod.LOGGER.debug(new String(response, StandardCharsets.UTF_8));
+            }
+            JsonReader jsonReader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8));
+            jsonReader.setLenient(true); // EBPP may send NaN for results that don't exist
+            return reader.read(jsonReader);
+        }
+
+    }
+
+    /**
+     * A batch of networks moving through the encode, transport and decode stages of the pipeline. Networks that were
+     * simulated in exactly the same state recently are answered from the result cache while encoding. The rest are
+     * sent in a single request, which is a SIM_BATCH request if there is more than one of them. If they can't be sent
+     * together, such as with the embedded solver or when EBPP doesn't support SIM_BATCH, the transport stage simulates
+     * them one at a time instead.
+     *
+     * Networks that have to be sent again on their own, because they didn't get a usable response in a batch or EBPP
+     * didn't know their session, are not sent by the decode stage. Each one is sent by an exchange of its own that goes
+     * through every stage once this exchange has finished, one after another. A batch therefore never has more than
+     * one exchange in the pipeline, so the bounds of the stage queues still hold, and only the transport stage waits on
+     * EBPP.
+     */
+    private class Exchange {
+
+        private final List<SimulationNetwork> batch;
+        private final boolean resent;
+        private final List<SimulationNetwork> networks = new ArrayList<>();
+        private final List<SimulationNetwork> resends = new ArrayList<>();
+        private final List<String> fingerprints = new ArrayList<>();
+        private final List<Boolean> warm = new ArrayList<>();
+        private final List<SimulationResponse> responses = new ArrayList<>();
+        private long[] nanos;
+        private long start;
+        @Nullable
+        private EncodedRequest request = null;
+        @Nullable
+        private NetworkBatch networkBatch = null;
+        @Nullable
+        private NetworkSession.Request sessionRequest = null;
+        @Nullable
+        private byte[] response = null;
+        @Nullable
+        private IOException failure = null;
+
+        /**
+         * @param batch The networks to simulate
+         * @param resent Whether the networks are being sent again after an earlier exchange, in which case they have
+         *               already been counted as simulated
+         */
+        private Exchange(List<SimulationNetwork> batch, boolean resent) {
+            this.batch = batch;
+            this.resent = resent;
+        }
+
+        /**
+         * The encode stage. Checks the result cache and encodes the request for the networks that weren't in it.
+         * @return This exchange
+         */
+        private Exchange encode() {
+            SimulationResultCache cache = SimulationResultCache.instance();
+            for (SimulationNetwork sim : batch) {
+                if (!resent) {
+                    SimulationMetrics.increment(SimulationMetrics.SIMULATED);
+                }
+                String fingerprint = cache.isEnabled() ? sim.fingerprint() : null;
+                SimulationResponse cached = fingerprint == null ? null : cache.get(fingerprint);
+                if (cached != null) {
+                    handleResponse(sim, cached);
+                } else {
+                    networks.add(sim);
+                    fingerprints.add(fingerprint);
+                    warm.add(ElectricBlocksConfig.getWarmStart() && sim.getWarmStart().isAvailable());
+                }
+            }
+            nanos = new long[networks.size()];
+            start = System.nanoTime();
+            if (networks.isEmpty() || ElectricBlocksConfig.getSolverBackend() == SolverBackend.EMBEDDED
+                    || (networks.size() > 1 && !useBatch())) {
+                return this; // Simulated one at a time by the transport stage
+            }
+
+            try {
+                boolean cbor = useCbor();
+                if (networks.size() > 1) {
+                    List<NetworkSession.Request> requests = null;
+                    if (ElectricBlocksConfig.getDeltaRequests()) {
+                        requests = new ArrayList<>(networks.size());
+                        for (SimulationNetwork sim : networks) {
+                            requests.add(prepareSession(sim));
+                        }
+                    }
+                    networkBatch = new NetworkBatch(networks, requests);
+                    SimulationMetrics.increment(NetworkBatch.BATCHES);
+                    SimulationMetrics.add(NetworkBatch.BATCHED_NETWORKS, networkBatch.size());
+                    if (ElectricBlocksConfig.getLogJSONRequests()) {
+                        ElectricBlocksMod.LOGGER.debug(networkBatch.toString());
+                    }
+                    request = EncodedRequest.encode(networkBatch::writeJson, cbor ? new CborIdTable() : null);
+                } else if (ElectricBlocksConfig.getDeltaRequests()) {
+                    sessionRequest = prepareSession(networks.get(0));
+                    if (ElectricBlocksConfig.getLogJSONRequests()) {
+                        ElectricBlocksMod.LOGGER.debug(sessionRequest.toString());
+                    }
+                    request = EncodedRequest.encode(sessionRequest::writeJson, cbor ? sessionRequest.getIds() : null);
+                } else {
+                    if (ElectricBlocksConfig.getLogJSONRequests()) {
+                        ElectricBlocksMod.LOGGER.debug(networks.get(0).toJsonString());
+                    }
+                    request = EncodedRequest.encode(networks.get(0)::writeJson, cbor ? new CborIdTable() : null);
+                }
+            } catch (IOException | IllegalStateException e) {
+                ElectricBlocksMod.LOGGER.error("Unable to encode the request to EBPP.", e);
+                for (int i = 0; i < networks.size(); i++) {
+                    responses.add(new SimulationResponse(null, null, new Object[0][]));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * The transport stage. Sends the encoded request and waits for the response, or simulates the networks one at
+         * a time if they couldn't be encoded into a single request.
+         * @return This exchange
+         */
+        private Exchange send() {
+            if (responses.size() == networks.size()) {
+                return this;
+            }
+            if (request == null) {
+                for (int i = 0; i < networks.size(); i++) {
+                    long networkStart = System.nanoTime();
+                    responses.add(simRequest(networks.get(i)));
+                    nanos[i] = System.nanoTime() - networkStart;
+                }
+                return this;
+            }
+            try {
+                response = post(request);
+            } catch (IOException e) {
+                failure = e;
+            }
+            return this;
+        }
+
+        /**
+         * The decode stage. Reads the response of each network and marks any network that didn't get a usable
+         * response to be sent again on its own, see resend.
+         * @return This exchange
+         */
+        private Exchange decode() {
+            if (responses.size() == networks.size()) {
+                return this;
+            }
+            if (failure != null) {
+                connectionFailed(networks, failure);
+                for (int i = 0; i < networks.size(); i++) {
+                    responses.add(null);
+                }
+            } else if (networkBatch != null) {
+                decodeBatch(networkBatch);
+            } else {
+                decodeSingle(networks.get(0));
+            }
+            Arrays.fill(nanos, System.nanoTime() - start);
+            return this;
+        }
+
+        /**
+         * Reads the response to a single network. If EBPP didn't know the network's session the session is reset and
+         * the network is marked to be sent again as a whole.
+         */
+        private void decodeSingle(SimulationNetwork sim) {
+            SimulationResponse result;
+            try {
+                result = request.decode(response, sim::readSimulationResults);
+            } catch (IOException | IllegalStateException | JsonParseException e) {
+                ElectricBlocksMod.LOGGER.error("Unable to read the response from EBPP.", e);
+                result = new SimulationResponse(null, null, new Object[0][]);
+            }
+            if (sessionRequest != null) {
+                if (sessionRequest.isDelta() && NetworkSession.SESSION_UNKNOWN.equals(result.getStatus())) {
+                    SimulationMetrics.increment(NetworkSession.RESETS);
+                    sim.getSession().reset();
+                    resends.add(sim);
+                } else {
+                    sim.getSession().acknowledge(sessionRequest, result);
+                }
+            }
+            responses.add(result);
+        }
+
+        /**
+         * Reads the response of each network in a SIM_BATCH request. Networks that didn't get a usable response in the
+         * batch are marked to be sent again on their own, which includes every network if EBPP doesn't support
+         * SIM_BATCH. In that case batching is turned off until the next keep alive.
+         */
+        private void decodeBatch(NetworkBatch networkBatch) {
+            try {
+                if (!request.decode(response, networkBatch::readResponses) && batchSupported) {
+                    batchSupported = false;
+                    ElectricBlocksMod.LOGGER.warn("EBPP doesn't support SIM_BATCH requests. Networks will be sent one at a time.");
+                }
+            } catch (IOException | IllegalStateException | JsonParseException e) {
+                ElectricBlocksMod.LOGGER.error("Unable to read the batch response from EBPP. Networks will be sent one at a time.", e);
+            }
+            for (int i = 0; i < networkBatch.size(); i++) {
+                SimulationNetwork sim = networks.get(i);
+                SimulationResponse result = networkBatch.getResponse(i);
+                NetworkSession.Request request = networkBatch.getRequest(i);
+                if (result != null && request != null) {
+                    if (request.isDelta() && NetworkSession.SESSION_UNKNOWN.equals(result.getStatus())) {
+                        SimulationMetrics.increment(NetworkSession.RESETS);
+                        sim.getSession().reset();
+                        result = null;
+                    } else {
+                        sim.getSession().acknowledge(request, result);
+                    }
+                }
+                if (result == null || result.getStatus() == null) {
+                    SimulationMetrics.increment(NetworkBatch.FALLBACKS);
+                    resends.add(sim);
+                }
+                responses.add(result);
+            }
+        }
+
+        /**
+         * Records and caches the response of each network and hands its results to the SimulationResultApplier, which
+         * is the last stage of the pipeline and runs on the server thread. Networks that are being sent again are
+         * handled by the exchange that sends them instead.
+         */
+        private void finish() {
+            SimulationResultCache cache = SimulationResultCache.instance();
+            for (int i = 0; i < networks.size(); i++) {
+                if (resends.contains(networks.get(i))) {
+                    continue;
+                }
+                SimulationResponse result = responses.get(i);
+                if (result != null && result.getStatus() != null) {
+                    WarmStart.record(warm.get(i), result.getIterations(), nanos[i]);
+                }
+                if (fingerprints.get(i) != null && result != null) {
+                    cache.put(fingerprints.get(i), result);
+                }
+                handleResponse(networks.get(i), result);
+            }
+        }
+
+        /**
+         * Sends each network that has to be sent again through the pipeline in an exchange of its own, starting the next
+         * once the one before it has finished.
+         * @return A future that is completed once every network has been sent again and handled
+         */
+        private CompletableFuture<Void> resend() {
+            CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+            for (SimulationNetwork sim : resends) {
+                future = future.thenCompose(previous -> simulate(new Exchange(Collections.singletonList(sim), true)));
+            }
+            return future;
+        }
+
     }
 }
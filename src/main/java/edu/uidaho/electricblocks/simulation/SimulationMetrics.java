@@ -0,0 +1,80 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Static registry of counters and gauges describing what the simulation code is doing. Counters are cheap to update
+ * from any thread and are only ever added to. Gauges are sampled when a snapshot is taken and are used for values such
+ * as queue depths which go up and down.
+ */
+public final class SimulationMetrics {
+
+    private SimulationMetrics() {} // Class cannot be instantiated
+
+    public static final String REQUESTED = "requests.received";
+    public static final String COALESCED = "requests.coalesced";
+    public static final String SIMULATED = "requests.simulated";
+    public static final String DISCOVERY_NANOS = "discovery.nanos";
+    public static final String DISCOVERY_BLOCKS = "discovery.blocks_visited";
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Adds one to the counter with the specified name, creating the counter if it doesn't exist yet
+     * @param name The name of the counter
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Adds an amount to the counter with the specified name, creating the counter if it doesn't exist yet
+     * @param name The name of the counter
+     * @param amount The amount to add to the counter
+     */
+    public static void add(String name, long amount) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Gets the current value of a counter
+     * @param name The name of the counter
+     * @return The current value of the counter or zero if nothing has been counted yet
+     */
+    public static long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Registers a gauge that will be sampled whenever a snapshot of the metrics is taken. Registering a gauge with the
+     * name of an existing gauge replaces it.
+     * @param name The name of the gauge
+     * @param gauge The function used to sample the current value of the gauge
+     */
+    public static void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Takes a snapshot of every counter and gauge sorted by name. Used for logging and for displaying the metrics to
+     * server operators.
+     * @return The sorted map of metric names to their current values
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return snapshot;
+    }
+
+}
@@ -1,42 +1,107 @@
 package edu.uidaho.electricblocks.simulation;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.common.io.ByteStreams;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import edu.uidaho.electricblocks.ElectricBlocksConfig;
-import edu.uidaho.electricblocks.ElectricBlocksMod;
 import edu.uidaho.electricblocks.RegistryHandler;
 import edu.uidaho.electricblocks.utils.PlayerUtils;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.block.Block;
 import net.minecraft.entity.player.PlayerEntity;
-import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.Direction;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
-import net.minecraftforge.fml.RegistryObject;
 
 import javax.annotation.Nullable;
 
 public class SimulationNetwork {
 
-    private List<SimulationTileEntity> simTileEntities = new ArrayList<>();
-    private List<SimulationConnection> simConnections = new ArrayList<>();
-    private boolean ready = false;
-    private Thread asyncBlocksThread;
+    // Directions checked around each block. Diagonals aren't connected
+    private static final Direction[] DIRECTIONS = {
+            Direction.UP, Direction.DOWN, Direction.NORTH, Direction.SOUTH, Direction.EAST, Direction.WEST
+    };
+
+    private NetworkTopology topology = NetworkTopology.EMPTY;
+    private final CompletableFuture<SimulationNetwork> readyFuture = new CompletableFuture<>();
 
     private SimulationTileEntity startingBlock;
     private World world;
+    private final ElectricBlockIndex blockIndex;
     private PlayerEntity player = null;
+    private boolean connectionsWarned = false; // Whether the player has been warned about lines that go nowhere
 
     public SimulationNetwork(SimulationTileEntity startingBlock) {
         this.startingBlock = startingBlock;
         this.world = startingBlock.getWorld();
-        asyncBlocksThread = new Thread(() -> {
+        this.blockIndex = ElectricBlockIndex.forWorld(world);
+    }
+
+    /**
+     * Creates a network that discovers its blocks in the given index instead of the index of its starting block's world.
+     * The network has no world, so it can only be discovered with discover. Used by benchmarks.
+     * @param startingBlock The block the network is discovered from
+     * @param blockIndex The index the blocks are discovered in
+     */
+    SimulationNetwork(SimulationTileEntity startingBlock, ElectricBlockIndex blockIndex) {
+        this.startingBlock = startingBlock;
+        this.blockIndex = blockIndex;
+    }
+
+    /**
+     * Creates a network from a group of blocks that has already been discovered. The network has no world, so it can't
+     * be started or discovered again. Used by tests.
+     * @param topology The group of blocks in the network
+     */
+    SimulationNetwork(NetworkTopology topology) {
+        this.topology = topology;
+        this.blockIndex = null;
+    }
+
+    /**
+     * Starts discovering the blocks in this network on the NetworkDiscoveryExecutor. Must be called once the network
+     * has been set up, including its player so that they hear about any problems found while discovering it.
+     * @return Whether this network will be discovered. False if a network from the same starting block was already
+     * waiting to be discovered, in which case that network is simulated instead and this one is never made ready.
+     */
+    public boolean start() {
+        return NetworkDiscoveryExecutor.instance().submit(this) == this;
+    }
+
+    /**
+     * Discovers the blocks in this network and marks it as ready, or completes the ready future exceptionally if the
+     * blocks couldn't be discovered. Called on a discovery thread by the NetworkDiscoveryExecutor.
+     */
+    void discoverBlocks() {
+        try {
             addConnectedBlocks();
             setReady();
-        });
-        asyncBlocksThread.start();
+        } catch (Throwable t) {
+            readyFuture.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * @return The block this network is discovered from
+     */
+    SimulationTileEntity getStartingBlock() {
+        return startingBlock;
     }
 
     /**
@@ -44,7 +109,7 @@ public class SimulationNetwork {
      * @return The list of SimulationTileEntities in this network
      */
     public List<SimulationTileEntity> getSimulationList() {
-        return simTileEntities;
+        return topology.getSimulationList();
     }
 
     /**
@@ -52,48 +117,163 @@ public class SimulationNetwork {
      * @return The list of SimulationConnections in this network
      */
     public List<SimulationConnection> getSimulationConnections() {
-        return simConnections;
+        return topology.getSimulationConnections();
     }
 
     /**
-     * Extracts simulation results that were received from the EBPP server. This function is called by the
-     * SimulationHandler when a simulation was successfully performed and the results are available for updating the
-     * SimulationTileEntities in this network.
-     * @param simResults The JSON results of the simulation request
+     * Reads the response received from the EBPP server in a single pass. The ID of each element in the response is
+     * looked up in the element index of this network's topology and the results are read straight into the output slots
+     * of the matching SimulationTileEntity. Elements that don't belong to a SimulationTileEntity such as embedded buses and
+     * lines are skipped without being parsed, apart from bus voltages which are kept for the network's warm start when
+     * it is enabled. This function is called by the SimulationHandler while the response is still being received. The
+     * results are not applied here, see applySimulationResults.
+     * @param reader The JsonReader positioned at the start of the response
+     * @return The status of the response
+     * @throws IOException If the response could not be read or is not valid JSON
      */
-    public void handleSimulationResults(JsonObject simResults) {
-        JsonObject elements = simResults.get("elements").getAsJsonObject();
-        for (SimulationTileEntity sim : simTileEntities) {
-            sim.receiveSimulationResults(elements.get(sim.getSimulationID().toString()).getAsJsonObject());
+    public SimulationResponse readSimulationResults(JsonReader reader) throws IOException {
+        String status = null;
+        String message = null;
+        List<SimulationTileEntity> simTileEntities = topology.getSimulationList();
+        Object[][] results = new Object[simTileEntities.size()][];
+        int version = -1;
+        int iterations = -1;
+        Map<String, double[]> busVoltages = ElectricBlocksConfig.getWarmStart() ? new HashMap<>() : null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("status") && reader.peek() == JsonToken.STRING) {
+                status = reader.nextString();
+            } else if (name.equals("response") && reader.peek() == JsonToken.STRING) {
+                message = reader.nextString();
+            } else if (name.equals("version") && reader.peek() == JsonToken.NUMBER) {
+                version = reader.nextInt();
+            } else if (name.equals("iterations") && reader.peek() == JsonToken.NUMBER) {
+                iterations = reader.nextInt();
+            } else if (name.equals("elements") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String id = reader.nextName();
+                    int index = topology.indexOf(id);
+                    if (index >= 0 && index < results.length && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        SimulationTileEntity ste = simTileEntities.get(index);
+                        results[index] = ste.readSimulationResults(reader);
+                        if (busVoltages != null && ste.getSimulationType() == SimulationType.BUS) {
+                            addBusVoltage(busVoltages, id, results[index][ste.getOutputSlot("vm_pu")], results[index][ste.getOutputSlot("va_degree")]);
+                        }
+                    } else if (index < 0 && busVoltages != null && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        readBusVoltage(reader, busVoltages, id);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SimulationResponse(status, message, results, version, iterations,
+                busVoltages == null ? Collections.emptyMap() : busVoltages);
+    }
+
+    /**
+     * Reads the voltage of an element that doesn't belong to a SimulationTileEntity, which are the embedded buses. Other
+     * elements such as lines don't have a vm_pu and va_degree and are ignored.
+     * @param reader The JsonReader positioned at the start of the element's results
+     * @param busVoltages The bus voltages read so far
+     * @param id The ID of the element
+     * @throws IOException If the results could not be read
+     */
+    private static void readBusVoltage(JsonReader reader, Map<String, double[]> busVoltages, String id) throws IOException {
+        Object vm = null;
+        Object va = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("vm_pu") && reader.peek() == JsonToken.NUMBER) {
+                vm = reader.nextDouble();
+            } else if (name.equals("va_degree") && reader.peek() == JsonToken.NUMBER) {
+                va = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
         }
+        reader.endObject();
+        addBusVoltage(busVoltages, id, vm, va);
     }
 
     /**
-     * This function loops through all of the SimulationTileEntities in the network and calls their zeroSim function.
-     * This function is called whenever a simulation involving this SimulationNetwork fails for any reason. This sets
-     * all the results to zero. This does not zero out any of the inputs, only the results
+     * Keeps the voltage of a bus if both its magnitude and angle are known and the bus was supplied
+     */
+    private static void addBusVoltage(Map<String, double[]> busVoltages, String id, @Nullable Object vm, @Nullable Object va) {
+        if (vm instanceof Double && va instanceof Double && (Double) vm > 0) {
+            busVoltages.put(id, new double[] {(Double) vm, (Double) va});
+        }
+    }
+
+    /**
+     * Hands the results of a successful simulation to the SimulationResultApplier so they are applied to each
+     * SimulationTileEntity in this network on the server thread.
+     * @param response The response that the results were read from
+     */
+    public void applySimulationResults(SimulationResponse response) {
+        List<SimulationTileEntity> simTileEntities = topology.getSimulationList();
+        Object[][] results = response.getResults();
+        for (int i = 0; i < results.length && i < simTileEntities.size(); i++) {
+            if (results[i] != null) {
+                SimulationResultApplier.instance().submit(simTileEntities.get(i), results[i]);
+            }
+        }
+    }
+
+    /**
+     * This function loops through all of the SimulationTileEntities in the network and queues their zeroSim function
+     * to be called on the server thread. This function is called whenever a simulation involving this
+     * SimulationNetwork fails for any reason. This sets all the results to zero. This does not zero out any of the
+     * inputs, only the results
      */
     public void zeroSimResults() {
-        for (SimulationTileEntity sim : simTileEntities) {
-            sim.zeroSim();
+        for (SimulationTileEntity sim : topology.getSimulationList()) {
+            SimulationResultApplier.instance().submit(sim, null);
         }
     }
 
     /**
      * Marks this SimulationNetwork as ready for simulation. This indicates to the SimulationHandler that this network
-     * has finished being constructed and can be sent to the EBPP simulation server.
+     * has finished being constructed and can be sent to the EBPP simulation server. Completing the ready future wakes
+     * up anything waiting on this network.
      */
     private void setReady() {
-        ready = true;
+        readyFuture.complete(this);
     }
 
     /**
-     * Checks whether or not this SimulationNetwork is ready to be simulated. SimulationNetworks are built in a separate
-     * async thread and so this function will determine whether or not this process has been completed.
+     * Checks whether or not this SimulationNetwork is ready to be simulated. SimulationNetworks are built on the
+     * NetworkDiscoveryExecutor and so this function will determine whether or not this process has been completed.
      * @return Whether or not this SimulationNetwork is ready to be simulated.
      */
     public boolean isReady() {
-        return ready;
+        return readyFuture.isDone() && !readyFuture.isCompletedExceptionally();
+    }
+
+    /**
+     * Gets the future that is completed once this SimulationNetwork has finished being built. The future is completed
+     * exceptionally if building the network failed.
+     * @return The future that is completed when this SimulationNetwork is ready to be simulated
+     */
+    public CompletableFuture<SimulationNetwork> getReadyFuture() {
+        return readyFuture;
+    }
+
+    /**
+     * Blocks the calling thread until this SimulationNetwork has finished being built. The thread is parked while
+     * waiting and so this does not consume any CPU time.
+     * @throws InterruptedException If the calling thread was interrupted while waiting
+     * @throws ExecutionException If building the network failed
+     */
+    public void awaitReady() throws InterruptedException, ExecutionException {
+        readyFuture.get();
     }
 
     /**
@@ -121,6 +301,55 @@ public class SimulationNetwork {
         return this.player != null;
     }
 
+    /**
+     * Gets the session used to send only the changes to this network to EBPP. The session is shared with every network
+     * built from the same group of blocks and is carried over when the group changes, see NetworkSession.claim.
+     * @return The session of this network's topology
+     */
+    public NetworkSession getSession() {
+        return topology.getSession();
+    }
+
+    /**
+     * Gets the bus voltages from the last successful simulation of this network. The warm start belongs to the
+     * network's topology so it is shared with every network built from the same group of blocks.
+     * @return The warm start of this network's topology
+     */
+    public WarmStart getWarmStart() {
+        return topology.getWarmStart();
+    }
+
+    /**
+     * Gets the simulation IDs of every SimulationTileEntity in this network. This is empty until the network is ready.
+     * @return The unmodifiable set of simulation IDs in this network
+     */
+    public Set<UUID> getElementIds() {
+        return topology.getElementIds();
+    }
+
+    /**
+     * Checks whether or not this network covers exactly the same SimulationTileEntities as another network. Two
+     * networks that are ready and have the same elements are the same connected component of the world, so simulating
+     * only the most recent of the two gives the same outcome as simulating both.
+     * @param other The network to compare with
+     * @return Whether or not both networks are ready and contain the same elements
+     */
+    public boolean hasSameElements(SimulationNetwork other) {
+        return isReady() && other.isReady()
+                && (topology == other.topology || topology.getElementIds().equals(other.topology.getElementIds()));
+    }
+
+    /**
+     * Called when an older request for the same network is merged into this one. If this request doesn't have a known
+     * player the player from the older request is kept so they still hear about the outcome of the simulation.
+     * @param older The older network request that is being replaced by this one
+     */
+    public void absorb(SimulationNetwork older) {
+        if (!hasPlayer()) {
+            setPlayer(older.getPlayer());
+        }
+    }
+
     /**
      * Checks if the block is an electric block. This function helps differentiate between blocks specific to this mod
      * and all the other blocks in the game
@@ -128,22 +357,17 @@ public class SimulationNetwork {
      * @return Whether or not the block is an electric block
      */
     public boolean isElectricBlock(Block b) {
-        for (RegistryObject<Block> registryObject : RegistryHandler.BLOCKS.getEntries()) {
-            if (registryObject.get() == b) {
-                return true;
-            }
-        }
-        return false;
+        return RegistryHandler.isElectricBlock(b);
     }
 
     /**
-     * Gets the block at the specified position. This is mainly useful for comparing block types as blocks in game are
-     * not actually represented by an instance of the Block class just provides the archetype for a block.
+     * Checks if the block at the specified position is an electric block. This reads the ElectricBlockIndex instead of
+     * the world so it is safe to call while the network is being discovered on another thread.
      * @param pos The position to check
-     * @return The block at the specified position
+     * @return Whether or not the block at the specified position is an electric block
      */
-    public Block getBlock(BlockPos pos) {
-        return world.getBlockState(pos).getBlock();
+    public boolean isElectricBlock(BlockPos pos) {
+        return blockIndex.isElectricBlock(pos);
     }
 
     /**
@@ -152,8 +376,7 @@ public class SimulationNetwork {
      * @return Whether or not the block at the specified position is a wire/line block
      */
     public boolean isWire(BlockPos pos) {
-        Block b = getBlock(pos);
-        return isElectricBlock(b) && !isSimulationTileEntity(pos);
+        return blockIndex.isWire(pos);
     }
 
     /**
@@ -162,199 +385,391 @@ public class SimulationNetwork {
      * @return Whether or not a SimulationTileEntity is attached to the specified block position
      */
     public boolean isSimulationTileEntity(BlockPos pos) {
-        TileEntity te = world.getChunk(pos).getTileEntity(pos);
-        return te instanceof SimulationTileEntity;
+        return blockIndex.getSimulationTileEntity(pos) != null;
     }
 
     /**
-     * Gets the SimulationTileEntity at a specific block position by checking the world for a tile entity at that
-     * position and casting to SimulationTileEntity if it is an instance of one. Will return null if there is no tile
-     * entity there or if it is a different kind of tile entity.
+     * Gets the SimulationTileEntity at a specific block position from the ElectricBlockIndex. Will return null if there
+     * is no SimulationTileEntity there.
      * @param pos The block position to check for a SimulationTileEntity
      * @return The SimulationTileEntity at the specified location or null if it doesn't exist.
      */
     @Nullable
     public SimulationTileEntity getSimulationTileEntity(BlockPos pos) {
-        TileEntity te = world.getChunk(pos).getTileEntity(pos);
-        if (te instanceof SimulationTileEntity) {
-            return (SimulationTileEntity) te;
-        }
-        return null;
+        return blockIndex.getSimulationTileEntity(pos);
     }
 
     /**
-     * Gets all the blocks surrounding a specific block position that are one block away. Diagonals are not included so
-     * this will GENERALLY be 6 blocks long corresponding to the blocks offset by one to the north, south, east, west
-     * up, and down directions. This may be different though if the player is at the very extremes of a map such as near
-     * bedrock or at the build height limit
-     * @param pos The starting base position from which the surrounding blocks are offset
-     * @return The list of all blocks surrounding a specific block position that are at most one block away
+     * Writes the simulation network represented by this class in the JSON format used by EBPP. Each element writes
+     * itself straight to the writer, so no intermediate JSON tree is built for the request. If warm starts are enabled
+     * the bus voltages from the last simulation of this network are included as the initial guess.
+     * @param writer The JsonWriter the request is written to, usually wrapping the connection to EBPP
+     * @throws IOException If the writer could not be written to
      */
-    public List<BlockPos> getSurroundingBlocks(BlockPos pos) {
-        List<BlockPos> list = new ArrayList<>();
-
-        BlockPos up = pos.up();
-        if (World.isValid(up)) list.add(up);
-        BlockPos down = pos.down();
-        if (World.isValid(down)) list.add(down);
-        BlockPos north = pos.north();
-        if (World.isValid(north)) list.add(north);
-        BlockPos south = pos.south();
-        if (World.isValid(south)) list.add(south);
-        BlockPos east = pos.east();
-        if (World.isValid(east)) list.add(east);
-        BlockPos west = pos.west();
-        if (World.isValid(west)) list.add(west);
-
-        return list;
+    public void writeJson(JsonWriter writer) throws IOException {
+        writeJson(writer, true, ElectricBlocksConfig.getWarmStart());
     }
 
     /**
-     * Converts the simulation network represented by this class to a JSON format for submission to EBPP
-     * @return The JsonObject representing this network
+     * Writes the simulation network represented by this class in the JSON format used by EBPP.
+     * @param writer The JsonWriter the request is written to
+     * @param warn Whether the player should be warned about lines that don't go anywhere. The player is only warned the
+     *             first time the network is written, since a logged request is written again when it is sent.
+     * @param init Whether the bus voltages of the warm start are included
+     * @throws IOException If the writer could not be written to
      */
-    public JsonObject toJson() {
-        JsonObject requestJson = new JsonObject();
-        requestJson.addProperty("status", "SIM_REQUEST");
-        requestJson.addProperty("3phase", false); // TODO make 3phase system work
-        JsonObject elements = new JsonObject();
+    private void writeJson(JsonWriter writer, boolean warn, boolean init) throws IOException {
+        if (warn) {
+            warnIncompleteConnections();
+        }
+        writer.beginObject();
+        writer.name("status").value("SIM_REQUEST");
+        writer.name("3phase").value(false); // TODO make 3phase system work
+        writer.name("elements").beginObject();
         for (SimulationTileEntity sim : getSimulationList()) {
-            JsonObject simJs = sim.toJson();
-            for (Map.Entry<String, JsonElement> entry : simJs.entrySet()) {
-                elements.add(entry.getKey(), entry.getValue());
+            sim.writeJson(writer);
+        }
+        for (SimulationConnection simConn : getSimulationConnections()) {
+            if (simConn.isComplete()) {
+                simConn.writeJson(writer);
             }
         }
+        writer.endObject();
+        if (init) {
+            topology.getWarmStart().writeJson(writer);
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Warns the player about each line that doesn't go anywhere, since those are left out of the request. The player is
+     * only warned the first time, since a network may be written more than once, for example when a request is logged.
+     */
+    void warnIncompleteConnections() {
+        if (connectionsWarned) {
+            return;
+        }
+        connectionsWarned = true;
         for (SimulationConnection simConn : getSimulationConnections()) {
-            try {
-                elements.add(simConn.getSimId().toString(), simConn.toJson());
-            } catch (NullPointerException e) {
+            if (!simConn.isComplete()) {
                 PlayerUtils.warn(player, "command.electricblocks.requestsimulation.warn_conn");
             }
         }
-        requestJson.add("elements", elements);
-        if (ElectricBlocksConfig.getLogJSONRequests()) {
-            ElectricBlocksMod.LOGGER.debug(requestJson.toString());
+    }
+
+    /**
+     * Gets the lines in this network that connect two buses, which are the only ones that are sent to EBPP.
+     * @return The complete lines in this network
+     */
+    public List<SimulationConnection> getCompleteConnections() {
+        List<SimulationConnection> complete = new ArrayList<>();
+        for (SimulationConnection simConn : getSimulationConnections()) {
+            if (simConn.isComplete()) {
+                complete.add(simConn);
+            }
         }
-        return requestJson;
+        return complete;
     }
 
     /**
-     * Class just used for creating a queue of block positions and their corresponding connections. This creates a sort
-     * of linked list or directed graph structure that allows us to construct the SimulationNetwork
+     * Gets the initial guess sent with full uploads of this network.
+     * @return The warm start of this network or null if warm starts are disabled
      */
-    private class ConnectedBlock {
-        
-        public BlockPos pos;
-        public SimulationConnection currConnection = null;
-        public SimulationTileEntity ste;
-        public ConnectedBlock previousBlock = null;
+    @Nullable
+    public WarmStart getInitialGuess() {
+        return ElectricBlocksConfig.getWarmStart() ? topology.getWarmStart() : null;
+    }
 
-        public ConnectedBlock(SimulationTileEntity ste) {
-            this.ste = ste;
-            this.pos = ste.getPos();
+    /**
+     * Computes a fingerprint of the current state of this network. The fingerprint is a SHA-256 hash of the elements
+     * that would be sent to EBPP, so it covers every element, every connection and every input. Two networks with the
+     * same fingerprint will receive the same results from EBPP.
+     *
+     * The simulation IDs of tile entities and their embedded buses are random and change every time the blocks are
+     * loaded, so they are replaced by the position of the block they belong to before being hashed. Lines are named by
+     * the bus they start from and the position of their first wire, and are written in the order of those names. The
+     * tile entities are already in the order of their positions, see NetworkTopology. The same blocks in the same state
+     * therefore always have the same fingerprint, even after their chunk has been reloaded. The warm start is left out
+     * since the initial guess only changes how quickly the solution is found, not the solution itself.
+     * @return The fingerprint of this network
+     */
+    public String fingerprint() {
+        Map<String, String> names = new HashMap<>();
+        for (SimulationTileEntity sim : getSimulationList()) {
+            String pos = Long.toString(sim.getPos().toLong());
+            names.put(sim.getSimulationID().toString(), pos);
+            for (Map.Entry<String, UUID> bus : sim.getEmbeddedBuses().entrySet()) {
+                names.put(bus.getValue().toString(), pos + "/" + bus.getKey());
+            }
         }
-
-        public ConnectedBlock(BlockPos pos) {
-            this.pos = pos;
-            this.ste = getSimulationTileEntity(pos);
+        SortedMap<String, SimulationConnection> lines = new TreeMap<>();
+        for (SimulationConnection simConn : getCompleteConnections()) {
+            String name = names.get(simConn.getFromBus().toString()) + ">" + simConn.getStartPos();
+            names.put(simConn.getSimId().toString(), name);
+            lines.put(name, simConn);
         }
 
-        /**
-         * Checks whether or not this block has a SimulationTileEntity attached to it.
-         * @return Whether or not this block has a SimulationTileEntity attached to it.
-         */
-        public boolean hasSimTileEntity() {
-            return ste != null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            JsonWriter writer = new CanonicalJsonWriter(new BufferedWriter(new OutputStreamWriter(
+                    new DigestOutputStream(ByteStreams.nullOutputStream(), digest), StandardCharsets.UTF_8)), names);
+            writer.setLenient(true);
+            writer.beginObject();
+            writer.name("elements").beginObject();
+            for (SimulationTileEntity sim : getSimulationList()) {
+                sim.writeJson(writer);
+            }
+            for (SimulationConnection simConn : lines.values()) {
+                simConn.writeJson(writer);
+            }
+            writer.endObject();
+            writer.endObject();
+            writer.flush();
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to fingerprint simulation network", e);
         }
+    }
 
-        /**
-         * Checks whether this block has an existing connection.
-         * @return Whether or not this block has an existing connection.
-         */
-        public boolean hasConnection() {
-            return currConnection != null;
+    /**
+     * Writes the elements of a network with the IDs of the elements, both as names and as values such as the bus of a
+     * load, swapped for the names given to them by fingerprint.
+     */
+    private static class CanonicalJsonWriter extends JsonWriter {
+
+        private final Map<String, String> names;
+
+        CanonicalJsonWriter(Writer out, Map<String, String> names) {
+            super(out);
+            this.names = names;
         }
 
-        /**
-         * Verifies that the previous block in the graph is not the same as the previous block. This helps prevent the
-         * network from backtracking while scanning the surrounding blocks.
-         * @param newPos The block position that is currently being checked. May be null.
-         * @return True if newPos is not equal to the previous block in this object. False if the two blocks are equal.
-         * Also returns true if either the previous block or the new block position are null
-         */
-        public boolean previousBlockNotEqualTo(@Nullable BlockPos newPos) {
-            if (newPos == null || previousBlock == null) {
-                return true;
-            }
+        @Override
+        public JsonWriter name(String name) throws IOException {
+            return super.name(names.getOrDefault(name, name));
+        }
 
-            return !newPos.equals(previousBlock.pos);
+        @Override
+        public JsonWriter value(String value) throws IOException {
+            return super.value(value == null ? null : names.getOrDefault(value, value));
         }
 
     }
 
+    /**
+     * Converts the simulation network represented by this class to a JSON string. This is only used for logging
+     * requests, the request that is actually sent to EBPP is streamed using writeJson.
+     * @return The JSON string representing this network
+     */
+    public String toJsonString() {
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.setLenient(true);
+            writeJson(writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write simulation network to string", e);
+        }
+        return out.toString();
+    }
+
     /**
      * This function is used to identify all the electric blocks that are connected to this SimulationNetwork's starting
-     * block and how it is connected to them. It does this using a list of checked and unchecked blocks. The algorithm
-     * continually checks the blocks surrounding the current block and uses this information to update the network's
-     * list of connections and SimulationTileEntities.
+     * block and how it is connected to them. The ConnectivityIndex of the world is checked first, and the blocks are
+     * only discovered by walking the ElectricBlockIndex if the starting block's group has changed since it was last
+     * discovered.
      */
     public void addConnectedBlocks() {
-        HashSet<BlockPos> checked = new HashSet<>();
-        Queue<ConnectedBlock> unchecked = new LinkedList<>();
-        ConnectedBlock initial = new ConnectedBlock(startingBlock); // Initialize starting block
-        unchecked.add(initial); // Add starting block to the list
-        
-        while (!unchecked.isEmpty()) { // Repeat loop until the list of unchecked blocks is empty
-            ConnectedBlock cb = unchecked.remove();
-            if (checked.contains(cb.pos)) { // Ignore blocks that have already been checked
-                if (!cb.hasSimTileEntity()) {
+        ConnectivityIndex index = ConnectivityIndex.forWorld(world);
+        NetworkTopology topology = index.lookup(startingBlock.getPos());
+        if (topology == null || !topology.contains(startingBlock)) {
+            long startTime = index.startDiscovery();
+            try {
+                long start = System.nanoTime();
+                topology = discover(ElectricBlocksConfig.getCompressWireRuns());
+                SimulationMetrics.add(SimulationMetrics.DISCOVERY_NANOS, System.nanoTime() - start);
+                SimulationMetrics.add(SimulationMetrics.DISCOVERY_BLOCKS, topology.getPositions().size());
+                index.store(topology, startTime);
+            } finally {
+                index.finishDiscovery();
+            }
+        }
+
+        if (topology.hasLoop() && hasPlayer()) {
+            /*
+             * A loop in the network where one bus is connected to itself is not allowed by PandaPower and so it was
+             * discarded. The player is warned if a player exists.
+             */
+            PlayerUtils.warn(player, "command.electricblocks.requestsimulation.warn_loop");
+        }
+        this.topology = topology;
+    }
+
+    /**
+     * Discovers the blocks connected to this SimulationNetwork's starting block without checking the ConnectivityIndex
+     * or storing the topology that is found in it.
+     * @param compressWireRuns Whether straight runs of wire are walked in place instead of each block being queued
+     * @return The topology of the group of blocks connected to the starting block
+     */
+    NetworkTopology discover(boolean compressWireRuns) {
+        return new Discovery(compressWireRuns).run();
+    }
+
+    /**
+     * Walks the ElectricBlockIndex to find the blocks connected to this SimulationNetwork's starting block. It does this
+     * using a queue of unchecked blocks and a set of checked blocks. The algorithm continually checks the blocks
+     * surrounding the current block and uses this information to build the list of connections and
+     * SimulationTileEntities.
+     *
+     * Block positions are packed into longs with BlockPos.toLong, and the queue and the checked set store them as
+     * primitives. Each entry in the queue is made up of the block to check, the block it was reached from and the line
+     * being followed to it, which are kept in three queues that are always the same length. No objects are created for
+     * wire blocks so networks with long lines don't create garbage while being discovered. The index is read through a
+     * single ElectricBlockIndex.Reader, so the chunk of a block is only looked up when the walk moves into another chunk.
+     */
+    private class Discovery {
+
+        // Stands in for the previous block of the starting block. This is outside of the world so is never a real block.
+        private static final long NO_BLOCK = Long.MIN_VALUE;
+
+        private final List<SimulationTileEntity> simTileEntities = new ArrayList<>();
+        private final Set<SimulationTileEntity> foundTileEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<SimulationConnection> simConnections = new ArrayList<>();
+        private final LongOpenHashSet checked = new LongOpenHashSet();
+        private final LongArrayFIFOQueue uncheckedBlocks = new LongArrayFIFOQueue();
+        private final LongArrayFIFOQueue uncheckedPrevious = new LongArrayFIFOQueue();
+        private final ArrayDeque<SimulationConnection> uncheckedConnections = new ArrayDeque<>();
+        private final ElectricBlockIndex.Reader index = blockIndex.reader();
+        private final long[] next = new long[6];
+        private final boolean compressWireRuns;
+        private boolean hasLoop = false;
+
+        Discovery(boolean compressWireRuns) {
+            this.compressWireRuns = compressWireRuns;
+        }
+
+        /**
+         * Discovers every block connected to the starting block.
+         * @return The topology of the group of blocks connected to the starting block
+         */
+        public NetworkTopology run() {
+            long startPos = startingBlock.getPos().toLong();
+            checkSimulationTileEntity(startingBlock, startPos, NO_BLOCK, null);
+            checked.add(startPos);
+
+            while (!uncheckedBlocks.isEmpty()) { // Repeat loop until the queue of unchecked blocks is empty
+                long pos = uncheckedBlocks.dequeueLong();
+                long previous = uncheckedPrevious.dequeueLong();
+                SimulationConnection connection = uncheckedConnections.remove();
+                SimulationTileEntity ste = index.getSimulationTileEntity(pos);
+                if (checked.contains(pos) && ste == null) {
                     /*
                      * If a block has already been checked and it doesn't have a simulation tile entity, that means that
                      * we have found a loop in the network where one bus is connected to itself. This is not allowed by
-                     * PandaPower and so we have to discard this loop. The player is warned if a player exists.
+                     * PandaPower and so we have to discard this loop.
                      */
-                    if (hasPlayer())
-                        PlayerUtils.warn(player, "command.electricblocks.requestsimulation.warn_loop");
+                    hasLoop = true;
                     continue;
                 }
+
+                if (ste != null) {
+                    checkSimulationTileEntity(ste, pos, previous, connection);
+                } else {
+                    checkWire(pos, previous, connection);
+                }
+                checked.add(pos);
             }
+            return new NetworkTopology(checked, simTileEntities, simConnections, hasLoop);
+        }
 
-            if (cb.hasSimTileEntity()) {
-                if (!simTileEntities.contains(cb.ste)) simTileEntities.add(cb.ste);
+        /**
+         * Adds a SimulationTileEntity to the network, finishes the line it was reached by and starts a new line for each
+         * wire leaving it.
+         */
+        private void checkSimulationTileEntity(SimulationTileEntity ste, long pos, long previous, @Nullable SimulationConnection connection) {
+            if (foundTileEntities.add(ste)) {
+                simTileEntities.add(ste);
+            }
 
-                if (cb.hasConnection()) {
-                    cb.currConnection.setToBus(cb.ste.getEmbeddedBus(cb.previousBlock.pos));
-                    simConnections.add(cb.currConnection);
-                }
+            if (connection != null) {
+                connection.setToBus(ste.getEmbeddedBus(BlockPos.fromLong(previous)));
+                simConnections.add(connection);
+            }
 
-                for (BlockPos pos : getSurroundingBlocks(cb.pos)) {
-                    if (isWire(pos) && cb.previousBlockNotEqualTo(pos)) {
-                        ConnectedBlock ncb = new ConnectedBlock(pos);
-                        ncb.previousBlock = cb;
-                        ncb.currConnection = new SimulationConnection();
-                        ncb.currConnection.setFromBus(cb.ste.getEmbeddedBus(pos));
-                        unchecked.add(ncb);
-                    }
+            for (Direction direction : DIRECTIONS) {
+                long wire = BlockPos.offset(pos, direction);
+                if (wire != previous && isValid(wire) && index.isWire(wire)) {
+                    SimulationConnection newConnection = new SimulationConnection(ste.getEmbeddedBus(BlockPos.fromLong(wire)), wire);
+                    enqueue(wire, pos, newConnection);
                 }
-            } else { // No STE
-                if (cb.hasConnection()) {
-                    cb.currConnection.incrementLength();
-                } else { // No connection
-                    ElectricBlocksMod.LOGGER.fatal("No SimulationTileEntity or SimulationConnection for block " + cb.pos.toString());
+            }
+        }
+
+        /**
+         * Follows a wire for as long as it continues in a single direction without branching or reaching a
+         * SimulationTileEntity. The blocks in the run are walked in place instead of each being queued, and the length
+         * of the whole run is added to the line at once. Wires are only ever reached from a SimulationTileEntity or
+         * another wire so there is always a line being followed.
+         */
+        private void checkWire(long pos, long previous, SimulationConnection connection) {
+            long current = pos;
+            int runLength = 1;
+            int count = getNextElectricBlocks(current, previous);
+            while (compressWireRuns && count == 1) {
+                long following = next[0];
+                if (checked.contains(following) || index.getSimulationTileEntity(following) != null) {
+                    break;
                 }
+                checked.add(current);
+                previous = current;
+                current = following;
+                runLength++;
+                count = getNextElectricBlocks(current, previous);
+            }
+            checked.add(current);
 
-                for (BlockPos pos : getSurroundingBlocks(cb.pos)) {
-                    if (isElectricBlock(getBlock(pos)) && cb.previousBlockNotEqualTo(pos)) {
-                        ConnectedBlock ncb = new ConnectedBlock(pos);
-                        ncb.previousBlock = cb;
-                        ncb.currConnection = cb.currConnection;
-                        unchecked.add(ncb);
-                    }
+            connection.incrementLength(runLength);
+            for (int i = 0; i < count; i++) {
+                enqueue(next[i], current, connection);
+            }
+        }
+
+        /**
+         * Finds the electric blocks surrounding a wire that the network continues on to, leaving out the block the wire
+         * was reached from so the network doesn't backtrack. The positions are written to the start of the next array.
+         * @return The number of positions written to the next array
+         */
+        private int getNextElectricBlocks(long pos, long previous) {
+            int count = 0;
+            for (Direction direction : DIRECTIONS) {
+                long surrounding = BlockPos.offset(pos, direction);
+                if (surrounding != previous && isValid(surrounding) && index.isElectricBlock(surrounding)) {
+                    next[count++] = surrounding;
                 }
             }
-            
-            checked.add(cb.pos);
+            return count;
+        }
+
+        private void enqueue(long pos, long previous, SimulationConnection connection) {
+            uncheckedBlocks.enqueue(pos);
+            uncheckedPrevious.enqueue(previous);
+            uncheckedConnections.add(connection);
         }
+
+    }
+
+    /**
+     * Checks that a packed block position is inside of the world. This is the same check as World.isValid without
+     * unpacking the position into a BlockPos.
+     * @param pos The packed block position
+     * @return Whether or not the position is inside of the world
+     */
+    private static boolean isValid(long pos) {
+        int x = BlockPos.unpackX(pos);
+        int y = BlockPos.unpackY(pos);
+        int z = BlockPos.unpackZ(pos);
+        return x >= -30000000 && z >= -30000000 && x < 30000000 && z < 30000000 && y >= 0 && y < 256;
     }
 
 }
@@ -1,9 +1,12 @@
 package edu.uidaho.electricblocks.simulation;
 
-import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import net.minecraft.nbt.CompoundNBT;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
 
 /**
  * A simulation property represents an input for a specific electrical element in the load flow simulation. These are
@@ -107,22 +110,28 @@ public class SimulationProperty {
     }
 
     /**
-     * Reads that value of a json element and stores it in the data field of this property. Used to update data when a
-     * simulation result has been received.
-     * @param jsonElement The JsonElement associated with this property
+     * Reads the next value from a JSON reader as the type of this property without storing it. Used to read data when
+     * a simulation result has been received, the value is stored later using set. A null numeric result is read as
+     * zero.
+     * @param reader The JsonReader positioned at the value associated with this property
+     * @return The value read, or null if the value was null and this is not a numeric property
+     * @throws IOException If the value could not be read or is not of the type of this property
      */
-    public void readJSON(JsonElement jsonElement) {
+    @Nullable
+    public Object readJSONValue(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return propertyType == PropertyType.DOUBLE ? 0.0 : null;
+        }
         switch (propertyType) {
             case STRING:
-                data = jsonElement.getAsString();
-                return;
+                return reader.nextString();
             case BOOL:
-                data = jsonElement.getAsBoolean();
-                return;
+                return reader.nextBoolean();
             case DOUBLE:
-                data = jsonElement.getAsDouble();
-                return;
+                return reader.nextDouble();
         }
+        return null;
     }
 
     /**
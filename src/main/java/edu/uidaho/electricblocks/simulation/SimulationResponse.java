@@ -0,0 +1,116 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A response received from the EBPP simulation server. This holds the status, the error message if there is one and
+ * the output values read for each SimulationTileEntity, which are waiting to be applied on the server thread.
+ */
+public class SimulationResponse {
+
+    public static final String SIM_RESULT = "SIM_RESULT";
+    public static final String CONV_ERROR = "CONV_ERROR";
+
+    private final String status;
+    private final String message;
+    private final Object[][] results;
+    private final int version;
+    private final int iterations;
+    private final Map<String, double[]> busVoltages;
+
+    /**
+     * @param status The status of the response or null if the response didn't have one
+     * @param message The error message sent along with the status, if any
+     * @param results The output values read for each SimulationTileEntity in the network, in the same order as the
+     *                network's simulation list. Entries are null for elements that weren't in the response.
+     */
+    public SimulationResponse(@Nullable String status, @Nullable String message, Object[][] results) {
+        this(status, message, results, -1);
+    }
+
+    /**
+     * @param status The status of the response or null if the response didn't have one
+     * @param message The error message sent along with the status, if any
+     * @param results The output values read for each SimulationTileEntity in the network, in the same order as the
+     *                network's simulation list. Entries are null for elements that weren't in the response.
+     * @param version The session version EBPP acknowledged, -1 if the response didn't acknowledge one
+     */
+    public SimulationResponse(@Nullable String status, @Nullable String message, Object[][] results, int version) {
+        this(status, message, results, version, -1, Collections.emptyMap());
+    }
+
+    /**
+     * @param status The status of the response or null if the response didn't have one
+     * @param message The error message sent along with the status, if any
+     * @param results The output values read for each SimulationTileEntity in the network, in the same order as the
+     *                network's simulation list. Entries are null for elements that weren't in the response.
+     * @param version The session version EBPP acknowledged, -1 if the response didn't acknowledge one
+     * @param iterations The number of iterations the solver needed, -1 if the response didn't say
+     * @param busVoltages The magnitude in per unit and angle in degrees of each bus in the response, keyed by bus ID
+     */
+    public SimulationResponse(@Nullable String status, @Nullable String message, Object[][] results, int version,
+                              int iterations, Map<String, double[]> busVoltages) {
+        this.status = status;
+        this.message = message;
+        this.results = results;
+        this.version = version;
+        this.iterations = iterations;
+        this.busVoltages = busVoltages;
+    }
+
+    /**
+     * @return The status of the response or null if the response didn't have one
+     */
+    @Nullable
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The error message sent along with the status. Empty if the response didn't have one
+     */
+    public String getMessage() {
+        return message == null ? "" : message;
+    }
+
+    /**
+     * @return The output values read for each SimulationTileEntity in the network, in the same order as the network's
+     * simulation list. Entries are null for elements that weren't in the response.
+     */
+    public Object[][] getResults() {
+        return results;
+    }
+
+    /**
+     * @return The session version EBPP acknowledged, -1 if the response didn't acknowledge one
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The number of iterations the solver needed, -1 if the response didn't say
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return The magnitude in per unit and angle in degrees of each bus in the response, keyed by bus ID. Used as the
+     * starting point of the next simulation of the same network.
+     */
+    public Map<String, double[]> getBusVoltages() {
+        return busVoltages;
+    }
+
+    /**
+     * @return Whether or not the simulation was successful
+     */
+    public boolean isSuccess() {
+        return SIM_RESULT.equals(status);
+    }
+
+}
@@ -0,0 +1,109 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import edu.uidaho.electricblocks.ElectricBlocksConfig;
+
+import javax.annotation.Nullable;
+
+/**
+ * Singleton class that hands simulation results from the simulation threads back to the server thread. Simulation
+ * threads queue up the results for each SimulationTileEntity and the server thread applies them at the end of every
+ * tick until the configured time budget for that tick runs out. Anything left over is applied on the following ticks,
+ * so even very large networks never cause a tick spike and the world is never touched from another thread.
+ *
+ * If a newer result for a tile entity is queued before an older one has been applied, the older one is skipped since
+ * it would be overwritten straight away anyway.
+ */
+public class SimulationResultApplier {
+
+    private static final SimulationResultApplier instance = new SimulationResultApplier();
+
+    private final Queue<PendingResult> pending = new ConcurrentLinkedQueue<>();
+    private final Map<SimulationTileEntity, PendingResult> latest = new ConcurrentHashMap<>();
+
+    private SimulationResultApplier() {
+        SimulationMetrics.registerGauge("apply.pending", pending::size);
+    }
+
+    /**
+     * Get the instance of the SimulationResultApplier singleton
+     * @return The singleton instance
+     */
+    public static SimulationResultApplier instance() {
+        return instance;
+    }
+
+    /**
+     * Queues the results of a simulation for a single tile entity to be applied on the server thread
+     * @param ste The tile entity the results belong to
+     * @param values The output values read from the simulation results, or null to zero the outputs
+     */
+    public void submit(SimulationTileEntity ste, @Nullable Object[] values) {
+        PendingResult result = new PendingResult(ste, values);
+        latest.put(ste, result);
+        pending.add(result);
+    }
+
+    /**
+     * Applies queued results until either the queue is empty or the time budget for this tick is used up. At least one
+     * result is always applied so that the queue keeps moving even with a tiny budget. Must only be called from the
+     * server thread.
+     */
+    public void applyPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime() + (long) (ElectricBlocksConfig.getResultApplyBudgetMs() * 1_000_000L);
+        int applied = 0;
+        PendingResult result;
+        while ((result = pending.poll()) != null) {
+            if (latest.remove(result.ste, result)) { // Skip results that already have a newer result queued
+                result.apply();
+                applied++;
+            } else {
+                SimulationMetrics.increment("apply.superseded");
+            }
+            if (System.nanoTime() >= deadline) {
+                if (!pending.isEmpty()) {
+                    SimulationMetrics.increment("apply.deferred_ticks");
+                }
+                break;
+            }
+        }
+        SimulationMetrics.add("apply.applied", applied);
+    }
+
+    /**
+     * Results for a single tile entity that are waiting to be applied
+     */
+    private static class PendingResult {
+
+        private final SimulationTileEntity ste;
+        private final Object[] values;
+
+        private PendingResult(SimulationTileEntity ste, @Nullable Object[] values) {
+            this.ste = ste;
+            this.values = values;
+        }
+
+        /**
+         * Applies the results to the tile entity unless it has been removed from the world in the meantime
+         */
+        private void apply() {
+            if (ste.isRemoved() || ste.getWorld() == null) {
+                return;
+            }
+            if (values == null) {
+                ste.zeroSim();
+            } else {
+                ste.applySimulationResults(values);
+            }
+        }
+
+    }
+
+}
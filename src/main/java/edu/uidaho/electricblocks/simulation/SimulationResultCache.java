@@ -0,0 +1,92 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.uidaho.electricblocks.ElectricBlocksConfig;
+
+import javax.annotation.Nullable;
+
+/**
+ * Singleton cache of recent successful simulation results. Results are keyed by the fingerprint of the network that
+ * was simulated, which covers the layout of the network and every input of every element. When a network is put back
+ * into a state that was simulated recently, such as a lamp being turned off and back on, the cached results are used
+ * instead of sending the same request to EBPP again. The least recently used results are evicted once the cache holds
+ * more than the configured number of results.
+ */
+public class SimulationResultCache {
+
+    public static final String HITS = "cache.hits";
+    public static final String MISSES = "cache.misses";
+    public static final String EVICTIONS = "cache.evictions";
+
+    private static SimulationResultCache instance = null;
+
+    private final Map<String, SimulationResponse> results = new LinkedHashMap<String, SimulationResponse>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SimulationResponse> eldest) {
+            if (size() > ElectricBlocksConfig.getResultCacheSize()) {
+                SimulationMetrics.increment(EVICTIONS);
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private SimulationResultCache() {
+        SimulationMetrics.registerGauge("cache.size", this::size);
+    }
+
+    /**
+     * Get the instance of the SimulationResultCache singleton. Will instantiate if the singleton has not been created
+     * yet.
+     * @return The singleton instance
+     */
+    public static synchronized SimulationResultCache instance() {
+        if (instance == null) {
+            instance = new SimulationResultCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Checks whether or not results are being cached. Caching is turned off by setting the cache size to zero.
+     * @return Whether or not results are being cached
+     */
+    public boolean isEnabled() {
+        return ElectricBlocksConfig.getResultCacheSize() > 0;
+    }
+
+    /**
+     * Looks up the results of a network that was simulated recently.
+     * @param fingerprint The fingerprint of the network
+     * @return The cached response or null if the network hasn't been simulated in this state recently
+     */
+    @Nullable
+    public synchronized SimulationResponse get(String fingerprint) {
+        SimulationResponse response = results.get(fingerprint);
+        SimulationMetrics.increment(response == null ? MISSES : HITS);
+        return response;
+    }
+
+    /**
+     * Caches the response of a successful simulation. Responses that aren't successful are not cached so that the
+     * network is sent to EBPP again the next time it is simulated. The results are kept in the order of the network's
+     * tile entities, which is the same for every network with the same fingerprint. The bus voltages are dropped since
+     * they are keyed by bus IDs that only belong to the network that was simulated.
+     * @param fingerprint The fingerprint of the network that was simulated
+     * @param response The response received from EBPP
+     */
+    public synchronized void put(String fingerprint, SimulationResponse response) {
+        if (response.isSuccess()) {
+            results.put(fingerprint, new SimulationResponse(response.getStatus(), response.getMessage(),
+                    response.getResults(), -1, response.getIterations(), Collections.emptyMap()));
+        }
+    }
+
+    private synchronized long size() {
+        return results.size();
+    }
+
+}
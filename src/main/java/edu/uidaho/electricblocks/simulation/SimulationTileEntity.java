@@ -1,8 +1,10 @@
 package edu.uidaho.electricblocks.simulation;
 
+import java.io.IOException;
 import java.util.*;
 
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import edu.uidaho.electricblocks.interfaces.IMultimeter;
 import edu.uidaho.electricblocks.utils.ClientUtils;
@@ -34,6 +36,14 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
     protected final SimulationType simulationType;
     protected Map<String, UUID> embededBusses = new HashMap<>();
 
+    // The output properties indexed by their position in the outputs map, used when reading simulation results
+    private final SimulationProperty[] outputSlots;
+    private final Map<String, Integer> outputSlotIndex = new HashMap<>();
+
+    private volatile int inputRevision = 0; // Counts the changes made to the inputs, see NetworkSession
+    @Nullable
+    private volatile NetworkSession session = null; // The session this tile entity holds for its network, if any
+
     /**
      * Common constructor for all simulation tile entities which copies the default input and outputs to this tile
      * entity and initializes embedded buses
@@ -49,6 +59,11 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
         for (Map.Entry<String, SimulationProperty> entry : getDefaultOutputs().entrySet()) {
             outputs.put(entry.getKey(), entry.getValue().clone());
         }
+        outputSlots = new SimulationProperty[outputs.size()];
+        for (Map.Entry<String, SimulationProperty> entry : outputs.entrySet()) {
+            outputSlotIndex.put(entry.getKey(), outputSlotIndex.size());
+            outputSlots[outputSlotIndex.size() - 1] = entry.getValue();
+        }
         initEmbeddedBusses();
     }
 
@@ -82,29 +97,33 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
         for (Map.Entry<String, SimulationProperty> entry : inputs.entrySet()) {
             entry.getValue().readNBT("in_" + entry.getKey(), compound);
         }
+        markInputsChanged();
         for (Map.Entry<String, SimulationProperty> entry : outputs.entrySet()) {
             entry.getValue().readNBT("out_" + entry.getKey(), compound);
         }
     }
 
     /**
-     * Fills JSON representation of this STE by iterating over inputs and adding properties to JSON
-     * @param jsonObject The JsonObject to be filled
+     * Writes the JSON representation of this STE's inputs by iterating over inputs and writing each property straight
+     * to the JSON writer. Must be called while the writer is inside of this element's object.
+     * @param writer The JsonWriter the inputs are written to
+     * @throws IOException If the writer could not be written to
      */
-    public void fillJSON(JsonObject jsonObject) {
+    protected void writeInputs(JsonWriter writer) throws IOException {
         for (Map.Entry<String, SimulationProperty> entry : inputs.entrySet()) {
             if (!entry.getValue().shouldSendJSON()) {
                 continue;
             }
+            writer.name(entry.getKey());
             switch (entry.getValue().getPropertyType()) {
                 case DOUBLE:
-                    jsonObject.addProperty(entry.getKey(), entry.getValue().getDouble());
+                    writer.value(entry.getValue().getDouble());
                     break;
                 case STRING:
-                    jsonObject.addProperty(entry.getKey(), entry.getValue().getString());
+                    writer.value(entry.getValue().getString());
                     break;
                 case BOOL:
-                    jsonObject.addProperty(entry.getKey(), entry.getValue().getBoolean());
+                    writer.value(entry.getValue().getBoolean());
                     break;
             }
         }
@@ -112,12 +131,48 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
 
     /**
      * This function is called whenever a simulation involving this simulation tile entity is finished and the results
-     * are received.
-     * @param jsonObject The results of the simulation for this specific tile entity
+     * are received. The results are read straight from the response into an array with one slot for each output of
+     * this tile entity, anything that isn't an output of this tile entity is skipped. This is called from a simulation
+     * thread so nothing is changed here, the values are applied later on the server thread by applySimulationResults.
+     * @param reader The JsonReader positioned at the start of the results for this specific tile entity
+     * @return The output values in the same order as the outputs map. Outputs missing from the results are null
+     * @throws IOException If the results could not be read
      */
-    public void receiveSimulationResults(JsonObject jsonObject) {
-        for (Map.Entry<String, SimulationProperty> entry : outputs.entrySet()) {
-            entry.getValue().readJSON(jsonObject.get(entry.getKey()));
+    public Object[] readSimulationResults(JsonReader reader) throws IOException {
+        Object[] values = new Object[outputSlots.length];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            Integer slot = outputSlotIndex.get(reader.nextName());
+            if (slot != null) {
+                values[slot] = outputSlots[slot].readJSONValue(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return values;
+    }
+
+    /**
+     * Gets the position of an output in the values read by readSimulationResults
+     * @param name The name of the output
+     * @return The position of the output or -1 if this tile entity doesn't have an output with that name
+     */
+    public int getOutputSlot(String name) {
+        Integer slot = outputSlotIndex.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Applies the output values read by readSimulationResults to this tile entity and sends the update to clients.
+     * Must only be called from the server thread.
+     * @param values The output values in the same order as the outputs map. Null values are left unchanged
+     */
+    public void applySimulationResults(Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                outputSlots[i].set(values[i]);
+            }
         }
         notifyUpdate();
     }
@@ -147,13 +202,47 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
      */
     public void disable() {
         inputs.get("in_service").set(false);
+        markInputsChanged();
+    }
+
+    /**
+     * Must be called whenever the inputs of this tile entity or the IDs it is written with change, so that the change
+     * is sent to EBPP in the next delta of its network's session.
+     */
+    protected void markInputsChanged() {
+        inputRevision++;
+    }
+
+    /**
+     * @return The number of times the inputs of this tile entity have changed, see markInputsChanged
+     */
+    public int getInputRevision() {
+        return inputRevision;
     }
 
     /**
-     * Called by SimulationNetwork to get the JSON representation of this tile entity.
-     * @return The JSON representation of this object
+     * @return The session this tile entity holds for the network it is part of, or null if it doesn't hold one
      */
-    public abstract JsonObject toJson();
+    @Nullable
+    NetworkSession getSession() {
+        return session;
+    }
+
+    /**
+     * @param session The session this tile entity holds for the network it is part of, or null to drop it
+     */
+    void setSession(@Nullable NetworkSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Called by SimulationNetwork to write the JSON representation of this tile entity straight into the request being
+     * sent to EBPP. The writer is positioned inside of the request's elements object, so each element (including any
+     * embedded buses) is written as a name followed by the element's object.
+     * @param writer The JsonWriter that the request is being written to
+     * @throws IOException If the writer could not be written to
+     */
+    public abstract void writeJson(JsonWriter writer) throws IOException;
 
     /**
      * Initializes the embedded buses. For most blocks this just involves mapping "main" to a new randomly generated
@@ -209,6 +298,40 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
         return embededBusses;
     }
 
+    /**
+     * Called when this tile entity is added to a loaded world. Server side tile entities are added to the
+     * ElectricBlockIndex so networks can find them without reading the world.
+     */
+    @Override
+    public void onLoad() {
+        super.onLoad();
+        if (world != null && !world.isRemote()) {
+            ElectricBlockIndex.forWorld(world).addTileEntity(this);
+        }
+    }
+
+    /**
+     * Called when this tile entity is removed from the world because its block was broken or replaced.
+     */
+    @Override
+    public void remove() {
+        super.remove();
+        if (world != null && !world.isRemote()) {
+            ElectricBlockIndex.forWorld(world).removeTileEntity(this);
+        }
+    }
+
+    /**
+     * Called when the chunk this tile entity is in is unloaded.
+     */
+    @Override
+    public void onChunkUnloaded() {
+        super.onChunkUnloaded();
+        if (world != null && !world.isRemote()) {
+            ElectricBlockIndex.forWorld(world).removeTileEntity(this);
+        }
+    }
+
     /**
      * Called whenever an update needs to be sent between the server and the player. This constructs the packet using
      * information written in the write function for this class.
@@ -273,23 +396,17 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
     }
 
     /**
-     * Generates the default JSON representing a single bus with the default voltage of 20.0 kilovolts
-     * @return The JSON representation of the bus
-     */
-    public JsonObject getBusJson() {
-        return getBusJson(20.0);
-    }
-
-    /**
-     * Generates the default JSON representing a single bus with a specific voltage
+     * Writes the JSON representing a single embedded bus with a specific voltage
+     * @param writer The JsonWriter the bus is written to
+     * @param busId The UUID of the embedded bus
      * @param ratedVoltageKV The voltage of the bus in kilovolts
-     * @return The JSON representation of the bus
+     * @throws IOException If the writer could not be written to
      */
-    public JsonObject getBusJson(double ratedVoltageKV) {
-        JsonObject bus = new JsonObject();
-        bus.addProperty("etype", SimulationType.BUS.toString());
-        bus.addProperty("vn_kv", ratedVoltageKV);
-        return bus;
+    protected void writeBus(JsonWriter writer, UUID busId, double ratedVoltageKV) throws IOException {
+        writer.name(busId.toString()).beginObject();
+        writer.name("etype").value(SimulationType.BUS.toString());
+        writer.name("vn_kv").value(ratedVoltageKV);
+        writer.endObject();
     }
 
     /**
@@ -306,6 +423,7 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
      */
     public void setInService(boolean inService) {
         inputs.get("in_service").set(inService);
+        markInputsChanged();
     }
 
     /**
@@ -342,6 +460,7 @@ public abstract class SimulationTileEntity extends TileEntity implements IMultim
                 entry.getValue().set(d[i++]);
             }
         }
+        markInputsChanged();
     }
 
     /**
@@ -0,0 +1,15 @@
+package edu.uidaho.electricblocks.simulation;
+
+/**
+ * The backends that can be used to solve the power flow of a simulation network.
+ */
+public enum SolverBackend {
+    /**
+     * Networks are sent to the external EBPP simulation server, which solves them with pandapower
+     */
+    EBPP,
+    /**
+     * Networks are solved in process by EmbeddedPowerFlow without any network traffic
+     */
+    EMBEDDED
+}
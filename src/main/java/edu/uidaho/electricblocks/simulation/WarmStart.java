@@ -0,0 +1,90 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Remembers the bus voltages from the last successful simulation of a network so the next simulation can start from
+ * them instead of from a flat voltage profile. When only a few inputs have changed, such as the power of a single
+ * lamp, the previous solution is already close to the new one and the power flow converges in fewer iterations. Each
+ * NetworkTopology has one warm start, so it is shared by every network built from the same group of blocks and is
+ * forgotten when the blocks are changed.
+ *
+ * The voltages are sent in the init object of the request, keyed by bus ID, with the magnitude in per unit and the
+ * angle in degrees. Solvers that don't support an initial guess ignore it. Only full uploads carry the init object, as
+ * EBPP starts a SIM_DELTA from the solution it already has for the session.
+ */
+public class WarmStart {
+
+    public static final String WARM_SOLVES = "warmstart.warm.solves";
+    public static final String WARM_ITERATIONS = "warmstart.warm.iterations";
+    public static final String WARM_NANOS = "warmstart.warm.nanos";
+    public static final String COLD_SOLVES = "warmstart.cold.solves";
+    public static final String COLD_ITERATIONS = "warmstart.cold.iterations";
+    public static final String COLD_NANOS = "warmstart.cold.nanos";
+
+    private volatile Map<String, double[]> voltages = Collections.emptyMap();
+
+    /**
+     * @return Whether or not there are voltages to start from
+     */
+    public boolean isAvailable() {
+        return !voltages.isEmpty();
+    }
+
+    /**
+     * Replaces the remembered voltages with the ones from a successful simulation
+     * @param busVoltages The magnitude in per unit and angle in degrees of each bus, keyed by bus ID
+     */
+    public void update(Map<String, double[]> busVoltages) {
+        voltages = Collections.unmodifiableMap(busVoltages);
+    }
+
+    /**
+     * Forgets the remembered voltages. Used when a simulation fails, since starting from a guess that didn't converge
+     * won't help the next one.
+     */
+    public void clear() {
+        voltages = Collections.emptyMap();
+    }
+
+    /**
+     * Writes the init object of a request if there are voltages to start from. Must be called while the writer is
+     * inside of the request object.
+     * @param writer The JsonWriter the request is written to
+     * @throws IOException If the writer could not be written to
+     */
+    public void writeJson(JsonWriter writer) throws IOException {
+        Map<String, double[]> current = voltages;
+        if (current.isEmpty()) {
+            return;
+        }
+        writer.name("init").beginObject();
+        for (Map.Entry<String, double[]> entry : current.entrySet()) {
+            writer.name(entry.getKey()).beginObject();
+            writer.name("vm_pu").value(entry.getValue()[0]);
+            writer.name("va_degree").value(entry.getValue()[1]);
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Records the iterations and time taken by a simulation, split by whether it was started from a warm start, so the
+     * two can be compared.
+     * @param warm Whether the simulation was started from a warm start
+     * @param iterations The number of iterations the solver reported, or -1 if it didn't report any
+     * @param nanos The time taken by the simulation in nanoseconds
+     */
+    public static void record(boolean warm, int iterations, long nanos) {
+        SimulationMetrics.increment(warm ? WARM_SOLVES : COLD_SOLVES);
+        SimulationMetrics.add(warm ? WARM_NANOS : COLD_NANOS, nanos);
+        if (iterations >= 0) {
+            SimulationMetrics.add(warm ? WARM_ITERATIONS : COLD_ITERATIONS, iterations);
+        }
+    }
+
+}
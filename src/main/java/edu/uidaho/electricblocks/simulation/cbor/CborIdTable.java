@@ -0,0 +1,68 @@
+package edu.uidaho.electricblocks.simulation.cbor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Table of the simulation IDs used in CBOR requests. Every UUID written to a request is replaced by a small integer,
+ * numbered in the order the UUIDs are first written, and tagged as an ID so it can't be mistaken for a number. EBPP
+ * treats the integers as opaque IDs and uses them in its response, where they are turned back into the UUIDs they
+ * stand for.
+ *
+ * A plain request has a table of its own. The requests of a NetworkSession share one table for as long as the session
+ * lasts, since EBPP keeps the elements of the session under their integers and a delta has to number them the same
+ * way. Tables are shared between the thread encoding a request and the thread decoding the response to the previous
+ * one, so they are synchronized.
+ */
+public class CborIdTable {
+
+    // The CBOR tag for an identifier, which is put in front of every integer that stands for an ID
+    public static final int ID_TAG = 39;
+
+    private final Object2IntOpenHashMap<String> indices = new Object2IntOpenHashMap<>();
+    private final List<String> ids = new ArrayList<>();
+
+    public CborIdTable() {
+        indices.defaultReturnValue(-1);
+    }
+
+    /**
+     * Checks whether a string is a UUID in its standard 36 character form. Only these strings are replaced.
+     * @param value The string to check
+     * @return Whether or not the string is a UUID
+     */
+    public static boolean isId(String value) {
+        return value.length() == 36 && value.charAt(8) == '-' && value.charAt(13) == '-'
+                && value.charAt(18) == '-' && value.charAt(23) == '-';
+    }
+
+    /**
+     * Gets the integer that stands for an ID, assigning the next integer if the ID hasn't been seen yet.
+     * @param id The ID to replace
+     * @return The integer that stands for the ID
+     */
+    public synchronized int indexOf(String id) {
+        int index = indices.getInt(id);
+        if (index < 0) {
+            index = ids.size();
+            indices.put(id, index);
+            ids.add(id);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the ID that an integer stands for.
+     * @param index The integer received from EBPP
+     * @return The ID or null if the integer wasn't assigned in this table
+     */
+    @Nullable
+    public synchronized String idOf(long index) {
+        return index >= 0 && index < ids.size() ? ids.get((int) index) : null;
+    }
+
+}
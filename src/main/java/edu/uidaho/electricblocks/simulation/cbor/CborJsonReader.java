@@ -0,0 +1,471 @@
+package edu.uidaho.electricblocks.simulation.cbor;
+
+import java.io.CharArrayReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * JsonReader that reads CBOR (RFC 7049) instead of JSON text, so a CBOR response from EBPP can be read by the same code
+ * that reads JSON responses. Integers tagged as IDs are turned back into the UUIDs they stand for using the CborIdTable
+ * of the request and read as strings, whether they are map keys or values such as the bus of a load. Untagged integers
+ * are always numbers. Both definite and indefinite length maps and arrays are supported. Byte strings and other tags
+ * are not used by EBPP and are rejected.
+ */
+public class CborJsonReader extends JsonReader {
+
+    private static final int BREAK = 0xFF;
+
+    /**
+     * A map or array that is being read
+     */
+    private static class Container {
+        final boolean map;
+        long remaining; // Number of entries left to read, -1 if the container ends with a break
+        boolean expectingKey;
+
+        Container(boolean map, long remaining) {
+            this.map = map;
+            this.remaining = remaining;
+            this.expectingKey = map;
+        }
+    }
+
+    private final InputStream in;
+    private CborIdTable ids;
+    private final Deque<Container> stack = new ArrayDeque<>();
+    private int header = -1; // The initial byte of the next data item once it has been peeked
+    private boolean id = false; // Whether the peeked data item is an integer that was tagged as an ID
+
+    /**
+     * @param in The stream the CBOR is read from
+     * @param ids The table of the request this is the response to
+     */
+    public CborJsonReader(InputStream in, CborIdTable ids) {
+        super(new CharArrayReader(new char[0])); // Never read from, every method that reads is overridden
+        this.in = in;
+        this.ids = ids;
+    }
+
+    /**
+     * Replaces the table integers are looked up in, so that each network in a batch is read with its own session
+     * @param ids The table to look up integers in from now on
+     * @return The table that was being used
+     */
+    public CborIdTable setIds(CborIdTable ids) {
+        CborIdTable previous = this.ids;
+        this.ids = ids;
+        return previous;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        Container top = stack.peek();
+        if (top != null && top.remaining == 0) {
+            return top.map ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        }
+        if (header == -1) {
+            header = in.read();
+            if (header == -1) {
+                if (top != null) {
+                    throw new EOFException("CBOR response ended inside of a container");
+                }
+                return JsonToken.END_DOCUMENT;
+            }
+        }
+        if (header == BREAK) {
+            if (top == null || top.remaining != -1) {
+                throw new JsonSyntaxException("Unexpected CBOR break");
+            }
+            return top.map ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        }
+        if (header >>> 5 == 6) {
+            readIdTag();
+        }
+        if (top != null && top.expectingKey) {
+            return JsonToken.NAME;
+        }
+        switch (header >>> 5) {
+            case 0:
+            case 1:
+                return id ? JsonToken.STRING : JsonToken.NUMBER;
+            case 3:
+                return JsonToken.STRING;
+            case 4:
+                return JsonToken.BEGIN_ARRAY;
+            case 5:
+                return JsonToken.BEGIN_OBJECT;
+            case 7:
+                int info = header & 0x1F;
+                if (info == 20 || info == 21) {
+                    return JsonToken.BOOLEAN;
+                } else if (info == 22 || info == 23) {
+                    return JsonToken.NULL;
+                } else if (info >= 25 && info <= 27) {
+                    return JsonToken.NUMBER;
+                }
+                throw new JsonSyntaxException("Unsupported CBOR data item 0x" + Integer.toHexString(header));
+            default:
+                throw new JsonSyntaxException("Unsupported CBOR data item 0x" + Integer.toHexString(header));
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        stack.push(new Container(true, readLength()));
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        endContainer();
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        stack.push(new Container(false, readLength()));
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        endContainer();
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        String name = readKeyOrString();
+        stack.peek().expectingKey = false;
+        return name;
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        JsonToken token = peek();
+        String value;
+        if (token == JsonToken.STRING) {
+            value = readKeyOrString();
+        } else if (token == JsonToken.NUMBER) {
+            value = Double.toString(readNumber());
+        } else {
+            throw new IllegalStateException("Expected a string but was " + token);
+        }
+        endValue();
+        return value;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        boolean value = (header & 0x1F) == 21;
+        header = -1;
+        endValue();
+        return value;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        header = -1;
+        endValue();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        JsonToken token = peek();
+        double value;
+        if (token == JsonToken.NUMBER) {
+            value = readNumber();
+        } else if (token == JsonToken.STRING) {
+            value = Double.parseDouble(readKeyOrString());
+        } else {
+            throw new IllegalStateException("Expected a double but was " + token);
+        }
+        endValue();
+        return value;
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        return (long) nextDouble();
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        return (int) nextDouble();
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        JsonToken token = peek();
+        switch (token) {
+            case NAME:
+                skipKeyOrString();
+                stack.peek().expectingKey = false;
+                break;
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case STRING:
+                skipKeyOrString();
+                endValue();
+                break;
+            case NUMBER:
+                skipNumber();
+                endValue();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            default:
+                throw new IllegalStateException("Expected a value but was " + token);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken token = peek();
+        if (token != expected) {
+            throw new IllegalStateException("Expected " + expected + " but was " + token);
+        }
+    }
+
+    /**
+     * Finishes reading a map or array and counts it as a value of the container it is in.
+     */
+    private void endContainer() {
+        Container container = stack.pop();
+        if (container.remaining == -1) {
+            header = -1; // Consume the break
+        }
+        endValue();
+    }
+
+    /**
+     * Counts a value that has been read against the container it is in.
+     */
+    private void endValue() {
+        Container top = stack.peek();
+        if (top == null) {
+            return;
+        }
+        if (top.remaining > 0) {
+            top.remaining--;
+        }
+        top.expectingKey = top.map;
+    }
+
+    /**
+     * Reads the length of a map or array from its header. Maps count key and value pairs.
+     * @return The length or -1 if the container is indefinite length
+     */
+    private long readLength() throws IOException {
+        if ((header & 0x1F) == 31) {
+            header = -1;
+            return -1;
+        }
+        return readArgument();
+    }
+
+    /**
+     * Reads the tag in front of an integer standing for an ID and peeks the integer.
+     */
+    private void readIdTag() throws IOException {
+        long tag = readArgument();
+        if (tag != CborIdTable.ID_TAG) {
+            throw new JsonSyntaxException("Unsupported CBOR tag " + tag);
+        }
+        header = in.read();
+        if (header == -1) {
+            throw new EOFException("CBOR response ended after a tag");
+        }
+        if (header >>> 5 != 0) {
+            throw new JsonSyntaxException("Expected an ID after the CBOR tag but was 0x" + Integer.toHexString(header));
+        }
+        id = true;
+    }
+
+    /**
+     * Reads a text string, an integer standing for an ID or an integer used as a map key. IDs that aren't in the ID
+     * table are returned as the integer.
+     */
+    private String readKeyOrString() throws IOException {
+        int majorType = header >>> 5;
+        if (majorType == 3) {
+            long length = readArgument();
+            byte[] bytes = new byte[(int) length];
+            readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } else if (majorType == 0 && id) {
+            id = false;
+            long index = readArgument();
+            String value = ids.idOf(index);
+            return value == null ? Long.toString(index) : value;
+        } else if (majorType == 0) {
+            return Long.toString(readArgument());
+        } else if (majorType == 1) {
+            return Long.toString(-1 - readArgument());
+        }
+        throw new JsonSyntaxException("Expected a CBOR string or integer but was 0x" + Integer.toHexString(header));
+    }
+
+    /**
+     * Skips what readKeyOrString would read without decoding the text or looking up the ID, since most of a response
+     * is results of buses and lines that are skipped.
+     */
+    private void skipKeyOrString() throws IOException {
+        int majorType = header >>> 5;
+        if (majorType == 3) {
+            skipFully(readArgument());
+        } else if (majorType == 0 || majorType == 1) {
+            id = false;
+            readArgument();
+        } else {
+            throw new JsonSyntaxException("Expected a CBOR string or integer but was 0x" + Integer.toHexString(header));
+        }
+    }
+
+    /**
+     * Skips what readNumber would read.
+     */
+    private void skipNumber() throws IOException {
+        int majorType = header >>> 5;
+        if (majorType == 0 || majorType == 1) {
+            readArgument();
+            return;
+        }
+        int info = header & 0x1F;
+        header = -1;
+        skipFully(info == 25 ? 2 : info == 26 ? 4 : 8);
+    }
+
+    /**
+     * Reads an integer or floating point number.
+     */
+    private double readNumber() throws IOException {
+        int majorType = header >>> 5;
+        if (majorType == 0) {
+            return readArgument();
+        } else if (majorType == 1) {
+            return -1 - readArgument();
+        }
+        int info = header & 0x1F;
+        header = -1;
+        if (info == 25) {
+            return halfToDouble((int) readBytes(2));
+        } else if (info == 26) {
+            return Float.intBitsToFloat((int) readBytes(4));
+        }
+        return Double.longBitsToDouble(readBytes(8));
+    }
+
+    /**
+     * Reads the argument of the current header, which is the value of an integer or the length of a string or
+     * container, and consumes the header.
+     */
+    private long readArgument() throws IOException {
+        int info = header & 0x1F;
+        header = -1;
+        if (info < 24) {
+            return info;
+        } else if (info == 24) {
+            return readBytes(1);
+        } else if (info == 25) {
+            return readBytes(2);
+        } else if (info == 26) {
+            return readBytes(4);
+        } else if (info == 27) {
+            return readBytes(8);
+        }
+        throw new JsonSyntaxException("Unsupported CBOR argument " + info);
+    }
+
+    private long readBytes(int count) throws IOException {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("CBOR response ended early");
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int read = in.read(bytes, offset, bytes.length - offset);
+            if (read == -1) {
+                throw new EOFException("CBOR response ended early");
+            }
+            offset += read;
+        }
+    }
+
+    private void skipFully(long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("CBOR response ended early");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Converts an IEEE 754 half precision float to a double.
+     */
+    private static double halfToDouble(int half) {
+        int exponent = (half >> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        double value;
+        if (exponent == 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        } else {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+}
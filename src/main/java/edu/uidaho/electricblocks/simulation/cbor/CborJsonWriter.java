@@ -0,0 +1,197 @@
+package edu.uidaho.electricblocks.simulation.cbor;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * JsonWriter that writes CBOR (RFC 7049) instead of JSON text. Every element writes itself to a JsonWriter, so
+ * substituting this writer encodes the same request in binary without any changes to the elements. Objects are
+ * written as indefinite length maps so nothing has to be buffered. Doubles that can be represented exactly as a float
+ * are written in four bytes instead of eight, and UUIDs are replaced with the small integers from a CborIdTable. The
+ * session of a request is written as it is, since EBPP has to find the session before it can know what the integers
+ * stand for.
+ */
+public class CborJsonWriter extends JsonWriter {
+
+    private static final int MAP_START = 0xBF;
+    private static final int ARRAY_START = 0x9F;
+    private static final int BREAK = 0xFF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT = 0xFA;
+    private static final int DOUBLE = 0xFB;
+
+    private final OutputStream out;
+    private CborIdTable ids;
+    private boolean sessionValue = false; // Whether the next value is the value of a session
+
+    /**
+     * @param out The stream the CBOR is written to
+     * @param ids The table used to replace UUIDs with integers
+     */
+    public CborJsonWriter(OutputStream out, CborIdTable ids) {
+        super(new CharArrayWriter(0)); // Never written to, every method that writes is overridden
+        this.out = out;
+        this.ids = ids;
+    }
+
+    /**
+     * Replaces the table UUIDs are numbered with, so that each network in a batch is numbered by its own session
+     * @param ids The table to number UUIDs with from now on
+     * @return The table that was being used
+     */
+    public CborIdTable setIds(CborIdTable ids) {
+        CborIdTable previous = this.ids;
+        this.ids = ids;
+        return previous;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        out.write(MAP_START);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        out.write(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        out.write(ARRAY_START);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        out.write(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        value(name);
+        sessionValue = name.equals("session");
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (CborIdTable.isId(value) && !sessionValue) {
+            writeHeader(6, CborIdTable.ID_TAG);
+            writeHeader(0, ids.indexOf(value));
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeHeader(3, bytes.length);
+            out.write(bytes);
+        }
+        sessionValue = false;
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        out.write(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        out.write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        return value == null ? nullValue() : value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        float single = (float) value;
+        if (single == value || Double.isNaN(value)) {
+            out.write(FLOAT);
+            writeBytes(Float.floatToIntBits(single), 4);
+        } else {
+            out.write(DOUBLE);
+            writeBytes(Double.doubleToLongBits(value), 8);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        if (value >= 0) {
+            writeHeader(0, value);
+        } else {
+            writeHeader(1, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+        double d = value.doubleValue();
+        if (d == Math.rint(d) && Math.abs(d) < Long.MAX_VALUE && !value.toString().contains(".")) {
+            return value(value.longValue()); // Integral number parsed from JSON text
+        }
+        return value(d);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Writes the initial bytes of a data item, which hold its major type and either its value or its length.
+     * @param majorType The CBOR major type from 0 to 7
+     * @param value The unsigned value or length
+     */
+    private void writeHeader(int majorType, long value) throws IOException {
+        int type = majorType << 5;
+        if (value < 24) {
+            out.write(type | (int) value);
+        } else if (value < 0x100) {
+            out.write(type | 24);
+            writeBytes(value, 1);
+        } else if (value < 0x10000) {
+            out.write(type | 25);
+            writeBytes(value, 2);
+        } else if (value < 0x100000000L) {
+            out.write(type | 26);
+            writeBytes(value, 4);
+        } else {
+            out.write(type | 27);
+            writeBytes(value, 8);
+        }
+    }
+
+    private void writeBytes(long value, int count) throws IOException {
+        for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+}
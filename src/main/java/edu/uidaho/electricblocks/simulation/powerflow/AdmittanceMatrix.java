@@ -0,0 +1,119 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+import java.util.Arrays;
+
+/**
+ * The bus admittance matrix of a PowerFlowCase stored in compressed sparse row form. Every bus has a diagonal entry,
+ * even if nothing is connected to it, and the other entries are the buses it shares an active branch with. The real
+ * and imaginary parts are kept in separate arrays that share the same structure. Memory is linear in the number of
+ * buses and branches.
+ */
+class AdmittanceMatrix {
+
+    final int n;
+    final int[] rowPtr;
+    final int[] col;
+    final int[] diag;
+    final double[] g;
+    final double[] b;
+
+    /**
+     * Assembles the admittance matrix from the active branches of a case
+     * @param pfCase The case
+     */
+    AdmittanceMatrix(PowerFlowCase pfCase) {
+        n = pfCase.size();
+
+        // Count the entries in each row, including duplicates from parallel branches, and bucket them by row
+        int[] count = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            count[i + 1]++;
+        }
+        for (PowerFlowCase.Branch branch : pfCase.branches) {
+            if (pfCase.isActive(branch)) {
+                count[branch.from + 1] += 2;
+                count[branch.to + 1] += 2;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            count[i + 1] += count[i];
+        }
+        int[] next = Arrays.copyOf(count, n);
+        int[] rawCol = new int[count[n]];
+        double[] rawG = new double[count[n]];
+        double[] rawB = new double[count[n]];
+        for (int i = 0; i < n; i++) {
+            rawCol[next[i]++] = i;
+        }
+        for (PowerFlowCase.Branch branch : pfCase.branches) {
+            if (pfCase.isActive(branch)) {
+                int f = branch.from;
+                int t = branch.to;
+                add(rawCol, rawG, rawB, next[f]++, f, branch.yff);
+                add(rawCol, rawG, rawB, next[f]++, t, branch.yft);
+                add(rawCol, rawG, rawB, next[t]++, f, branch.ytf);
+                add(rawCol, rawG, rawB, next[t]++, t, branch.ytt);
+            }
+        }
+
+        // Sort each row by column and merge the duplicates. Rows only have a few entries so insertion sort is used.
+        int[] rowPtr = new int[n + 1];
+        int[] col = new int[count[n]];
+        double[] g = new double[count[n]];
+        double[] b = new double[count[n]];
+        int nnz = 0;
+        for (int i = 0; i < n; i++) {
+            for (int k = count[i] + 1; k < count[i + 1]; k++) {
+                int c = rawCol[k];
+                double gk = rawG[k];
+                double bk = rawB[k];
+                int m = k - 1;
+                while (m >= count[i] && rawCol[m] > c) {
+                    rawCol[m + 1] = rawCol[m];
+                    rawG[m + 1] = rawG[m];
+                    rawB[m + 1] = rawB[m];
+                    m--;
+                }
+                rawCol[m + 1] = c;
+                rawG[m + 1] = gk;
+                rawB[m + 1] = bk;
+            }
+            rowPtr[i] = nnz;
+            for (int k = count[i]; k < count[i + 1]; k++) {
+                if (nnz > rowPtr[i] && col[nnz - 1] == rawCol[k]) {
+                    g[nnz - 1] += rawG[k];
+                    b[nnz - 1] += rawB[k];
+                } else {
+                    col[nnz] = rawCol[k];
+                    g[nnz] = rawG[k];
+                    b[nnz] = rawB[k];
+                    nnz++;
+                }
+            }
+        }
+        rowPtr[n] = nnz;
+
+        this.rowPtr = rowPtr;
+        this.col = Arrays.copyOf(col, nnz);
+        this.g = Arrays.copyOf(g, nnz);
+        this.b = Arrays.copyOf(b, nnz);
+        this.diag = new int[n];
+        for (int i = 0; i < n; i++) {
+            diag[i] = Arrays.binarySearch(this.col, rowPtr[i], rowPtr[i + 1], i);
+        }
+    }
+
+    private static void add(int[] col, double[] g, double[] b, int index, int column, Complex y) {
+        col[index] = column;
+        g[index] = y.re;
+        b[index] = y.im;
+    }
+
+    /**
+     * @return The number of stored entries
+     */
+    int nonZeros() {
+        return rowPtr[n];
+    }
+
+}
@@ -0,0 +1,67 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+/**
+ * Immutable complex number used while building the admittances of a PowerFlowCase and while calculating the results
+ * of a solved case. The Newton-Raphson iterations work on the real and imaginary parts directly so no complex numbers
+ * are created while solving.
+ */
+final class Complex {
+
+    static final Complex ZERO = new Complex(0, 0);
+
+    final double re;
+    final double im;
+
+    Complex(double re, double im) {
+        this.re = re;
+        this.im = im;
+    }
+
+    /**
+     * Creates a complex number from its magnitude and angle
+     * @param magnitude The magnitude of the complex number
+     * @param radians The angle of the complex number in radians
+     * @return The complex number
+     */
+    static Complex polar(double magnitude, double radians) {
+        return new Complex(magnitude * Math.cos(radians), magnitude * Math.sin(radians));
+    }
+
+    Complex plus(Complex other) {
+        return new Complex(re + other.re, im + other.im);
+    }
+
+    Complex minus(Complex other) {
+        return new Complex(re - other.re, im - other.im);
+    }
+
+    Complex times(Complex other) {
+        return new Complex(re * other.re - im * other.im, re * other.im + im * other.re);
+    }
+
+    Complex times(double scale) {
+        return new Complex(re * scale, im * scale);
+    }
+
+    Complex divide(Complex other) {
+        double denom = other.re * other.re + other.im * other.im;
+        return new Complex((re * other.re + im * other.im) / denom, (im * other.re - re * other.im) / denom);
+    }
+
+    Complex reciprocal() {
+        return new Complex(1, 0).divide(this);
+    }
+
+    Complex conj() {
+        return new Complex(re, -im);
+    }
+
+    Complex negate() {
+        return new Complex(-re, -im);
+    }
+
+    double abs() {
+        return Math.hypot(re, im);
+    }
+
+}
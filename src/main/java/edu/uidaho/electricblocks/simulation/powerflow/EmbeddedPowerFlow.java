@@ -0,0 +1,214 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+import java.util.List;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import edu.uidaho.electricblocks.simulation.SimulationMetrics;
+import edu.uidaho.electricblocks.simulation.SimulationResponse;
+import edu.uidaho.electricblocks.simulation.SimulationType;
+
+/**
+ * In-process replacement for the EBPP simulation server. A simulation request is turned into a PowerFlowCase, solved
+ * with Newton-Raphson and answered with a response in the same format EBPP uses, so the rest of the simulation code
+ * doesn't need to know which backend solved the network. The init object of a request is used as the starting point
+ * of the solution when it is present. Element results use the same keys as pandapower's result
+ * tables. Elements that are out of service have results of zero and elements that aren't supplied by an external grid
+ * have null results, which is what EBPP sends for pandapower's NaN results.
+ */
+public final class EmbeddedPowerFlow {
+
+    private EmbeddedPowerFlow() {} // Class cannot be instantiated
+
+    public static final String SOLVER_ERROR = "SOLVER_ERROR";
+
+    public static final String SOLVES = "embedded.solves";
+    public static final String FAILURES = "embedded.failures";
+    public static final String NANOS = "embedded.nanos";
+    public static final String ITERATIONS = "embedded.iterations";
+
+    private static final double SQRT_3 = Math.sqrt(3);
+
+    /**
+     * Solves a SIM_REQUEST
+     * @param request The request as it would have been sent to EBPP
+     * @return The response EBPP would have sent
+     */
+    public static JsonObject solve(JsonObject request) {
+        long start = System.nanoTime();
+        SimulationMetrics.increment(SOLVES);
+        JsonObject response = new JsonObject();
+        try {
+            PowerFlowCase pfCase = PowerFlowCase.fromElements(request.getAsJsonObject("elements"));
+            if (request.has("init") && request.get("init").isJsonObject()) {
+                pfCase.applyInitialGuess(request.getAsJsonObject("init"));
+            }
+            NewtonRaphson solver = new NewtonRaphson(pfCase);
+            boolean converged = solver.solve();
+            SimulationMetrics.add(ITERATIONS, solver.getIterations());
+            if (converged) {
+                response.addProperty("status", SimulationResponse.SIM_RESULT);
+                response.addProperty("iterations", solver.getIterations());
+                response.add("elements", writeResults(pfCase, solver));
+            } else {
+                SimulationMetrics.increment(FAILURES);
+                response.addProperty("status", SimulationResponse.CONV_ERROR);
+                response.addProperty("response", "Power flow did not converge after " + solver.getIterations() + " iterations");
+            }
+        } catch (IllegalArgumentException | IllegalStateException | ClassCastException | NullPointerException e) {
+            SimulationMetrics.increment(FAILURES);
+            response.addProperty("status", SOLVER_ERROR);
+            response.addProperty("response", String.valueOf(e.getMessage()));
+        }
+        SimulationMetrics.add(NANOS, System.nanoTime() - start);
+        return response;
+    }
+
+    private static JsonObject writeResults(PowerFlowCase pfCase, NewtonRaphson solver) {
+        JsonObject elements = new JsonObject();
+        for (int bus = 0; bus < pfCase.size(); bus++) {
+            JsonObject result = new JsonObject();
+            if (pfCase.supplied[bus]) {
+                Complex s = solver.injection(bus).times(PowerFlowCase.SN_MVA);
+                result.addProperty("vm_pu", solver.getVm(bus));
+                result.addProperty("va_degree", Math.toDegrees(solver.getVa(bus)));
+                result.addProperty("p_mw", -s.re);
+                result.addProperty("q_mvar", -s.im);
+            } else {
+                addNulls(result, "vm_pu", "va_degree", "p_mw", "q_mvar");
+            }
+            elements.add(pfCase.busIds.get(bus), result);
+        }
+
+        for (PowerFlowCase.Injection load : pfCase.loads) {
+            JsonObject result = new JsonObject();
+            if (isSupplied(pfCase, load)) {
+                result.addProperty("p_mw", pfCase.isActive(load) ? load.pMw : 0);
+                result.addProperty("q_mvar", pfCase.isActive(load) ? load.qMvar : 0);
+            } else {
+                addNulls(result, "p_mw", "q_mvar");
+            }
+            elements.add(load.id, result);
+        }
+
+        for (PowerFlowCase.Injection gen : pfCase.gens) {
+            JsonObject result = new JsonObject();
+            if (isSupplied(pfCase, gen) && pfCase.isActive(gen)) {
+                double qMvar = 0;
+                if (pfCase.types[gen.bus] == PowerFlowCase.BusType.PV) {
+                    double busQ = (solver.injection(gen.bus).im - pfCase.qSpec[gen.bus]) * PowerFlowCase.SN_MVA;
+                    qMvar = busQ / countActive(pfCase, pfCase.gens, gen.bus);
+                }
+                result.addProperty("p_mw", gen.pMw);
+                result.addProperty("q_mvar", qMvar);
+                result.addProperty("va_degree", Math.toDegrees(solver.getVa(gen.bus)));
+                result.addProperty("vm_pu", solver.getVm(gen.bus));
+            } else if (isSupplied(pfCase, gen)) {
+                result.addProperty("p_mw", 0.0);
+                result.addProperty("q_mvar", 0.0);
+                result.addProperty("va_degree", 0.0);
+                result.addProperty("vm_pu", 0.0);
+            } else {
+                addNulls(result, "p_mw", "q_mvar", "va_degree", "vm_pu");
+            }
+            elements.add(gen.id, result);
+        }
+
+        for (PowerFlowCase.Injection extGrid : pfCase.extGrids) {
+            JsonObject result = new JsonObject();
+            if (pfCase.isActive(extGrid)) {
+                Complex s = solver.injection(extGrid.bus);
+                int count = countActive(pfCase, pfCase.extGrids, extGrid.bus);
+                result.addProperty("p_mw", (s.re - pfCase.pSpec[extGrid.bus]) * PowerFlowCase.SN_MVA / count);
+                result.addProperty("q_mvar", (s.im - pfCase.qSpec[extGrid.bus]) * PowerFlowCase.SN_MVA / count);
+            } else {
+                result.addProperty("p_mw", 0.0);
+                result.addProperty("q_mvar", 0.0);
+            }
+            elements.add(extGrid.id, result);
+        }
+
+        for (PowerFlowCase.Branch branch : pfCase.branches) {
+            elements.add(branch.id, writeBranchResults(pfCase, solver, branch));
+        }
+        return elements;
+    }
+
+    private static JsonObject writeBranchResults(PowerFlowCase pfCase, NewtonRaphson solver, PowerFlowCase.Branch branch) {
+        boolean line = branch.etype.equals(SimulationType.LINE.toString());
+        String from = line ? "from" : "hv";
+        String to = line ? "to" : "lv";
+        JsonObject result = new JsonObject();
+        if (!pfCase.isActive(branch) || !pfCase.supplied[branch.from]) {
+            boolean supplied = branch.from >= 0 && pfCase.supplied[branch.from];
+            for (String key : new String[] {"p_" + from + "_mw", "q_" + from + "_mvar", "p_" + to + "_mw", "q_" + to + "_mvar",
+                    "pl_mw", "ql_mvar", "i_" + from + "_ka", "i_" + to + "_ka", "vm_" + from + "_pu", "vm_" + to + "_pu", "loading_percent"}) {
+                if (supplied && !pfCase.isActive(branch)) {
+                    result.addProperty(key, 0.0);
+                } else {
+                    result.add(key, JsonNull.INSTANCE);
+                }
+            }
+            return result;
+        }
+
+        Complex vf = solver.voltage(branch.from);
+        Complex vt = solver.voltage(branch.to);
+        Complex sf = vf.times(branch.yff.times(vf).plus(branch.yft.times(vt)).conj()).times(PowerFlowCase.SN_MVA);
+        Complex st = vt.times(branch.ytf.times(vf).plus(branch.ytt.times(vt)).conj()).times(PowerFlowCase.SN_MVA);
+        double iFrom = current(sf, solver.getVm(branch.from), pfCase.vnKv[branch.from]);
+        double iTo = current(st, solver.getVm(branch.to), pfCase.vnKv[branch.to]);
+
+        result.addProperty("p_" + from + "_mw", sf.re);
+        result.addProperty("q_" + from + "_mvar", sf.im);
+        result.addProperty("p_" + to + "_mw", st.re);
+        result.addProperty("q_" + to + "_mvar", st.im);
+        result.addProperty("pl_mw", sf.re + st.re);
+        result.addProperty("ql_mvar", sf.im + st.im);
+        result.addProperty("i_" + from + "_ka", iFrom);
+        result.addProperty("i_" + to + "_ka", iTo);
+        result.addProperty("vm_" + from + "_pu", solver.getVm(branch.from));
+        result.addProperty("vm_" + to + "_pu", solver.getVm(branch.to));
+        if (line) {
+            result.addProperty("i_ka", Math.max(iFrom, iTo));
+            result.addProperty("loading_percent", Math.max(iFrom, iTo) / branch.rating * 100);
+        } else {
+            double loading = Math.max(sf.abs() / solver.getVm(branch.from), st.abs() / solver.getVm(branch.to));
+            result.addProperty("loading_percent", loading / branch.rating * 100);
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the current flowing into a branch at one of its ends
+     * @param s The power flowing into the branch in MVA
+     * @param vm The voltage magnitude at the end of the branch in per unit
+     * @param vnKv The rated voltage of the bus at the end of the branch
+     * @return The current in kA
+     */
+    private static double current(Complex s, double vm, double vnKv) {
+        return vm == 0 ? 0 : s.abs() / (SQRT_3 * vm * vnKv);
+    }
+
+    private static boolean isSupplied(PowerFlowCase pfCase, PowerFlowCase.Injection injection) {
+        return injection.bus >= 0 && pfCase.supplied[injection.bus];
+    }
+
+    private static int countActive(PowerFlowCase pfCase, List<PowerFlowCase.Injection> injections, int bus) {
+        int count = 0;
+        for (PowerFlowCase.Injection injection : injections) {
+            if (injection.bus == bus && pfCase.isActive(injection)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void addNulls(JsonObject result, String... keys) {
+        for (String key : keys) {
+            result.add(key, JsonNull.INSTANCE);
+        }
+    }
+
+}
@@ -0,0 +1,314 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+import java.util.Arrays;
+
+/**
+ * Solves the AC power flow of a PowerFlowCase with the Newton-Raphson method in polar coordinates, which is the
+ * method pandapower uses by default. Voltage angles of PV and PQ buses and voltage magnitudes of PQ buses are the
+ * unknowns, and the iterations stop once the largest power mismatch is below the tolerance. Buses that aren't supplied
+ * are left out of the equations and keep a voltage of zero.
+ *
+ * The admittance matrix and the Jacobian are both sparse and the Jacobian is solved with a SparseLU. The structure of
+ * the Jacobian only depends on the network, so it and the fill reducing order are worked out once when the solver is
+ * created and every iteration only updates values. Memory use is linear in the size of the network.
+ */
+public class NewtonRaphson {
+
+    public static final int MAX_ITERATIONS = 10; // pandapower's default for Newton-Raphson
+    public static final double TOLERANCE_MVA = 1e-8; // pandapower's default
+
+    private final PowerFlowCase pfCase;
+    private final AdmittanceMatrix y;
+    private final int n;
+    private final double[] vm;
+    private final double[] va;
+    private final double[] p;
+    private final double[] q;
+    private final int[] pvpq; // Buses with an unknown angle
+    private final int[] pq; // Buses with an unknown magnitude
+
+    // Structure of the Jacobian. Rows are the active power of each PV and PQ bus followed by the reactive power of
+    // each PQ bus, and columns are the angle of each PV and PQ bus followed by the magnitude of each PQ bus. Each entry
+    // of the admittance matrix contributes to up to four entries of the Jacobian, whose positions are stored here.
+    private final int[] jacobianRowPtr;
+    private final int[] jacobianCol;
+    private final int[] pTheta;
+    private final int[] pMagnitude;
+    private final int[] qTheta;
+    private final int[] qMagnitude;
+    private SparseLU lu = null;
+    private int iterations = 0;
+
+    /**
+     * @param pfCase The case to solve
+     */
+    public NewtonRaphson(PowerFlowCase pfCase) {
+        this.pfCase = pfCase;
+        this.y = new AdmittanceMatrix(pfCase);
+        this.n = pfCase.size();
+        this.vm = new double[n];
+        this.va = new double[n];
+        this.p = new double[n];
+        this.q = new double[n];
+
+        int pvpqCount = 0;
+        int pqCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (pfCase.supplied[i]) {
+                vm[i] = pfCase.vmSet[i];
+                va[i] = pfCase.vaSet[i];
+                if (pfCase.types[i] != PowerFlowCase.BusType.SLACK) {
+                    pvpqCount++;
+                }
+                if (pfCase.types[i] == PowerFlowCase.BusType.PQ) {
+                    pqCount++;
+                }
+            }
+        }
+        pvpq = new int[pvpqCount];
+        pq = new int[pqCount];
+        int[] angleVar = new int[n];
+        int[] magnitudeVar = new int[n];
+        Arrays.fill(angleVar, -1);
+        Arrays.fill(magnitudeVar, -1);
+        for (int i = 0, a = 0, m = 0; i < n; i++) {
+            if (pfCase.supplied[i] && pfCase.types[i] != PowerFlowCase.BusType.SLACK) {
+                angleVar[i] = a;
+                pvpq[a++] = i;
+                if (pfCase.types[i] == PowerFlowCase.BusType.PQ) {
+                    magnitudeVar[i] = pvpqCount + m;
+                    pq[m++] = i;
+                }
+            }
+        }
+
+        int size = pvpqCount + pqCount;
+        int nnz = y.nonZeros();
+        pTheta = new int[nnz];
+        pMagnitude = new int[nnz];
+        qTheta = new int[nnz];
+        qMagnitude = new int[nnz];
+        Arrays.fill(pTheta, -1);
+        Arrays.fill(pMagnitude, -1);
+        Arrays.fill(qTheta, -1);
+        Arrays.fill(qMagnitude, -1);
+        jacobianRowPtr = new int[size + 1];
+        for (int i = 0; i < n; i++) {
+            if (angleVar[i] < 0) {
+                continue;
+            }
+            int count = 0;
+            for (int k = y.rowPtr[i]; k < y.rowPtr[i + 1]; k++) {
+                count += (angleVar[y.col[k]] >= 0 ? 1 : 0) + (magnitudeVar[y.col[k]] >= 0 ? 1 : 0);
+            }
+            jacobianRowPtr[angleVar[i] + 1] = count;
+            if (magnitudeVar[i] >= 0) {
+                jacobianRowPtr[magnitudeVar[i] + 1] = count;
+            }
+        }
+        for (int r = 0; r < size; r++) {
+            jacobianRowPtr[r + 1] += jacobianRowPtr[r];
+        }
+        jacobianCol = new int[jacobianRowPtr[size]];
+        for (int i = 0; i < n; i++) {
+            if (angleVar[i] < 0) {
+                continue;
+            }
+            int pNext = jacobianRowPtr[angleVar[i]];
+            int qNext = magnitudeVar[i] >= 0 ? jacobianRowPtr[magnitudeVar[i]] : -1;
+            for (int k = y.rowPtr[i]; k < y.rowPtr[i + 1]; k++) {
+                int j = y.col[k];
+                if (angleVar[j] >= 0) {
+                    pTheta[k] = pNext;
+                    jacobianCol[pNext++] = angleVar[j];
+                    if (qNext >= 0) {
+                        qTheta[k] = qNext;
+                        jacobianCol[qNext++] = angleVar[j];
+                    }
+                }
+                if (magnitudeVar[j] >= 0) {
+                    pMagnitude[k] = pNext;
+                    jacobianCol[pNext++] = magnitudeVar[j];
+                    if (qNext >= 0) {
+                        qMagnitude[k] = qNext;
+                        jacobianCol[qNext++] = magnitudeVar[j];
+                    }
+                }
+            }
+        }
+
+        // Buses are ordered by minimum degree and the unknowns of each bus are kept next to each other, so both
+        // diagonal entries of a bus are available as pivots when it is eliminated
+        int[] busRowPtr = new int[pvpqCount + 1];
+        int[] busCol = new int[jacobianRowPtr[pvpqCount]];
+        for (int r = 0; r < pvpqCount; r++) {
+            busRowPtr[r + 1] = busRowPtr[r];
+            for (int k = jacobianRowPtr[r]; k < jacobianRowPtr[r + 1]; k++) {
+                if (jacobianCol[k] < pvpqCount) {
+                    busCol[busRowPtr[r + 1]++] = jacobianCol[k];
+                }
+            }
+        }
+        int[] order = MinimumDegree.order(pvpqCount, busRowPtr, busCol);
+        int[] perm = new int[size];
+        int next = 0;
+        for (int a : order) {
+            perm[next++] = a;
+            if (magnitudeVar[pvpq[a]] >= 0) {
+                perm[next++] = magnitudeVar[pvpq[a]];
+            }
+        }
+        if (size > 0) {
+            lu = new SparseLU(size, jacobianRowPtr, jacobianCol, perm);
+        }
+    }
+
+    /**
+     * Runs the Newton-Raphson iterations until the case converges or the maximum number of iterations is reached
+     * @return Whether or not the power flow converged
+     */
+    public boolean solve() {
+        int size = pvpq.length + pq.length;
+        double[] mismatch = new double[size];
+        double[] jacobian = new double[jacobianCol.length];
+        while (true) {
+            calculatePower();
+            double largest = 0;
+            for (int k = 0; k < pvpq.length; k++) {
+                mismatch[k] = pfCase.pSpec[pvpq[k]] - p[pvpq[k]];
+                largest = Math.max(largest, Math.abs(mismatch[k]));
+            }
+            for (int k = 0; k < pq.length; k++) {
+                mismatch[pvpq.length + k] = pfCase.qSpec[pq[k]] - q[pq[k]];
+                largest = Math.max(largest, Math.abs(mismatch[pvpq.length + k]));
+            }
+            if (Double.isNaN(largest)) {
+                return false;
+            }
+            if (largest < TOLERANCE_MVA / PowerFlowCase.SN_MVA) {
+                return true;
+            }
+            if (iterations >= MAX_ITERATIONS) {
+                return false;
+            }
+            iterations++;
+
+            buildJacobian(jacobian);
+            if (!lu.factor(jacobian)) {
+                return false;
+            }
+            lu.solve(mismatch);
+            for (int k = 0; k < pvpq.length; k++) {
+                va[pvpq[k]] += mismatch[k];
+            }
+            for (int k = 0; k < pq.length; k++) {
+                vm[pq[k]] += mismatch[pvpq.length + k];
+            }
+        }
+    }
+
+    /**
+     * Calculates the active and reactive power flowing into the network at every bus from the current voltages
+     */
+    private void calculatePower() {
+        for (int i = 0; i < n; i++) {
+            double pi = 0;
+            double qi = 0;
+            if (vm[i] != 0) {
+                for (int k = y.rowPtr[i]; k < y.rowPtr[i + 1]; k++) {
+                    int j = y.col[k];
+                    double theta = va[i] - va[j];
+                    double cos = Math.cos(theta);
+                    double sin = Math.sin(theta);
+                    pi += vm[j] * (y.g[k] * cos + y.b[k] * sin);
+                    qi += vm[j] * (y.g[k] * sin - y.b[k] * cos);
+                }
+            }
+            p[i] = vm[i] * pi;
+            q[i] = vm[i] * qi;
+        }
+    }
+
+    /**
+     * Fills the values of the Jacobian of the mismatch equations for the current voltages
+     * @param jacobian The values of the Jacobian in the order of its structure
+     */
+    private void buildJacobian(double[] jacobian) {
+        for (int i : pvpq) {
+            for (int k = y.rowPtr[i]; k < y.rowPtr[i + 1]; k++) {
+                int j = y.col[k];
+                double dpTheta;
+                double dpMagnitude;
+                double dqTheta;
+                double dqMagnitude;
+                if (i == j) {
+                    dpTheta = -q[i] - y.b[k] * vm[i] * vm[i];
+                    dpMagnitude = p[i] / vm[i] + y.g[k] * vm[i];
+                    dqTheta = p[i] - y.g[k] * vm[i] * vm[i];
+                    dqMagnitude = q[i] / vm[i] - y.b[k] * vm[i];
+                } else {
+                    double theta = va[i] - va[j];
+                    double cos = Math.cos(theta);
+                    double sin = Math.sin(theta);
+                    double gcbs = y.g[k] * cos + y.b[k] * sin;
+                    double gsbc = y.g[k] * sin - y.b[k] * cos;
+                    dpTheta = vm[i] * vm[j] * gsbc;
+                    dpMagnitude = vm[i] * gcbs;
+                    dqTheta = -vm[i] * vm[j] * gcbs;
+                    dqMagnitude = vm[i] * gsbc;
+                }
+                set(jacobian, pTheta[k], dpTheta);
+                set(jacobian, pMagnitude[k], dpMagnitude);
+                set(jacobian, qTheta[k], dqTheta);
+                set(jacobian, qMagnitude[k], dqMagnitude);
+            }
+        }
+    }
+
+    private static void set(double[] jacobian, int position, double value) {
+        if (position >= 0) {
+            jacobian[position] = value;
+        }
+    }
+
+    /**
+     * Calculates the complex power flowing into the network at a bus for the current voltages
+     * @param bus The bus
+     * @return The complex power injected at the bus in per unit
+     */
+    Complex injection(int bus) {
+        return new Complex(p[bus], q[bus]);
+    }
+
+    /**
+     * @param bus The bus
+     * @return The complex voltage of the bus in per unit
+     */
+    Complex voltage(int bus) {
+        return Complex.polar(vm[bus], va[bus]);
+    }
+
+    /**
+     * @param bus The bus
+     * @return The voltage magnitude of the bus in per unit
+     */
+    double getVm(int bus) {
+        return vm[bus];
+    }
+
+    /**
+     * @param bus The bus
+     * @return The voltage angle of the bus in radians
+     */
+    double getVa(int bus) {
+        return va[bus];
+    }
+
+    /**
+     * @return The number of iterations that were needed
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+}
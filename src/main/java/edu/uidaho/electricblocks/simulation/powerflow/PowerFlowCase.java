@@ -0,0 +1,391 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import edu.uidaho.electricblocks.simulation.SimulationType;
+
+/**
+ * The per-unit model of a network read from the elements of an EBPP simulation request. Elements are read using the
+ * same etypes and input keys that the SimulationTileEntities write for EBPP, and they are converted the same way
+ * pandapower converts them: every bus uses its own rated voltage as the base voltage and the whole network uses a
+ * base power of 1 MVA. Lines are modelled as pi equivalents from their standard type and transformers as pi
+ * equivalents with their magnetizing admittance split between both sides.
+ */
+public class PowerFlowCase {
+
+    static final double SN_MVA = 1.0; // pandapower's default base power
+    static final double F_HZ = 50.0; // pandapower's default system frequency
+    private static final double MIN_LENGTH_KM = 0.001; // Lines are at least one block long
+
+    /**
+     * Electrical parameters of a pandapower standard line type
+     */
+    static class LineType {
+        final double rOhmPerKm;
+        final double xOhmPerKm;
+        final double cNfPerKm;
+        final double maxIKa;
+
+        LineType(double rOhmPerKm, double xOhmPerKm, double cNfPerKm, double maxIKa) {
+            this.rOhmPerKm = rOhmPerKm;
+            this.xOhmPerKm = xOhmPerKm;
+            this.cNfPerKm = cNfPerKm;
+            this.maxIKa = maxIKa;
+        }
+    }
+
+    private static final Map<String, LineType> LINE_TYPES;
+    static {
+        Map<String, LineType> types = new HashMap<>();
+        types.put("NAYY 4x50 SE", new LineType(0.642, 0.083, 210, 0.142));
+        types.put("NAYY 4x120 SE", new LineType(0.225, 0.080, 264, 0.242));
+        types.put("NAYY 4x150 SE", new LineType(0.208, 0.080, 261, 0.270));
+        types.put("NA2XS2Y 1x95 RM/25 12/20 kV", new LineType(0.313, 0.132, 216, 0.252));
+        types.put("NA2XS2Y 1x240 RM/25 12/20 kV", new LineType(0.122, 0.112, 304, 0.421));
+        types.put("149-AL1/24-ST1A 110.0", new LineType(0.194, 0.41, 8.75, 0.47));
+        LINE_TYPES = Collections.unmodifiableMap(types);
+    }
+
+    enum BusType { PQ, PV, SLACK }
+
+    /**
+     * An element that injects or consumes power at a single bus: a load, storage unit, generator or external grid.
+     */
+    static class Injection {
+        final String id;
+        final String etype;
+        final int bus;
+        final boolean inService;
+        final double pMw;
+        final double qMvar;
+        final double vmPu;
+        final double vaDegree;
+
+        Injection(String id, String etype, int bus, boolean inService, double pMw, double qMvar, double vmPu, double vaDegree) {
+            this.id = id;
+            this.etype = etype;
+            this.bus = bus;
+            this.inService = inService;
+            this.pMw = pMw;
+            this.qMvar = qMvar;
+            this.vmPu = vmPu;
+            this.vaDegree = vaDegree;
+        }
+    }
+
+    /**
+     * A line or transformer between two buses. The branch is described by the four entries it adds to the bus
+     * admittance matrix, in per unit.
+     */
+    static class Branch {
+        final String id;
+        final String etype;
+        final int from;
+        final int to;
+        final boolean inService;
+        final Complex yff;
+        final Complex yft;
+        final Complex ytf;
+        final Complex ytt;
+        final double rating; // max_i_ka for lines, sn_mva for transformers
+        final double shift; // Phase shift in radians by which the to bus lags the from bus, 0 for lines
+
+        Branch(String id, String etype, int from, int to, boolean inService, Complex yff, Complex yft, Complex ytf, Complex ytt,
+               double rating, double shift) {
+            this.id = id;
+            this.etype = etype;
+            this.from = from;
+            this.to = to;
+            this.inService = inService;
+            this.yff = yff;
+            this.yft = yft;
+            this.ytf = ytf;
+            this.ytt = ytt;
+            this.rating = rating;
+            this.shift = shift;
+        }
+
+        boolean isActive() {
+            return inService && from >= 0 && to >= 0;
+        }
+    }
+
+    final List<String> busIds = new ArrayList<>();
+    private final Map<String, Integer> busIndex = new HashMap<>();
+    private final List<Double> busVoltages = new ArrayList<>();
+    private final List<Boolean> busInService = new ArrayList<>();
+    final List<Injection> loads = new ArrayList<>();
+    final List<Injection> gens = new ArrayList<>();
+    final List<Injection> extGrids = new ArrayList<>();
+    final List<Branch> branches = new ArrayList<>();
+
+    double[] vnKv;
+    BusType[] types;
+    boolean[] supplied;
+    double[] vmSet; // Starting voltage magnitude, which stays fixed for PV and slack buses
+    double[] vaSet; // Starting voltage angle in radians, which stays fixed for slack buses
+    double[] pSpec;
+    double[] qSpec;
+
+    private PowerFlowCase() {}
+
+    /**
+     * Reads a case from the elements object of a simulation request.
+     * @param elements The elements of the request, keyed by their ID
+     * @return The case
+     * @throws IllegalArgumentException If an element can't be simulated by the embedded solver
+     */
+    public static PowerFlowCase fromElements(JsonObject elements) {
+        PowerFlowCase pfCase = new PowerFlowCase();
+        for (Map.Entry<String, JsonElement> entry : elements.entrySet()) {
+            JsonObject element = entry.getValue().getAsJsonObject();
+            if (getString(entry.getKey(), element, "etype").equals(SimulationType.BUS.toString())) {
+                pfCase.addBus(entry.getKey(), element);
+            }
+        }
+        for (Map.Entry<String, JsonElement> entry : elements.entrySet()) {
+            pfCase.addElement(entry.getKey(), entry.getValue().getAsJsonObject());
+        }
+        pfCase.prepare();
+        return pfCase;
+    }
+
+    /**
+     * Starts the solution from the voltages of a previous solution instead of a flat start. Buses that weren't in the
+     * previous solution keep their flat start and the voltages of slack buses and the magnitudes of PV buses are never
+     * changed since they are fixed.
+     * @param init The magnitude in per unit and angle in degrees of each bus, keyed by bus ID
+     * @return The number of buses that were given a starting voltage
+     */
+    public int applyInitialGuess(JsonObject init) {
+        int applied = 0;
+        for (Map.Entry<String, JsonElement> entry : init.entrySet()) {
+            Integer bus = busIndex.get(entry.getKey());
+            if (bus == null || !supplied[bus] || types[bus] == BusType.SLACK || !entry.getValue().isJsonObject()) {
+                continue;
+            }
+            JsonObject voltage = entry.getValue().getAsJsonObject();
+            if (!voltage.has("vm_pu") || !voltage.has("va_degree")) {
+                continue;
+            }
+            if (types[bus] == BusType.PQ) {
+                vmSet[bus] = voltage.get("vm_pu").getAsDouble();
+            }
+            vaSet[bus] = Math.toRadians(voltage.get("va_degree").getAsDouble());
+            applied++;
+        }
+        return applied;
+    }
+
+    /**
+     * @return The number of buses in this case, including buses that are out of service or not supplied
+     */
+    public int size() {
+        return busIds.size();
+    }
+
+    private void addBus(String id, JsonObject bus) {
+        busIndex.put(id, busIds.size());
+        busIds.add(id);
+        busVoltages.add(getDouble(id, bus, "vn_kv", null));
+        busInService.add(getBoolean(bus, "in_service"));
+    }
+
+    private void addElement(String id, JsonObject element) {
+        String etype = getString(id, element, "etype");
+        boolean inService = getBoolean(element, "in_service");
+        if (etype.equals(SimulationType.BUS.toString())) {
+            return;
+        } else if (etype.equals(SimulationType.LOAD.toString()) || etype.equals(SimulationType.BATTERY.toString())) {
+            loads.add(new Injection(id, etype, getBus(id, element, "bus"), inService,
+                    getDouble(id, element, "p_mw", null), getDouble(id, element, "q_mvar", 0.0), 0, 0));
+        } else if (etype.equals(SimulationType.GENERATOR.toString())) {
+            gens.add(new Injection(id, etype, getBus(id, element, "bus"), inService,
+                    getDouble(id, element, "p_mw", null), 0, getDouble(id, element, "vm_pu", 1.0), 0));
+        } else if (etype.equals(SimulationType.EXT_GRID.toString())) {
+            extGrids.add(new Injection(id, etype, getBus(id, element, "bus"), inService,
+                    0, 0, getDouble(id, element, "vm_pu", 1.0), getDouble(id, element, "va_degree", 0.0)));
+        } else if (etype.equals(SimulationType.LINE.toString())) {
+            addLine(id, element, inService);
+        } else if (etype.equals(SimulationType.TRANSFORMER.toString())) {
+            addTransformer(id, element, inService);
+        } else {
+            throw new IllegalArgumentException("Element " + id + " has etype " + etype + " which the embedded solver doesn't support");
+        }
+    }
+
+    private void addLine(String id, JsonObject element, boolean inService) {
+        int from = getBus(id, element, "from_bus");
+        int to = getBus(id, element, "to_bus");
+        String stdType = getString(id, element, "std_type");
+        LineType type = LINE_TYPES.get(stdType);
+        if (type == null) {
+            throw new IllegalArgumentException("Line " + id + " has unknown std_type " + stdType);
+        }
+        double lengthKm = Math.max(MIN_LENGTH_KM, getDouble(id, element, "length_km", null));
+        double zBase = from >= 0 ? busVoltages.get(from) * busVoltages.get(from) / SN_MVA : 1;
+        Complex ys = new Complex(type.rOhmPerKm * lengthKm / zBase, type.xOhmPerKm * lengthKm / zBase).reciprocal();
+        double b = 2 * Math.PI * F_HZ * type.cNfPerKm * 1e-9 * lengthKm * zBase;
+        Complex shunt = new Complex(0, b / 2);
+        branches.add(new Branch(id, SimulationType.LINE.toString(), from, to, inService,
+                ys.plus(shunt), ys.negate(), ys.negate(), ys.plus(shunt), type.maxIKa, 0));
+    }
+
+    private void addTransformer(String id, JsonObject element, boolean inService) {
+        int hv = getBus(id, element, "hv_bus");
+        int lv = getBus(id, element, "lv_bus");
+        double snMva = getDouble(id, element, "sn_mva", null);
+        double vnHvKv = getDouble(id, element, "vn_hv_kv", null);
+        double vnLvKv = getDouble(id, element, "vn_lv_kv", null);
+        double vkPercent = getDouble(id, element, "vk_percent", null);
+        double vkrPercent = getDouble(id, element, "vkr_percent", null);
+        double pfeKw = getDouble(id, element, "pfe_kw", 0.0);
+        double i0Percent = getDouble(id, element, "i0_percent", 0.0);
+        double shiftDegree = getDouble(id, element, "shift_degree", 0.0);
+        double vnHvBus = hv >= 0 ? busVoltages.get(hv) : vnHvKv;
+        double vnLvBus = lv >= 0 ? busVoltages.get(lv) : vnLvKv;
+
+        // Short circuit impedance referred to the low voltage side, in per unit of the network
+        double tapLv = (vnLvKv / vnLvBus) * (vnLvKv / vnLvBus) * SN_MVA;
+        double zk = vkPercent / 100 / snMva * tapLv;
+        double rk = vkrPercent / 100 / snMva * tapLv;
+        double xk = Math.sqrt(Math.max(zk * zk - rk * rk, 0));
+        Complex ys = new Complex(rk, xk).reciprocal();
+
+        // Magnetizing admittance, which is inductive
+        double gm = pfeKw / 1000 / tapLv;
+        double ym = i0Percent / 100 * snMva / tapLv;
+        double bm = -Math.sqrt(Math.max(ym * ym - gm * gm, 0));
+        Complex shunt = new Complex(gm / 2, bm / 2);
+
+        // Off nominal voltage ratio with the phase shift applied to the high voltage side
+        double ratio = (vnHvKv / vnHvBus) / (vnLvKv / vnLvBus);
+        Complex tap = Complex.polar(ratio, Math.toRadians(shiftDegree));
+        Complex series = ys.plus(shunt);
+        branches.add(new Branch(id, SimulationType.TRANSFORMER.toString(), hv, lv, inService,
+                series.times(1 / (ratio * ratio)), ys.negate().divide(tap.conj()), ys.negate().divide(tap), series, snMva,
+                Math.toRadians(shiftDegree)));
+    }
+
+    /**
+     * Works out the type of each bus, the power scheduled at each bus and which buses are supplied by an external
+     * grid. Buses that are out of service or can't be reached from an external grid are left out of the solution, the
+     * same way pandapower leaves them out. Each supplied bus starts at the angle of the bus it was reached from less the
+     * phase shift of the transformers in between. Starting a bus behind a 150 degree shift at the angle of the grid is
+     * too far from the solution for Newton-Raphson, which finds a solution with almost no voltage instead.
+     */
+    private void prepare() {
+        int n = size();
+        vnKv = new double[n];
+        types = new BusType[n];
+        supplied = new boolean[n];
+        vmSet = new double[n];
+        vaSet = new double[n];
+        pSpec = new double[n];
+        qSpec = new double[n];
+        for (int i = 0; i < n; i++) {
+            vnKv[i] = busVoltages.get(i);
+            types[i] = BusType.PQ;
+            vmSet[i] = 1.0;
+        }
+        for (Injection gen : gens) {
+            if (isActive(gen) && types[gen.bus] == BusType.PQ) {
+                types[gen.bus] = BusType.PV;
+                vmSet[gen.bus] = gen.vmPu;
+            }
+        }
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (Injection extGrid : extGrids) {
+            if (isActive(extGrid) && types[extGrid.bus] != BusType.SLACK) {
+                types[extGrid.bus] = BusType.SLACK;
+                vmSet[extGrid.bus] = extGrid.vmPu;
+                vaSet[extGrid.bus] = Math.toRadians(extGrid.vaDegree);
+                supplied[extGrid.bus] = true;
+                queue.add(extGrid.bus);
+            }
+        }
+
+        List<List<Branch>> adjacent = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            adjacent.add(new ArrayList<>());
+        }
+        for (Branch branch : branches) {
+            if (isActive(branch)) {
+                adjacent.get(branch.from).add(branch);
+                adjacent.get(branch.to).add(branch);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int bus = queue.remove();
+            for (Branch branch : adjacent.get(bus)) {
+                int next = branch.from == bus ? branch.to : branch.from;
+                if (!supplied[next] && busInService.get(next)) {
+                    supplied[next] = true;
+                    vaSet[next] = branch.from == bus ? vaSet[bus] - branch.shift : vaSet[bus] + branch.shift;
+                    queue.add(next);
+                }
+            }
+        }
+
+        for (Injection load : loads) {
+            if (isActive(load)) {
+                pSpec[load.bus] -= load.pMw / SN_MVA;
+                qSpec[load.bus] -= load.qMvar / SN_MVA;
+            }
+        }
+        for (Injection gen : gens) {
+            if (isActive(gen)) {
+                pSpec[gen.bus] += gen.pMw / SN_MVA;
+            }
+        }
+    }
+
+    /**
+     * Checks whether an injection is in service and connected to a supplied bus
+     */
+    boolean isActive(Injection injection) {
+        return injection.inService && injection.bus >= 0 && busInService.get(injection.bus);
+    }
+
+    /**
+     * Checks whether a branch is in service and connects two buses that are in service
+     */
+    boolean isActive(Branch branch) {
+        return branch.isActive() && busInService.get(branch.from) && busInService.get(branch.to);
+    }
+
+    private int getBus(String id, JsonObject element, String key) {
+        Integer bus = busIndex.get(getString(id, element, key));
+        return bus == null ? -1 : bus;
+    }
+
+    private static String getString(String id, JsonObject element, String key) {
+        if (!element.has(key) || element.get(key).isJsonNull()) {
+            throw new IllegalArgumentException("Element " + id + " is missing " + key);
+        }
+        return element.get(key).getAsString();
+    }
+
+    private static double getDouble(String id, JsonObject element, String key, Double defaultValue) {
+        if (!element.has(key) || element.get(key).isJsonNull()) {
+            if (defaultValue == null) {
+                throw new IllegalArgumentException("Element " + id + " is missing " + key);
+            }
+            return defaultValue;
+        }
+        return element.get(key).getAsDouble();
+    }
+
+    private static boolean getBoolean(JsonObject element, String key) {
+        return !element.has(key) || element.get(key).isJsonNull() || element.get(key).getAsBoolean();
+    }
+
+}
@@ -0,0 +1,199 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Sparse LU factorisation of a matrix with a symmetric structure, such as the Jacobian of a power flow. The structure
+ * is analysed once when the factorisation is created: the rows and columns are permuted into a fill reducing order
+ * and every entry that will be filled in during elimination is found using the elimination tree. Each call to factor
+ * then only does numeric work on that fixed structure, which is what Newton-Raphson needs since the Jacobian keeps the
+ * same structure between iterations.
+ *
+ * The factorisation doesn't pivot. Power flow Jacobians are dominated by their diagonal once the angle and magnitude
+ * of each bus are kept next to each other, and a pivot that is too small is reported so the caller can treat the
+ * solve as failed.
+ */
+class SparseLU {
+
+    private static final double MIN_PIVOT = 1e-14;
+
+    private final int n;
+    private final int[] perm; // perm[k] is the original row and column placed at k
+    private final int[] rowPtr;
+    private final int[] col;
+    private final int[] diag;
+    private final int[] map; // Position in the factors of each entry of the original matrix
+    private final double[] values;
+    private final double[] work;
+
+    /**
+     * Analyses the structure of a matrix
+     * @param n The size of the matrix
+     * @param rowPtr The start of each row of the matrix in col, with n + 1 entries
+     * @param col The column of each entry of the matrix. Every row must have a diagonal entry and the structure must be
+     *            symmetric
+     * @param perm The order the rows and columns are eliminated in
+     */
+    SparseLU(int n, int[] rowPtr, int[] col, int[] perm) {
+        this.n = n;
+        this.perm = perm;
+        int[] inverse = new int[n];
+        for (int k = 0; k < n; k++) {
+            inverse[perm[k]] = k;
+        }
+
+        // Symbolic factorisation. The structure of each column of L below the diagonal is the structure of that column
+        // of the permuted matrix merged with the structure of each of its children in the elimination tree.
+        int[][] lower = new int[n][];
+        List<IntArrayList> children = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            children.add(null);
+        }
+        IntArrayList structure = new IntArrayList();
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        for (int k = 0; k < n; k++) {
+            structure.clear();
+            int row = perm[k];
+            for (int p = rowPtr[row]; p < rowPtr[row + 1]; p++) {
+                int j = inverse[col[p]];
+                if (j > k && mark[j] != k) {
+                    mark[j] = k;
+                    structure.add(j);
+                }
+            }
+            if (children.get(k) != null) {
+                for (int child : children.get(k)) {
+                    for (int j : lower[child]) {
+                        if (j > k && mark[j] != k) {
+                            mark[j] = k;
+                            structure.add(j);
+                        }
+                    }
+                }
+                children.set(k, null);
+            }
+            lower[k] = structure.toIntArray();
+            Arrays.sort(lower[k]);
+            if (lower[k].length > 0) {
+                int parent = lower[k][0];
+                if (children.get(parent) == null) {
+                    children.set(parent, new IntArrayList());
+                }
+                children.get(parent).add(k);
+            }
+        }
+
+        // The factors share one structure: row i holds L(i, j) for each column j that has i below its diagonal, then
+        // the diagonal, then U(i, j) which has the same structure as column i of L
+        int[] lowerCount = new int[n];
+        int nnz = n;
+        for (int k = 0; k < n; k++) {
+            nnz += 2 * lower[k].length;
+            for (int i : lower[k]) {
+                lowerCount[i]++;
+            }
+        }
+        this.rowPtr = new int[n + 1];
+        this.col = new int[nnz];
+        this.diag = new int[n];
+        int[] next = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.rowPtr[i + 1] = this.rowPtr[i] + lowerCount[i] + 1 + lower[i].length;
+            next[i] = this.rowPtr[i];
+            diag[i] = this.rowPtr[i] + lowerCount[i];
+            this.col[diag[i]] = i;
+            System.arraycopy(lower[i], 0, this.col, diag[i] + 1, lower[i].length);
+        }
+        for (int j = 0; j < n; j++) {
+            for (int i : lower[j]) {
+                this.col[next[i]++] = j; // Columns are visited in order so each row stays sorted
+            }
+        }
+
+        this.map = new int[rowPtr[n]];
+        for (int row = 0; row < n; row++) {
+            int i = inverse[row];
+            for (int p = rowPtr[row]; p < rowPtr[row + 1]; p++) {
+                map[p] = Arrays.binarySearch(this.col, this.rowPtr[i], this.rowPtr[i + 1], inverse[col[p]]);
+            }
+        }
+        this.values = new double[nnz];
+        this.work = new double[n];
+    }
+
+    /**
+     * Factorises a matrix with the structure this factorisation was created for
+     * @param matrix The values of the matrix, in the same order as the col array the structure was given with
+     * @return False if the matrix is singular or too close to it to be factorised without pivoting
+     */
+    boolean factor(double[] matrix) {
+        Arrays.fill(values, 0);
+        for (int p = 0; p < matrix.length; p++) {
+            values[map[p]] += matrix[p];
+        }
+
+        int[] position = new int[n];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < n; i++) {
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                position[col[p]] = p;
+            }
+            for (int p = rowPtr[i]; p < diag[i]; p++) {
+                int k = col[p];
+                values[p] /= values[diag[k]];
+                double factor = values[p];
+                for (int q = diag[k] + 1; q < rowPtr[k + 1]; q++) {
+                    values[position[col[q]]] -= factor * values[q];
+                }
+            }
+            double pivot = values[diag[i]];
+            if (!(Math.abs(pivot) > MIN_PIVOT)) {
+                return false;
+            }
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                position[col[p]] = -1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solves the factorised system in place
+     * @param x The right hand side, which is replaced by the solution
+     */
+    void solve(double[] x) {
+        for (int k = 0; k < n; k++) {
+            work[k] = x[perm[k]];
+        }
+        for (int i = 0; i < n; i++) {
+            double sum = work[i];
+            for (int p = rowPtr[i]; p < diag[i]; p++) {
+                sum -= values[p] * work[col[p]];
+            }
+            work[i] = sum;
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = work[i];
+            for (int p = diag[i] + 1; p < rowPtr[i + 1]; p++) {
+                sum -= values[p] * work[col[p]];
+            }
+            work[i] = sum / values[diag[i]];
+        }
+        for (int k = 0; k < n; k++) {
+            x[perm[k]] = work[k];
+        }
+    }
+
+    /**
+     * @return The number of entries in the factors, including fill
+     */
+    int nonZeros() {
+        return rowPtr[n];
+    }
+
+}
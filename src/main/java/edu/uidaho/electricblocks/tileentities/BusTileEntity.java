@@ -1,6 +1,6 @@
 package edu.uidaho.electricblocks.tileentities;
 
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import edu.uidaho.electricblocks.RegistryHandler;
 import edu.uidaho.electricblocks.interfaces.IMultimeter;
 import edu.uidaho.electricblocks.simulation.SimulationProperty;
@@ -8,6 +8,7 @@ import edu.uidaho.electricblocks.simulation.SimulationTileEntity;
 import edu.uidaho.electricblocks.simulation.SimulationType;
 import net.minecraft.util.math.BlockPos;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -32,15 +33,11 @@ public class BusTileEntity extends SimulationTileEntity implements IMultimeter {
     }
 
     @Override
-    public JsonObject toJson() {
-        JsonObject json = new JsonObject();
-
-        JsonObject obj = new JsonObject();
-        obj.addProperty("etype", getSimulationType().toString());
-        fillJSON(obj);
-
-        json.add(getSimulationID().toString(), obj);
-        return json;
+    public void writeJson(JsonWriter writer) throws IOException {
+        writer.name(getSimulationID().toString()).beginObject();
+        writer.name("etype").value(getSimulationType().toString());
+        writeInputs(writer);
+        writer.endObject();
     }
 
     @Override
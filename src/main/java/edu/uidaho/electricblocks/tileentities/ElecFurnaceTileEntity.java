@@ -6,10 +6,11 @@ import edu.uidaho.electricblocks.init.RecipeSerializerInit;
 import edu.uidaho.electricblocks.recipes.ElecRecipe;
 import edu.uidaho.electricblocks.utils.ElecFurnaceItemHandler;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import edu.uidaho.electricblocks.ElectricBlocksMod;
 import edu.uidaho.electricblocks.RegistryHandler;
@@ -81,19 +82,15 @@ public class ElecFurnaceTileEntity extends SimulationTileEntity implements IName
     }
 
     @Override
-    public JsonObject toJson() {
-        JsonObject json = new JsonObject();
-        JsonObject bus = getBusJson(inputs.get("vn_kv").getDouble());
+    public void writeJson(JsonWriter writer) throws IOException {
         UUID busId = embededBusses.get("main");
+        writeBus(writer, busId, inputs.get("vn_kv").getDouble());
 
-        JsonObject obj = new JsonObject();
-        obj.addProperty("etype", getSimulationType().toString());
-        obj.addProperty("bus", busId.toString());
-        fillJSON(obj);
-
-        json.add(busId.toString(), bus);
-        json.add(getSimulationID().toString(), obj);
-        return json;
+        writer.name(getSimulationID().toString()).beginObject();
+        writer.name("etype").value(getSimulationType().toString());
+        writer.name("bus").value(busId.toString());
+        writeInputs(writer);
+        writer.endObject();
     }
 
     @Override
@@ -1,10 +1,11 @@
 package edu.uidaho.electricblocks.tileentities;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import edu.uidaho.electricblocks.RegistryHandler;
 import edu.uidaho.electricblocks.simulation.SimulationProperty;
@@ -33,19 +34,15 @@ public class GeneratorTileEntity extends SimulationTileEntity {
     }
 
     @Override
-    public JsonObject toJson() {
-        JsonObject json = new JsonObject();
-        JsonObject bus = getBusJson(inputs.get("vn_kv").getDouble());
+    public void writeJson(JsonWriter writer) throws IOException {
         UUID busId = embededBusses.get("main");
+        writeBus(writer, busId, inputs.get("vn_kv").getDouble());
 
-        JsonObject obj = new JsonObject();
-        obj.addProperty("etype", getSimulationType().toString());
-        obj.addProperty("bus", busId.toString());
-        fillJSON(obj);
-
-        json.add(busId.toString(), bus);
-        json.add(getSimulationID().toString(), obj);
-        return json;
+        writer.name(getSimulationID().toString()).beginObject();
+        writer.name("etype").value(getSimulationType().toString());
+        writer.name("bus").value(busId.toString());
+        writeInputs(writer);
+        writer.endObject();
     }
 
     @Override
@@ -1,6 +1,6 @@
 package edu.uidaho.electricblocks.tileentities;
 
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import edu.uidaho.electricblocks.RegistryHandler;
 import edu.uidaho.electricblocks.blocks.TransformerBlock;
@@ -10,6 +10,7 @@ import edu.uidaho.electricblocks.simulation.SimulationType;
 import net.minecraft.util.Direction;
 import net.minecraft.util.math.BlockPos;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -50,25 +51,18 @@ public class TransformerTileEntity extends SimulationTileEntity {
     }
 
     @Override
-    public JsonObject toJson() {
-        JsonObject json = new JsonObject();
-
-        JsonObject lvBus = getBusJson(inputs.get("vn_lv_kv").getDouble());
+    public void writeJson(JsonWriter writer) throws IOException {
         UUID lvBusId = embededBusses.get("lowVoltage");
-
-        JsonObject hvBus = getBusJson(inputs.get("vn_hv_kv").getDouble());
         UUID hvBusId = embededBusses.get("highVoltage");
-
-        JsonObject obj = new JsonObject();
-        obj.addProperty("etype", getSimulationType().toString());
-        obj.addProperty("hv_bus", hvBusId.toString());
-        obj.addProperty("lv_bus", lvBusId.toString());
-        fillJSON(obj);
-
-        json.add(lvBusId.toString(), lvBus);
-        json.add(hvBusId.toString(), hvBus);
-        json.add(getSimulationID().toString(), obj);
-        return json;
+        writeBus(writer, lvBusId, inputs.get("vn_lv_kv").getDouble());
+        writeBus(writer, hvBusId, inputs.get("vn_hv_kv").getDouble());
+
+        writer.name(getSimulationID().toString()).beginObject();
+        writer.name("etype").value(getSimulationType().toString());
+        writer.name("hv_bus").value(hvBusId.toString());
+        writer.name("lv_bus").value(lvBusId.toString());
+        writeInputs(writer);
+        writer.endObject();
     }
 
     @Override
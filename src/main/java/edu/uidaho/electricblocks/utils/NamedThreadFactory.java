@@ -0,0 +1,29 @@
+package edu.uidaho.electricblocks.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory used by the executors in this mod. Threads are given a recognizable name so they are easy to find in
+ * thread dumps and profilers, and are daemon threads so they never keep the server process alive on shutdown.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param prefix The prefix of every thread name. Each thread gets a number appended to it.
+     */
+    public NamedThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
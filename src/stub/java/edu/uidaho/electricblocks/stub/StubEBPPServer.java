@@ -0,0 +1,422 @@
+package edu.uidaho.electricblocks.stub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.uidaho.electricblocks.simulation.EBPPTransport;
+import edu.uidaho.electricblocks.simulation.NetworkBatch;
+import edu.uidaho.electricblocks.simulation.NetworkSession;
+import edu.uidaho.electricblocks.simulation.SimulationMetrics;
+import edu.uidaho.electricblocks.simulation.SimulationResponse;
+import edu.uidaho.electricblocks.simulation.cbor.CborIdTable;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonReader;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonWriter;
+import edu.uidaho.electricblocks.utils.NamedThreadFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Lightweight stand-in for the EBPP simulation server, used to load test the client and to get repeatable responses
+ * without running EBPP and pandapower. It speaks the same protocol as EBPP on the same /api endpoint: KEEP_ALIVE,
+ * SIM_REQUEST, SIM_DELTA against a session and SIM_BATCH, in either JSON or CBOR, with gzip or deflate compressed
+ * requests and gzip compressed responses.
+ *
+ * Networks are solved by a StubSolver, either the instant flat solver or the embedded power flow. Latency, jitter and
+ * failures can be injected to see how the client behaves when EBPP is slow or unreliable. All randomness comes from a
+ * single seeded generator, so a run with one client thread is repeatable.
+ *
+ * Options, all optional:
+ * --port (1127), --threads (8), --solver flat|powerflow (flat), --latency-ms (0), --jitter-ms (0),
+ * --failure-rate (0, fraction of requests answered with HTTP 503), --conv-error-rate (0, fraction of networks answered
+ * with CONV_ERROR), --compression-threshold (1024, responses larger than this many bytes are gzip compressed when the
+ * client accepts it, 0 to never compress), --seed (0).
+ */
+public class StubEBPPServer implements HttpHandler {
+
+    public static final String REQUESTS = "stub.requests";
+    public static final String NETWORKS = "stub.networks";
+    public static final String INJECTED_FAILURES = "stub.injected_failures";
+    public static final String INJECTED_CONV_ERRORS = "stub.injected_conv_errors";
+    public static final String BAD_REQUESTS = "stub.bad_requests";
+    public static final String NANOS = "stub.nanos";
+
+    private static final Gson GSON = new Gson();
+
+    /**
+     * The copy of a network kept for a session so that SIM_DELTA requests can be applied to it, along with the bus
+     * voltages of its last solution that the next delta is started from
+     */
+    private static class Session {
+        int version;
+        JsonObject elements;
+        @Nullable
+        JsonObject init;
+
+        Session(int version, JsonObject elements) {
+            this.version = version;
+            this.elements = elements;
+        }
+    }
+
+    /**
+     * ID table for reading a CBOR request and writing its response. The client numbers the IDs in its request, but the
+     * stub never sees the UUIDs behind the numbers, so each number is read as a UUID shaped string that holds it and
+     * written back as the same number. The same number always gives the same string, so the elements of a session are
+     * found again by the deltas that follow it.
+     */
+    private static class StubIdTable extends CborIdTable {
+
+        private static final String PREFIX = "00000000-0000-4000-8000-";
+
+        @Override
+        public int indexOf(String id) {
+            return id.startsWith(PREFIX) ? Integer.parseInt(id.substring(PREFIX.length())) : super.indexOf(id);
+        }
+
+        @Override
+        public String idOf(long index) {
+            return String.format("%s%012d", PREFIX, index);
+        }
+
+    }
+
+    private final StubSolver solver;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double failureRate;
+    private final double convErrorRate;
+    private final int compressionThreshold;
+    private final Random random;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * @param solver Solves the networks sent to the stub
+     * @param latencyMs Milliseconds every request waits before it is answered
+     * @param jitterMs Up to this many more milliseconds, picked at random, that every request waits
+     * @param failureRate Fraction of requests that are answered with HTTP 503
+     * @param convErrorRate Fraction of networks that are answered with CONV_ERROR instead of being solved
+     * @param compressionThreshold Responses larger than this many bytes are gzip compressed, 0 to never compress
+     * @param seed Seed of the generator used for the jitter and injected failures
+     */
+    public StubEBPPServer(StubSolver solver, long latencyMs, long jitterMs, double failureRate, double convErrorRate,
+                          int compressionThreshold, long seed) {
+        this.solver = solver;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.failureRate = failureRate;
+        this.convErrorRate = convErrorRate;
+        this.compressionThreshold = compressionThreshold;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Gets the copy of a network the stub keeps for a session, as rebuilt from the requests sent in the session.
+     * @param sessionId The ID of the session
+     * @return A copy of the elements of the session's network, or null if the stub doesn't know the session
+     */
+    @Nullable
+    public JsonObject getSessionElements(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+        synchronized (session) {
+            return copy(session.elements);
+        }
+    }
+
+    /**
+     * Forgets every session, as EBPP does when it is restarted.
+     */
+    public void clearSessions() {
+        sessions.clear();
+    }
+
+    public static void main(String[] args) throws IOException {
+        StubArgs options = new StubArgs(args);
+        int port = options.getInt("port", 1127);
+        int threads = options.getInt("threads", 8);
+        StubEBPPServer stub = new StubEBPPServer(
+                StubSolver.valueOf(options.getString("solver", "flat").toUpperCase()),
+                options.getLong("latency-ms", 0),
+                options.getLong("jitter-ms", 0),
+                options.getDouble("failure-rate", 0),
+                options.getDouble("conv-error-rate", 0),
+                options.getInt("compression-threshold", 1024),
+                options.getLong("seed", 0));
+
+        // The response headers and body are written separately, so without this every response waits on a delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/api", stub);
+        server.setExecutor(Executors.newFixedThreadPool(threads, new NamedThreadFactory("Stub EBPP")));
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(SimulationMetrics.snapshot())));
+        System.out.println("Stub EBPP listening on http://localhost:" + port + "/api with " + threads + " threads");
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            SimulationMetrics.increment(REQUESTS);
+            byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+            sleep(latencyMs + (jitterMs > 0 ? (long) (nextDouble() * jitterMs) : 0));
+            if (nextDouble() < failureRate) {
+                SimulationMetrics.increment(INJECTED_FAILURES);
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            boolean cbor = contentType != null && contentType.startsWith(EBPPTransport.CBOR);
+            StubIdTable ids = new StubIdTable();
+            JsonObject request;
+            try (JsonReader reader = openReader(exchange, body, cbor, ids)) {
+                request = new JsonParser().parse(reader).getAsJsonObject();
+            } catch (RuntimeException e) {
+                SimulationMetrics.increment(BAD_REQUESTS);
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            writeResponse(exchange, respond(request), cbor, ids);
+        } finally {
+            exchange.close();
+            SimulationMetrics.add(NANOS, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Answers a single request, which for a SIM_BATCH means answering every network in it.
+     * @param request The request
+     * @return The response
+     */
+    private JsonObject respond(JsonObject request) {
+        String status = request.has("status") ? request.get("status").getAsString() : "";
+        JsonObject response = new JsonObject();
+        switch (status) {
+            case "KEEP_ALIVE":
+                JsonArray encodings = new JsonArray();
+                encodings.add("cbor");
+                response.addProperty("status", "KEEP_ALIVE");
+                response.add("encodings", encodings);
+                return response;
+            case "SIM_REQUEST":
+                return simulate(request);
+            case NetworkSession.SIM_DELTA:
+                return simulateDelta(request);
+            case NetworkBatch.SIM_BATCH:
+                JsonObject networks = new JsonObject();
+                for (Map.Entry<String, JsonElement> entry : request.getAsJsonObject("networks").entrySet()) {
+                    networks.add(entry.getKey(), respond(entry.getValue().getAsJsonObject()));
+                }
+                response.addProperty("status", NetworkBatch.SIM_BATCH);
+                response.add("networks", networks);
+                return response;
+            default:
+                response.addProperty("status", "UNKNOWN_REQUEST");
+                response.addProperty("response", "Unknown request status " + status);
+                return response;
+        }
+    }
+
+    /**
+     * Solves a SIM_REQUEST, starting a session for it if it has one.
+     */
+    private JsonObject simulate(JsonObject request) {
+        if (request.has("session") && request.has("version")) {
+            int version = request.get("version").getAsInt();
+            Session session = new Session(version, copy(request.getAsJsonObject("elements")));
+            sessions.put(request.get("session").getAsString(), session);
+            return keepSolution(session, solve(request, version));
+        }
+        return solve(request, -1);
+    }
+
+    /**
+     * Applies a SIM_DELTA to the network of its session and solves the result. Properties of changed elements replace
+     * the ones in the session, new elements are added and removed elements are dropped.
+     */
+    private JsonObject simulateDelta(JsonObject request) {
+        Session session = sessions.get(request.get("session").getAsString());
+        if (session == null) {
+            return sessionUnknown();
+        }
+        JsonObject changed = request.getAsJsonObject("elements");
+        int version = request.get("version").getAsInt();
+        JsonObject full = new JsonObject();
+        synchronized (session) {
+            if (session.version != request.get("base_version").getAsInt()) {
+                return sessionUnknown();
+            }
+            for (Map.Entry<String, JsonElement> entry : changed.entrySet()) {
+                JsonObject element = session.elements.getAsJsonObject(entry.getKey());
+                if (element == null) {
+                    session.elements.add(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                for (Map.Entry<String, JsonElement> property : entry.getValue().getAsJsonObject().entrySet()) {
+                    element.add(property.getKey(), property.getValue());
+                }
+            }
+            if (request.has("removed")) {
+                for (JsonElement id : request.getAsJsonArray("removed")) {
+                    session.elements.remove(id.getAsString());
+                }
+            }
+            session.version = version;
+            full.add("elements", copy(session.elements));
+            if (session.init != null) {
+                full.add("init", session.init);
+            }
+        }
+        return keepSolution(session, solve(full, version));
+    }
+
+    /**
+     * Keeps the bus voltages of a solved request in its session, if the session hasn't moved on since, so the next
+     * delta starts from them the way EBPP does.
+     */
+    private static JsonObject keepSolution(Session session, JsonObject response) {
+        if (!SimulationResponse.SIM_RESULT.equals(response.has("status") ? response.get("status").getAsString() : null)) {
+            return response;
+        }
+        JsonObject init = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : response.getAsJsonObject("elements").entrySet()) {
+            JsonObject result = entry.getValue().getAsJsonObject();
+            if (result.has("vm_pu") && result.has("va_degree") && !result.get("vm_pu").isJsonNull()
+                    && !result.get("va_degree").isJsonNull()) {
+                JsonObject voltage = new JsonObject();
+                voltage.add("vm_pu", result.get("vm_pu"));
+                voltage.add("va_degree", result.get("va_degree"));
+                init.add(entry.getKey(), voltage);
+            }
+        }
+        synchronized (session) {
+            if (session.version == response.get("version").getAsInt()) {
+                session.init = init;
+            }
+        }
+        return response;
+    }
+
+    private JsonObject solve(JsonObject request, int version) {
+        SimulationMetrics.increment(NETWORKS);
+        JsonObject response;
+        if (nextDouble() < convErrorRate) {
+            SimulationMetrics.increment(INJECTED_CONV_ERRORS);
+            response = new JsonObject();
+            response.addProperty("status", SimulationResponse.CONV_ERROR);
+            response.addProperty("response", "Injected by the stub EBPP server");
+        } else {
+            response = solver.solve(request);
+        }
+        if (version >= 0) {
+            response.addProperty("version", version);
+        }
+        return response;
+    }
+
+    /**
+     * Copies a network so that the solver never sees the copy kept by a session. JsonObject.deepCopy isn't public in
+     * the version of Gson that ships with Minecraft.
+     */
+    private static JsonObject copy(JsonObject elements) {
+        return new JsonParser().parse(elements.toString()).getAsJsonObject();
+    }
+
+    private static JsonObject sessionUnknown() {
+        JsonObject response = new JsonObject();
+        response.addProperty("status", NetworkSession.SESSION_UNKNOWN);
+        return response;
+    }
+
+    private static JsonReader openReader(HttpExchange exchange, byte[] body, boolean cbor, CborIdTable ids) throws IOException {
+        InputStream in = new ByteArrayInputStream(body);
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            in = new GZIPInputStream(in);
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            in = new InflaterInputStream(in);
+        }
+        return cbor ? new CborJsonReader(in, ids) : new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private void writeResponse(HttpExchange exchange, JsonObject response, boolean cbor, CborIdTable ids) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        if (cbor) {
+            JsonWriter writer = new CborJsonWriter(buffer, ids);
+            GSON.toJson(response, writer);
+            writer.flush();
+        } else {
+            Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+            GSON.toJson(response, writer);
+            writer.flush();
+        }
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        byte[] bytes = buffer.toByteArray();
+        if (compressionThreshold > 0 && bytes.length > compressionThreshold && accept != null && accept.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", cbor ? EBPPTransport.CBOR : EBPPTransport.JSON + "; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
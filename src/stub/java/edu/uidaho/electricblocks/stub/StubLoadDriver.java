@@ -0,0 +1,272 @@
+package edu.uidaho.electricblocks.stub;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import edu.uidaho.electricblocks.simulation.EBPPTransport;
+import edu.uidaho.electricblocks.simulation.NetworkBatch;
+import edu.uidaho.electricblocks.simulation.SimulationMetrics;
+import edu.uidaho.electricblocks.simulation.SimulationResponse;
+import edu.uidaho.electricblocks.simulation.SimulationType;
+import edu.uidaho.electricblocks.simulation.cbor.CborIdTable;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonReader;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonWriter;
+import edu.uidaho.electricblocks.utils.NamedThreadFactory;
+
+/**
+ * Sends simulation requests for synthetic networks to an EBPP server, normally the stub server, through the same
+ * EBPPTransport the mod uses and reports the throughput and latency percentiles of the client. Each network is a
+ * radial feeder: an external grid on the first bus, a chain of buses joined by lines and a load on every bus. The load
+ * changes from one request to the next like it would in game.
+ *
+ * Options, all optional:
+ * --url (http://127.0.0.1:1127/api), --requests (1000), --warmup (100, requests sent before measuring),
+ * --concurrency (8), --networks (16, distinct networks cycled through), --buses (20, per network),
+ * --batch (1, networks per request, more than 1 sends SIM_BATCH requests), --cbor, --chunked,
+ * --compression-threshold (0), --compression-level (6), --timeout-ms (30000), --seed (0).
+ */
+public class StubLoadDriver {
+
+    private static final Gson GSON = new Gson();
+
+    /**
+     * The IDs of the elements of a synthetic network
+     */
+    private static class SyntheticNetwork {
+
+        final String extGrid = UUID.randomUUID().toString();
+        final String[] buses;
+        final String[] loads;
+        final String[] lines;
+
+        SyntheticNetwork(int size) {
+            buses = randomIds(size);
+            loads = randomIds(size);
+            lines = randomIds(size - 1);
+        }
+
+        /**
+         * @param loadMw The active power drawn by each load
+         * @return The SIM_REQUEST for the network
+         */
+        JsonObject toRequest(double loadMw) {
+            JsonObject elements = new JsonObject();
+            elements.add(extGrid, element(SimulationType.EXT_GRID, "bus", buses[0]));
+            elements.getAsJsonObject(extGrid).addProperty("vm_pu", 1.0);
+            elements.getAsJsonObject(extGrid).addProperty("va_degree", 0.0);
+            for (int i = 0; i < buses.length; i++) {
+                JsonObject bus = element(SimulationType.BUS, null, null);
+                bus.addProperty("vn_kv", 20.0);
+                elements.add(buses[i], bus);
+
+                JsonObject load = element(SimulationType.LOAD, "bus", buses[i]);
+                load.addProperty("p_mw", loadMw);
+                load.addProperty("q_mvar", loadMw / 4);
+                elements.add(loads[i], load);
+            }
+            for (int i = 0; i < lines.length; i++) {
+                JsonObject line = element(SimulationType.LINE, "from_bus", buses[i]);
+                line.addProperty("to_bus", buses[i + 1]);
+                line.addProperty("length_km", 0.1);
+                line.addProperty("std_type", "NAYY 4x50 SE");
+                elements.add(lines[i], line);
+            }
+            JsonObject request = new JsonObject();
+            request.addProperty("status", "SIM_REQUEST");
+            request.addProperty("3phase", false);
+            request.add("elements", elements);
+            return request;
+        }
+
+        private static JsonObject element(SimulationType etype, String reference, String bus) {
+            JsonObject element = new JsonObject();
+            element.addProperty("etype", etype.toString());
+            element.addProperty("in_service", true);
+            if (reference != null) {
+                element.addProperty(reference, bus);
+            }
+            return element;
+        }
+
+        private static String[] randomIds(int count) {
+            String[] ids = new String[Math.max(0, count)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = UUID.randomUUID().toString();
+            }
+            return ids;
+        }
+
+    }
+
+    private final EBPPTransport transport;
+    private final boolean cbor;
+    private final int batchSize;
+    private final List<SyntheticNetwork> networks = new ArrayList<>();
+    private final double[] loads;
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private StubLoadDriver(EBPPTransport transport, boolean cbor, int batchSize, int networkCount, int buses, long seed) {
+        this.transport = transport;
+        this.cbor = cbor;
+        this.batchSize = Math.max(1, batchSize);
+        for (int i = 0; i < networkCount; i++) {
+            networks.add(new SyntheticNetwork(Math.max(1, buses)));
+        }
+        Random random = new Random(seed);
+        loads = new double[64];
+        for (int i = 0; i < loads.length; i++) {
+            loads[i] = 0.05 + random.nextDouble() * 0.1;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        StubArgs options = new StubArgs(args);
+        int requests = options.getInt("requests", 1000);
+        int warmup = options.getInt("warmup", 100);
+        int concurrency = Math.max(1, options.getInt("concurrency", 8));
+        int timeoutMs = options.getInt("timeout-ms", 30000);
+        // The driver has the JVM to itself, so the keep-alive cache can be sized to keep every connection it opens
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(concurrency));
+        }
+        EBPPTransport transport = new EBPPTransport(options.getString("url", "http://127.0.0.1:1127/api"),
+                timeoutMs, timeoutMs, concurrency, options.getBoolean("chunked"),
+                options.getInt("compression-threshold", 0), options.getInt("compression-level", 6));
+        StubLoadDriver driver = new StubLoadDriver(transport, options.getBoolean("cbor"), options.getInt("batch", 1),
+                Math.max(1, options.getInt("networks", 16)), options.getInt("buses", 20), options.getLong("seed", 0));
+
+        for (int i = 0; i < warmup; i++) {
+            driver.send(i);
+        }
+        driver.failures.set(0);
+        driver.errors.set(0);
+        driver.run(requests, concurrency);
+    }
+
+    /**
+     * Sends the requests from a number of threads at once and prints a report once they have all been answered
+     * @param requests The number of requests to send
+     * @param concurrency The number of requests in flight at a time
+     */
+    private void run(int requests, int concurrency) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("Stub Load"));
+        long start = System.nanoTime();
+        for (int t = 0; t < concurrency; t++) {
+            pool.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    long sent = System.nanoTime();
+                    send(i);
+                    latencies[i] = System.nanoTime() - sent;
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.printf("%d requests of %d networks with %d in flight in %.2f s%n", requests, batchSize, concurrency, seconds);
+        System.out.printf("Throughput: %.1f requests/s, %.1f networks/s%n", requests / seconds, requests * batchSize / seconds);
+        System.out.printf("Latency ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n", percentile(latencies, 50),
+                percentile(latencies, 90), percentile(latencies, 99), percentile(latencies, 100));
+        System.out.printf("Failed requests: %d, networks without results: %d%n", failures.get(), errors.get());
+        for (Map.Entry<String, Long> metric : SimulationMetrics.snapshot().entrySet()) {
+            if (metric.getKey().startsWith("transport.")) {
+                System.out.println(metric.getKey() + " = " + metric.getValue());
+            }
+        }
+    }
+
+    /**
+     * Sends a single request and checks that every network in it was solved
+     * @param index The position of the request in the run, which decides the networks and loads it holds
+     */
+    private void send(int index) {
+        List<JsonObject> requests = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            int n = index * batchSize + i;
+            requests.add(networks.get(n % networks.size()).toRequest(loads[n % loads.length]));
+        }
+        JsonObject body = requests.get(0);
+        if (batchSize > 1) {
+            JsonObject batch = new JsonObject();
+            for (int i = 0; i < requests.size(); i++) {
+                batch.add(Integer.toString(i), requests.get(i));
+            }
+            body = new JsonObject();
+            body.addProperty("status", NetworkBatch.SIM_BATCH);
+            body.add("networks", batch);
+        }
+
+        JsonObject response;
+        try {
+            response = post(body);
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            return;
+        }
+        if (batchSize == 1) {
+            checkResult(response);
+        } else if (response.has("networks")) {
+            JsonObject results = response.getAsJsonObject("networks");
+            for (int i = 0; i < batchSize; i++) {
+                checkResult(results.get(Integer.toString(i)));
+            }
+        } else {
+            errors.addAndGet(batchSize);
+        }
+    }
+
+    private void checkResult(JsonElement result) {
+        if (result == null || !result.isJsonObject() || !result.getAsJsonObject().has("status")
+                || !result.getAsJsonObject().get("status").getAsString().equals(SimulationResponse.SIM_RESULT)) {
+            errors.incrementAndGet();
+        }
+    }
+
+    private JsonObject post(JsonObject body) throws IOException {
+        CborIdTable ids = new CborIdTable();
+        return transport.post(cbor ? EBPPTransport.CBOR : EBPPTransport.JSON, out -> {
+            JsonWriter writer = cbor ? new CborJsonWriter(out, ids) : new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+            GSON.toJson(body, writer);
+            writer.flush();
+        }, in -> {
+            JsonReader reader = cbor ? new CborJsonReader(in, ids) : new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            return new JsonParser().parse(reader).getAsJsonObject();
+        });
+    }
+
+    private static double percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+}
@@ -0,0 +1,122 @@
+package edu.uidaho.electricblocks.stub;
+
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import edu.uidaho.electricblocks.simulation.SimulationResponse;
+import edu.uidaho.electricblocks.simulation.SimulationType;
+import edu.uidaho.electricblocks.simulation.powerflow.EmbeddedPowerFlow;
+
+/**
+ * Solvers the stub server answers SIM_REQUESTs with. Both are deterministic, so the same request always gets the same
+ * response.
+ */
+public enum StubSolver {
+
+    /**
+     * Answers instantly without solving anything. Every bus is at 1 pu, every load and generator gets the power it asked
+     * for, the external grids make up the difference between them and branches carry nothing. Useful for measuring the
+     * client and the transport without the cost of a power flow.
+     */
+    FLAT {
+        @Override
+        JsonObject solve(JsonObject request) {
+            JsonObject elements = request.getAsJsonObject("elements");
+            JsonObject results = new JsonObject();
+            double p = 0;
+            double q = 0;
+            int extGrids = 0;
+            for (Map.Entry<String, JsonElement> entry : elements.entrySet()) {
+                JsonObject element = entry.getValue().getAsJsonObject();
+                String etype = getString(element, "etype");
+                boolean inService = !element.has("in_service") || element.get("in_service").getAsBoolean();
+                if (isLoad(etype)) {
+                    p += inService ? getDouble(element, "p_mw") : 0;
+                    q += inService ? getDouble(element, "q_mvar") : 0;
+                } else if (isGenerator(etype)) {
+                    p -= inService ? getDouble(element, "p_mw") : 0;
+                } else if (etype.equals(SimulationType.EXT_GRID.toString()) && inService) {
+                    extGrids++;
+                }
+            }
+
+            for (Map.Entry<String, JsonElement> entry : elements.entrySet()) {
+                JsonObject element = entry.getValue().getAsJsonObject();
+                String etype = getString(element, "etype");
+                boolean inService = !element.has("in_service") || element.get("in_service").getAsBoolean();
+                JsonObject result = new JsonObject();
+                if (etype.equals(SimulationType.BUS.toString())) {
+                    result.addProperty("vm_pu", 1.0);
+                    result.addProperty("va_degree", 0.0);
+                    result.addProperty("p_mw", 0.0);
+                    result.addProperty("q_mvar", 0.0);
+                } else if (isLoad(etype)) {
+                    result.addProperty("p_mw", inService ? getDouble(element, "p_mw") : 0);
+                    result.addProperty("q_mvar", inService ? getDouble(element, "q_mvar") : 0);
+                } else if (isGenerator(etype)) {
+                    result.addProperty("p_mw", inService ? getDouble(element, "p_mw") : 0);
+                    result.addProperty("q_mvar", 0.0);
+                    result.addProperty("va_degree", 0.0);
+                    result.addProperty("vm_pu", inService ? 1.0 : 0);
+                } else if (etype.equals(SimulationType.EXT_GRID.toString())) {
+                    result.addProperty("p_mw", inService && extGrids > 0 ? p / extGrids : 0);
+                    result.addProperty("q_mvar", inService && extGrids > 0 ? q / extGrids : 0);
+                } else {
+                    boolean line = etype.equals(SimulationType.LINE.toString());
+                    String from = line ? "from" : "hv";
+                    String to = line ? "to" : "lv";
+                    for (String key : new String[] {"p_" + from + "_mw", "q_" + from + "_mvar", "p_" + to + "_mw",
+                            "q_" + to + "_mvar", "pl_mw", "ql_mvar", "i_" + from + "_ka", "i_" + to + "_ka", "loading_percent"}) {
+                        result.addProperty(key, 0.0);
+                    }
+                    result.addProperty("vm_" + from + "_pu", 1.0);
+                    result.addProperty("vm_" + to + "_pu", 1.0);
+                }
+                results.add(entry.getKey(), result);
+            }
+
+            JsonObject response = new JsonObject();
+            response.addProperty("status", SimulationResponse.SIM_RESULT);
+            response.addProperty("iterations", 0);
+            response.add("elements", results);
+            return response;
+        }
+    },
+
+    /**
+     * Solves the request with the embedded Newton-Raphson power flow, giving the same results as the embedded backend
+     */
+    POWERFLOW {
+        @Override
+        JsonObject solve(JsonObject request) {
+            return EmbeddedPowerFlow.solve(request);
+        }
+    };
+
+    /**
+     * @param request A SIM_REQUEST, or a SIM_DELTA merged into the network it changes
+     * @return The response to the request
+     */
+    abstract JsonObject solve(JsonObject request);
+
+    private static boolean isLoad(String etype) {
+        return etype.equals(SimulationType.LOAD.toString()) || etype.equals(SimulationType.BATTERY.toString())
+                || etype.equals(SimulationType.ASYMMETRIC_LOAD.toString());
+    }
+
+    private static boolean isGenerator(String etype) {
+        return etype.equals(SimulationType.GENERATOR.toString()) || etype.equals(SimulationType.ASYMMETRIC_GENERATOR.toString())
+                || etype.equals("sgen");
+    }
+
+    private static String getString(JsonObject element, String name) {
+        return element.has(name) ? element.get(name).getAsString() : "";
+    }
+
+    private static double getDouble(JsonObject element, String name) {
+        return element.has(name) && element.get(name).isJsonPrimitive() ? element.get(name).getAsDouble() : 0;
+    }
+
+}
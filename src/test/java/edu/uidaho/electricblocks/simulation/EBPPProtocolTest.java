@@ -0,0 +1,216 @@
+package edu.uidaho.electricblocks.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+
+import edu.uidaho.electricblocks.simulation.cbor.CborIdTable;
+import edu.uidaho.electricblocks.simulation.powerflow.EmbeddedPowerFlow;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.math.BlockPos;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Sends every kind of request the mod makes to the stub EBPP server, as JSON and as CBOR, and reads the responses with
+ * the same code the mod uses. The results have to match the embedded power flow solving the same networks.
+ */
+public class EBPPProtocolTest {
+
+    private StubServerFixture fixture;
+
+    @After
+    public void tearDown() {
+        if (fixture != null) {
+            fixture.stop();
+        }
+    }
+
+    @Test
+    public void keepAliveAdvertisesCbor() throws IOException {
+        fixture = new StubServerFixture();
+        JsonObject response = fixture.post(writer -> writer.beginObject().name("status").value("KEEP_ALIVE").endObject(),
+                reader -> new JsonParser().parse(reader).getAsJsonObject(), null);
+        assertEquals("KEEP_ALIVE", response.get("status").getAsString());
+        assertTrue(response.getAsJsonArray("encodings").contains(new JsonPrimitive("cbor")));
+    }
+
+    @Test
+    public void simRequest() throws IOException {
+        fixture = new StubServerFixture();
+        SimulationNetwork network = network(0);
+        checkSolved(network, fixture.post(network::writeJson, network::readSimulationResults, null));
+    }
+
+    @Test
+    public void simRequestAsCbor() throws IOException {
+        fixture = new StubServerFixture();
+        SimulationNetwork network = network(0);
+        checkSolved(network, fixture.post(network::writeJson, network::readSimulationResults, new CborIdTable()));
+    }
+
+    @Test
+    public void compressedSimRequest() throws IOException {
+        fixture = new StubServerFixture(0, 0, 1);
+        SimulationNetwork network = network(0);
+        checkSolved(network, fixture.post(network::writeJson, network::readSimulationResults, null));
+        checkSolved(network, fixture.post(network::writeJson, network::readSimulationResults, new CborIdTable()));
+    }
+
+    @Test
+    public void batchOfFullRequests() throws IOException {
+        fixture = new StubServerFixture();
+        List<SimulationNetwork> networks = Arrays.asList(network(0), network(100), network(200));
+        for (CborIdTable ids : new CborIdTable[] {null, new CborIdTable()}) {
+            NetworkBatch batch = new NetworkBatch(networks, null);
+            assertTrue(fixture.post(batch::writeJson, batch::readResponses, ids));
+            for (int i = 0; i < networks.size(); i++) {
+                checkSolved(networks.get(i), batch.getResponse(i));
+            }
+        }
+    }
+
+    @Test
+    public void batchOfSessionRequests() throws IOException {
+        fixture = new StubServerFixture();
+        List<SimulationNetwork> networks = Arrays.asList(network(0), network(100));
+        for (CborIdTable ids : new CborIdTable[] {null, new CborIdTable()}) {
+            NetworkBatch full = sendBatch(networks, ids);
+            assertTrue(!full.getRequest(0).isDelta() && !full.getRequest(1).isDelta());
+
+            // Only the second network has changed, the first is sent as an empty delta
+            ((TestTileEntity) networks.get(1).getSimulationList().get(1)).setInput("p_mw", 0.3);
+            NetworkBatch delta = sendBatch(networks, ids);
+            assertTrue(delta.getRequest(0).isDelta() && delta.getRequest(1).isDelta());
+            for (SimulationNetwork network : networks) {
+                network.getSession().reset();
+            }
+        }
+    }
+
+    @Test
+    public void deltaAgainstAnotherVersionIsUnknown() throws IOException {
+        fixture = new StubServerFixture();
+        SimulationNetwork network = network(0);
+        NetworkSession session = network.getSession();
+        sendSessionRequest(network, null);
+
+        // The response to this delta is lost, so EBPP is a version ahead of the session
+        ((TestTileEntity) network.getSimulationList().get(1)).setInput("p_mw", 0.4);
+        NetworkSession.Request lost = session.prepare(network);
+        fixture.post(lost::writeJson, network::readSimulationResults, null);
+
+        ((TestTileEntity) network.getSimulationList().get(1)).setInput("p_mw", 0.5);
+        NetworkSession.Request delta = session.prepare(network);
+        SimulationResponse response = fixture.post(delta::writeJson, network::readSimulationResults, null);
+        assertEquals(NetworkSession.SESSION_UNKNOWN, response.getStatus());
+
+        session.reset();
+        checkSolved(network, sendSessionRequest(network, new CborIdTable()));
+    }
+
+    @Test
+    public void injectedConvErrorsAreReported() throws IOException {
+        fixture = new StubServerFixture(0, 1, 0);
+        SimulationNetwork network = network(0);
+        SimulationResponse response = fixture.post(network::writeJson, network::readSimulationResults, null);
+        assertEquals(SimulationResponse.CONV_ERROR, response.getStatus());
+    }
+
+    @Test
+    public void injectedFailuresFailTheRequest() throws IOException {
+        fixture = new StubServerFixture(1, 0, 0);
+        SimulationNetwork network = network(0);
+        try {
+            fixture.post(network::writeJson, network::readSimulationResults, null);
+            fail("The stub should have answered with HTTP 503");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Sends the next request of each network's session in a batch, checks the results and acknowledges them
+     */
+    private NetworkBatch sendBatch(List<SimulationNetwork> networks, CborIdTable ids) throws IOException {
+        List<NetworkSession.Request> requests = new ArrayList<>();
+        for (SimulationNetwork network : networks) {
+            requests.add(network.getSession().prepare(network));
+        }
+        NetworkBatch batch = new NetworkBatch(networks, requests);
+        assertTrue(fixture.post(batch::writeJson, batch::readResponses, ids));
+        for (int i = 0; i < networks.size(); i++) {
+            checkSolved(networks.get(i), batch.getResponse(i));
+            networks.get(i).getSession().acknowledge(requests.get(i), batch.getResponse(i));
+        }
+        return batch;
+    }
+
+    /**
+     * Sends the next request of a network's session and acknowledges it
+     * @param ids The table of the session if the request is sent as CBOR, null to send it as JSON
+     */
+    private SimulationResponse sendSessionRequest(SimulationNetwork network, CborIdTable ids) throws IOException {
+        NetworkSession.Request request = network.getSession().prepare(network);
+        SimulationResponse response = fixture.post(request::writeJson, network::readSimulationResults,
+                ids == null ? null : request.getIds());
+        network.getSession().acknowledge(request, response);
+        return response;
+    }
+
+    /**
+     * Checks that a response holds the same results the embedded power flow finds for the whole network
+     */
+    private static void checkSolved(SimulationNetwork network, SimulationResponse response) throws IOException {
+        assertNotNull(response);
+        assertEquals(response.getMessage(), SimulationResponse.SIM_RESULT, response.getStatus());
+        JsonObject solved = EmbeddedPowerFlow.solve(new JsonParser().parse(network.toJsonString()).getAsJsonObject());
+        Object[][] expected = network.readSimulationResults(new JsonReader(new StringReader(solved.toString()))).getResults();
+        Object[][] actual = response.getResults();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertNotNull("No results for element " + i, actual[i]);
+            for (int slot = 0; slot < expected[i].length; slot++) {
+                if (expected[i][slot] instanceof Double) {
+                    assertEquals((Double) expected[i][slot], (Double) actual[i][slot], 1e-6);
+                } else {
+                    assertEquals(expected[i][slot], actual[i][slot]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a network with an external grid and two loads in a row, each load on a line from the element before it
+     * @param x Where along the x axis the network is built, so that networks don't share positions
+     */
+    private static SimulationNetwork network(int x) {
+        TestTileEntity extGrid = new TestTileEntity(SimulationType.EXT_GRID, new BlockPos(x, 64, 0));
+        TestTileEntity load1 = new TestTileEntity(SimulationType.LOAD, new BlockPos(x, 64, 10));
+        TestTileEntity load2 = new TestTileEntity(SimulationType.LOAD, new BlockPos(x, 64, 30));
+        load2.setInput("q_mvar", 0.2);
+        List<SimulationConnection> lines = Arrays.asList(line(extGrid, load1), line(load1, load2));
+        return new SimulationNetwork(new NetworkTopology(new LongOpenHashSet(),
+                Arrays.asList(extGrid, load1, load2), lines, false));
+    }
+
+    private static SimulationConnection line(TestTileEntity from, TestTileEntity to) {
+        SimulationConnection line = new SimulationConnection(from.getBus(), from.getPos().south().toLong());
+        line.setToBus(to.getBus());
+        line.incrementLength(from.getPos().manhattanDistance(to.getPos()) * 10);
+        return line;
+    }
+
+}
@@ -0,0 +1,255 @@
+package edu.uidaho.electricblocks.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import edu.uidaho.electricblocks.simulation.powerflow.EmbeddedPowerFlow;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends the requests of a session to the stub EBPP server and checks that the network the stub rebuilds from the
+ * deltas is the same network a full upload would have sent, and that it is solved the same way.
+ */
+public class NetworkSessionTest {
+
+    private StubServerFixture fixture;
+    private TestTileEntity extGrid;
+    private TestTileEntity load1;
+    private TestTileEntity load2;
+    private List<SimulationTileEntity> simTileEntities;
+    private List<SimulationConnection> simConnections;
+
+    @Before
+    public void setUp() throws IOException {
+        fixture = new StubServerFixture();
+        extGrid = new TestTileEntity(SimulationType.EXT_GRID);
+        load1 = new TestTileEntity(SimulationType.LOAD);
+        load2 = new TestTileEntity(SimulationType.LOAD);
+        simTileEntities = new ArrayList<>(Arrays.asList(extGrid, load1, load2));
+        simConnections = new ArrayList<>(Arrays.asList(line(extGrid, load1, 1), line(load1, load2, 2)));
+    }
+
+    @After
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Test
+    public void firstRequestUploadsTheWholeNetwork() throws IOException {
+        NetworkSession session = new NetworkSession();
+        NetworkSession.Request request = session.prepare(simTileEntities, simConnections, null);
+        assertFalse(request.isDelta());
+        send(session, request);
+        assertEquals(fullElements(), fixture.getStub().getSessionElements(session.getId()));
+    }
+
+    @Test
+    public void deltaOnlyHoldsChangedElements() throws IOException {
+        NetworkSession session = new NetworkSession();
+        send(session, session.prepare(simTileEntities, simConnections, null));
+
+        load1.setInput("p_mw", 0.5);
+        NetworkSession.Request request = session.prepare(simTileEntities, simConnections, null);
+        assertTrue(request.isDelta());
+        JsonObject body = new JsonParser().parse(request.toString()).getAsJsonObject();
+        JsonObject elements = body.getAsJsonObject("elements");
+        assertEquals(2, elements.size()); // The load and its embedded bus
+        assertTrue(elements.has(load1.getSimulationID().toString()));
+        assertFalse(body.has("removed"));
+
+        send(session, request);
+        NetworkSession.Request unchanged = session.prepare(simTileEntities, simConnections, null);
+        assertEquals(0, new JsonParser().parse(unchanged.toString()).getAsJsonObject().getAsJsonObject("elements").size());
+    }
+
+    @Test
+    public void deltasRebuildTheNetwork() throws IOException {
+        NetworkSession session = new NetworkSession();
+        checkSolved(send(session, session.prepare(simTileEntities, simConnections, null)));
+
+        load1.setInput("p_mw", 0.4);
+        load2.setInput("q_mvar", 0.1);
+        checkDelta(session);
+
+        load2.setInService(false);
+        checkDelta(session);
+
+        TestTileEntity load3 = new TestTileEntity(SimulationType.LOAD);
+        load3.setInput("p_mw", 0.2);
+        simTileEntities.add(load3);
+        simConnections.add(line(load1, load3, 3));
+        checkDelta(session);
+
+        simTileEntities.remove(load2);
+        simConnections.remove(1);
+        checkDelta(session);
+
+        SimulationConnection longer = line(extGrid, load1, 1);
+        longer.incrementLength(50);
+        simConnections.set(0, longer);
+        checkDelta(session);
+    }
+
+    @Test
+    public void initialGuessIsOnlySentWithFullUploads() throws IOException {
+        WarmStart init = new WarmStart();
+        init.update(Collections.singletonMap(load1.getBus().toString(), new double[] {0.98, -1.0}));
+        NetworkSession session = new NetworkSession();
+        NetworkSession.Request full = session.prepare(simTileEntities, simConnections, init);
+        assertTrue(new JsonParser().parse(full.toString()).getAsJsonObject().has("init"));
+        checkSolved(send(session, full));
+
+        load1.setInput("p_mw", 0.6);
+        NetworkSession.Request delta = session.prepare(simTileEntities, simConnections, init);
+        assertFalse(new JsonParser().parse(delta.toString()).getAsJsonObject().has("init"));
+        checkSolved(send(session, delta));
+    }
+
+    @Test
+    public void cborDeltasNumberIdsLikeTheirSession() throws IOException {
+        NetworkSession session = new NetworkSession();
+        checkSolved(sendCbor(session, session.prepare(simTileEntities, simConnections, null)));
+
+        // Only load2 is in the delta, so a table of its own would give it the numbers of the external grid
+        load2.setInput("p_mw", 0.7);
+        checkSolved(sendCbor(session, session.prepare(simTileEntities, simConnections, null)));
+
+        simConnections.remove(1);
+        simTileEntities.remove(load2);
+        checkSolved(sendCbor(session, session.prepare(simTileEntities, simConnections, null)));
+
+        // The stub only sees the numbers, but every bus reference has to lead to a bus of the session
+        JsonObject elements = fixture.getStub().getSessionElements(session.getId());
+        assertEquals(fullElements().size(), elements.size());
+        for (Map.Entry<String, JsonElement> element : elements.entrySet()) {
+            for (String reference : new String[] {"bus", "from_bus", "to_bus"}) {
+                JsonElement bus = element.getValue().getAsJsonObject().get(reference);
+                if (bus != null) {
+                    assertTrue(element.getKey() + " " + reference, elements.has(bus.getAsString()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unknownSessionIsUploadedAgain() throws IOException {
+        NetworkSession session = new NetworkSession();
+        send(session, session.prepare(simTileEntities, simConnections, null));
+        fixture.getStub().clearSessions();
+
+        load2.setInput("p_mw", 0.3);
+        NetworkSession.Request delta = session.prepare(simTileEntities, simConnections, null);
+        JsonObject response = send(session, delta);
+        assertEquals(NetworkSession.SESSION_UNKNOWN, response.get("status").getAsString());
+
+        session.reset();
+        NetworkSession.Request full = session.prepare(simTileEntities, simConnections, null);
+        assertFalse(full.isDelta());
+        checkSolved(send(session, full));
+        assertEquals(fullElements(), fixture.getStub().getSessionElements(session.getId()));
+    }
+
+    @Test
+    public void sessionIsCarriedOverWhenTheNetworkChanges() {
+        NetworkSession session = NetworkSession.claim(simTileEntities);
+        assertSame(session, NetworkSession.claim(Arrays.asList(load2, load1, extGrid)));
+
+        TestTileEntity other = new TestTileEntity(SimulationType.LOAD);
+        NetworkSession otherSession = NetworkSession.claim(Arrays.asList(other));
+        assertNotSame(session, otherSession);
+
+        // Joining two networks keeps the session of the first one found, splitting them gives the rest a new session
+        assertSame(session, NetworkSession.claim(Arrays.asList(extGrid, other)));
+        assertNotSame(session, NetworkSession.claim(Arrays.asList(other)));
+    }
+
+    /**
+     * Sends the next delta of a session and checks the stub's copy of the network and the results against a full
+     * upload of the network
+     */
+    private void checkDelta(NetworkSession session) throws IOException {
+        NetworkSession.Request request = session.prepare(simTileEntities, simConnections, null);
+        assertTrue(request.isDelta());
+        JsonObject response = send(session, request);
+        checkSolved(response);
+        assertEquals(fullElements(), fixture.getStub().getSessionElements(session.getId()));
+    }
+
+    /**
+     * Checks that the stub solved a network the same way the embedded power flow solves the full network. The stub
+     * starts a delta from the solution of the last request, so the results only agree to within the solver's tolerance.
+     */
+    private void checkSolved(JsonObject response) {
+        assertEquals(SimulationResponse.SIM_RESULT, response.get("status").getAsString());
+        JsonObject request = new JsonObject();
+        request.addProperty("status", "SIM_REQUEST");
+        request.add("elements", fullElements());
+        JsonObject expected = EmbeddedPowerFlow.solve(request).getAsJsonObject("elements");
+        JsonObject actual = response.getAsJsonObject("elements");
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<String, JsonElement> element : expected.entrySet()) {
+            for (Map.Entry<String, JsonElement> result : element.getValue().getAsJsonObject().entrySet()) {
+                String name = element.getKey() + " " + result.getKey();
+                JsonElement value = actual.getAsJsonObject(element.getKey()).get(result.getKey());
+                if (result.getValue().isJsonNull()) {
+                    assertTrue(name, value.isJsonNull());
+                } else {
+                    assertEquals(name, result.getValue().getAsDouble(), value.getAsDouble(), 1e-6);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a request and acknowledges it in its session
+     */
+    private JsonObject send(NetworkSession session, NetworkSession.Request request) throws IOException {
+        JsonObject response = fixture.post(request);
+        String status = response.has("status") ? response.get("status").getAsString() : null;
+        int version = response.has("version") ? response.get("version").getAsInt() : -1;
+        session.acknowledge(request, new SimulationResponse(status, null, new Object[0][], version));
+        return response;
+    }
+
+    /**
+     * Sends a request as CBOR and acknowledges it in its session
+     */
+    private JsonObject sendCbor(NetworkSession session, NetworkSession.Request request) throws IOException {
+        JsonObject response = fixture.postCbor(request);
+        session.acknowledge(request, new SimulationResponse(response.get("status").getAsString(), null, new Object[0][],
+                response.has("version") ? response.get("version").getAsInt() : -1));
+        return response;
+    }
+
+    /**
+     * @return The elements of the network as they would be sent in a full upload
+     */
+    private JsonObject fullElements() {
+        NetworkSession.Request full = new NetworkSession().prepare(simTileEntities, simConnections, null);
+        return new JsonParser().parse(full.toString()).getAsJsonObject().getAsJsonObject("elements");
+    }
+
+    private static SimulationConnection line(TestTileEntity from, TestTileEntity to, long startPos) {
+        SimulationConnection line = new SimulationConnection(from.getBus(), startPos);
+        line.setToBus(to.getBus());
+        line.incrementLength(100);
+        return line;
+    }
+
+}
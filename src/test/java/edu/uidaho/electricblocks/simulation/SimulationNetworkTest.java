@@ -0,0 +1,95 @@
+package edu.uidaho.electricblocks.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.math.BlockPos;
+import org.junit.Test;
+
+/**
+ * Checks that the fingerprint of a network only depends on its blocks and their inputs, so cached results are found
+ * again after the blocks have been reloaded with new simulation IDs.
+ */
+public class SimulationNetworkTest {
+
+    private static final BlockPos EXT_GRID = new BlockPos(0, 64, 0);
+    private static final BlockPos LOAD_1 = new BlockPos(5, 64, 0);
+    private static final BlockPos LOAD_2 = new BlockPos(5, 64, 7);
+
+    @Test
+    public void reloadedBlocksHaveTheSameFingerprint() {
+        TestTileEntity[] first = tileEntities(LOAD_1);
+        TestTileEntity[] reloaded = tileEntities(LOAD_1);
+        SimulationNetwork network = network(Arrays.asList(first[0], first[1], first[2]), first);
+        // Discovered from another block, so the tile entities and lines are found in another order
+        SimulationNetwork again = network(Arrays.asList(reloaded[2], reloaded[0], reloaded[1]), reloaded[2], reloaded[1], reloaded[0]);
+        assertEquals(network.fingerprint(), again.fingerprint());
+        assertEquals(positions(network), positions(again));
+    }
+
+    @Test
+    public void changedInputChangesTheFingerprint() {
+        TestTileEntity[] tileEntities = tileEntities(LOAD_1);
+        SimulationNetwork network = network(Arrays.asList(tileEntities), tileEntities);
+        String fingerprint = network.fingerprint();
+        tileEntities[1].setInput("p_mw", 0.5);
+        assertNotEquals(fingerprint, network.fingerprint());
+        tileEntities[1].setInput("p_mw", 1.0);
+        assertEquals(fingerprint, network.fingerprint());
+    }
+
+    @Test
+    public void movedBlockChangesTheFingerprint() {
+        TestTileEntity[] tileEntities = tileEntities(LOAD_1);
+        TestTileEntity[] moved = tileEntities(new BlockPos(6, 64, 0));
+        assertNotEquals(network(Arrays.asList(tileEntities), tileEntities).fingerprint(),
+                network(Arrays.asList(moved), moved).fingerprint());
+    }
+
+    /**
+     * @return An external grid with a load on either side of it
+     */
+    private static TestTileEntity[] tileEntities(BlockPos load1) {
+        return new TestTileEntity[] {
+                new TestTileEntity(SimulationType.EXT_GRID, EXT_GRID),
+                new TestTileEntity(SimulationType.LOAD, load1),
+                new TestTileEntity(SimulationType.LOAD, LOAD_2)
+        };
+    }
+
+    /**
+     * Builds a network with a line from the external grid to each load, written in the order the ends are given
+     */
+    private static SimulationNetwork network(List<SimulationTileEntity> found, TestTileEntity... ends) {
+        TestTileEntity extGrid = null;
+        for (TestTileEntity end : ends) {
+            if (end.getSimulationType() == SimulationType.EXT_GRID) {
+                extGrid = end;
+            }
+        }
+        SimulationConnection[] lines = new SimulationConnection[2];
+        int i = 0;
+        for (TestTileEntity end : ends) {
+            if (end != extGrid) {
+                SimulationConnection line = new SimulationConnection(extGrid.getBus(), end.getPos().south().toLong());
+                line.setToBus(end.getBus());
+                line.incrementLength(end.getPos().manhattanDistance(extGrid.getPos()));
+                lines[i++] = line;
+            }
+        }
+        return new SimulationNetwork(new NetworkTopology(new LongOpenHashSet(), found, Arrays.asList(lines), false));
+    }
+
+    private static List<Long> positions(SimulationNetwork network) {
+        Long[] positions = new Long[network.getSimulationList().size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = network.getSimulationList().get(i).getPos().toLong();
+        }
+        return Arrays.asList(positions);
+    }
+
+}
@@ -0,0 +1,150 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.uidaho.electricblocks.simulation.cbor.CborIdTable;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonReader;
+import edu.uidaho.electricblocks.simulation.cbor.CborJsonWriter;
+import edu.uidaho.electricblocks.stub.StubEBPPServer;
+import edu.uidaho.electricblocks.stub.StubSolver;
+
+import javax.annotation.Nullable;
+
+/**
+ * Runs the stub EBPP server on a free local port for the length of a test and sends requests to it through an
+ * EBPPTransport, the same way the mod talks to EBPP.
+ */
+public class StubServerFixture {
+
+    private final StubEBPPServer stub;
+    private final HttpServer server;
+    private final EBPPTransport transport;
+
+    /**
+     * Writes the body of a request to a JsonWriter, like the elements and networks of the mod do
+     */
+    public interface JsonBody {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * Reads the body of a response from a JsonReader, like the networks of the mod do
+     */
+    public interface JsonResponse<T> {
+        T read(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Starts a stub server that solves networks with the embedded power flow
+     * @throws IOException If the server could not be started
+     */
+    public StubServerFixture() throws IOException {
+        this(0, 0, 0);
+    }
+
+    /**
+     * Starts a stub server that solves networks with the embedded power flow and injects failures
+     * @param failureRate Fraction of requests that are answered with HTTP 503
+     * @param convErrorRate Fraction of networks that are answered with CONV_ERROR
+     * @param compressionThreshold Requests and responses larger than this many bytes are compressed, 0 to never
+     *                             compress
+     * @throws IOException If the server could not be started
+     */
+    public StubServerFixture(double failureRate, double convErrorRate, int compressionThreshold) throws IOException {
+        stub = new StubEBPPServer(StubSolver.POWERFLOW, 0, 0, failureRate, convErrorRate, compressionThreshold, 0);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api", stub);
+        server.start();
+        transport = new EBPPTransport("http://127.0.0.1:" + server.getAddress().getPort() + "/api",
+                5000, 5000, 2, false, compressionThreshold, 6);
+    }
+
+    /**
+     * Sends a request as JSON and parses the response
+     * @param body Writes the request
+     * @return The response
+     * @throws IOException If the request failed
+     */
+    public JsonObject post(EBPPTransport.BodyWriter body) throws IOException {
+        return transport.post(EBPPTransport.JSON, body, in -> new JsonParser().parse(
+                new InputStreamReader(in, StandardCharsets.UTF_8)).getAsJsonObject());
+    }
+
+    /**
+     * Sends a request built by a session as JSON and parses the response
+     * @param request The request
+     * @return The response
+     * @throws IOException If the request failed
+     */
+    public JsonObject post(NetworkSession.Request request) throws IOException {
+        return post(out -> {
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            request.writeJson(writer);
+            writer.flush();
+        });
+    }
+
+    /**
+     * Sends a request the same way SimulationHandler does, as JSON or as CBOR
+     * @param body Writes the request
+     * @param response Reads the response
+     * @param ids The table IDs are numbered with if the request is sent as CBOR, null to send it as JSON
+     * @param <T> The type of the value read from the response
+     * @return The value read from the response
+     * @throws IOException If the request failed
+     */
+    public <T> T post(JsonBody body, JsonResponse<T> response, @Nullable CborIdTable ids) throws IOException {
+        return transport.post(ids != null ? EBPPTransport.CBOR : EBPPTransport.JSON, out -> {
+            JsonWriter writer = ids != null ? new CborJsonWriter(out, ids) : new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            body.write(writer);
+            writer.flush();
+        }, in -> response.read(ids != null ? new CborJsonReader(in, ids) : new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Sends a request built by a session as CBOR, numbering its IDs with the table of the session, and reads the
+     * response with the same table
+     * @param request The request
+     * @return The response, with the IDs turned back into UUIDs
+     * @throws IOException If the request failed
+     */
+    public JsonObject postCbor(NetworkSession.Request request) throws IOException {
+        return transport.post(EBPPTransport.CBOR, out -> {
+            JsonWriter writer = new CborJsonWriter(out, request.getIds());
+            request.writeJson(writer);
+            writer.flush();
+        }, in -> new JsonParser().parse(new CborJsonReader(in, request.getIds())).getAsJsonObject());
+    }
+
+    /**
+     * @return The stub server handling the requests
+     */
+    public StubEBPPServer getStub() {
+        return stub;
+    }
+
+    /**
+     * @return The transport connected to the stub server
+     */
+    public EBPPTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Stops the stub server
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+}
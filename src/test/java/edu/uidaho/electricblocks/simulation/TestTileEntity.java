@@ -0,0 +1,100 @@
+package edu.uidaho.electricblocks.simulation;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.gson.stream.JsonWriter;
+
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * A SimulationTileEntity that can be created outside of a running game. It is written the same way as a load or an
+ * external grid, with the element on its own embedded bus.
+ */
+public class TestTileEntity extends SimulationTileEntity {
+
+    private static final Map<String, SimulationProperty> loadInputs = new LinkedHashMap<>();
+    private static final Map<String, SimulationProperty> extGridInputs = new LinkedHashMap<>();
+    private static final Map<String, SimulationProperty> defaultOutputs = new LinkedHashMap<>();
+
+    static {
+        loadInputs.put("in_service", new SimulationProperty("In Service", "N/a", false, 1));
+        loadInputs.put("p_mw", new SimulationProperty("Active Power", "MW", 1.0, 1));
+        loadInputs.put("q_mvar", new SimulationProperty("Reactive Power", "Mvar", 0.0, 2));
+        loadInputs.put("vn_kv", new SimulationProperty("Bus Voltage", "kV", 20.0, false, 3));
+
+        extGridInputs.put("in_service", new SimulationProperty("In Service", "N/a", false, 2));
+        extGridInputs.put("vm_pu", new SimulationProperty("Slack Voltage", "pu", 1.0, 3));
+        extGridInputs.put("va_degree", new SimulationProperty("Voltage Angle", "degrees", 0.0, 3));
+        extGridInputs.put("vn_kv", new SimulationProperty("Bus Voltage", "kV", 20.0, false, 3));
+
+        defaultOutputs.put("p_mw", new SimulationProperty("Active Power", "MW", 0.0, 1));
+        defaultOutputs.put("q_mvar", new SimulationProperty("Reactive Power", "Mvar", 0.0, 2));
+    }
+
+    /**
+     * Creates an element that is in service
+     * @param simulationType Either LOAD or EXT_GRID
+     */
+    public TestTileEntity(SimulationType simulationType) {
+        super(null, simulationType);
+        setInService(true);
+    }
+
+    /**
+     * Creates an element that is in service at a block position
+     * @param simulationType Either LOAD or EXT_GRID
+     * @param pos The position of the element's block
+     */
+    public TestTileEntity(SimulationType simulationType, BlockPos pos) {
+        this(simulationType);
+        setPos(pos);
+    }
+
+    /**
+     * Changes a numerical input the same way the GUI does
+     * @param name The name of the input
+     * @param value The new value of the input
+     */
+    public void setInput(String name, double value) {
+        inputs.get(name).set(value);
+        markInputsChanged();
+    }
+
+    /**
+     * @return The UUID of the bus this element is on
+     */
+    public UUID getBus() {
+        return embededBusses.get("main");
+    }
+
+    @Override
+    public void writeJson(JsonWriter writer) throws IOException {
+        UUID busId = getBus();
+        writeBus(writer, busId, inputs.get("vn_kv").getDouble());
+
+        writer.name(getSimulationID().toString()).beginObject();
+        writer.name("etype").value(getSimulationType().toString());
+        writer.name("bus").value(busId.toString());
+        writeInputs(writer);
+        writer.endObject();
+    }
+
+    @Override
+    public String getTranslationString() {
+        return "gui.electricblocks.loadscreen";
+    }
+
+    @Override
+    public Map<String, SimulationProperty> getDefaultInputs() {
+        return getSimulationType() == SimulationType.EXT_GRID ? extGridInputs : loadInputs;
+    }
+
+    @Override
+    public Map<String, SimulationProperty> getDefaultOutputs() {
+        return defaultOutputs;
+    }
+
+}
@@ -0,0 +1,176 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the structure and values of AdmittanceMatrix against a dense matrix assembled directly from the branches of a
+ * case.
+ */
+public class AdmittanceMatrixTest {
+
+    private JsonObject elements;
+
+    @Before
+    public void setUp() {
+        elements = new JsonObject();
+    }
+
+    @Test
+    public void mergesParallelBranches() {
+        bus("b1", 0.4);
+        bus("b2", 0.4);
+        bus("b3", 0.4);
+        line("line1", "b1", "b2", 0.1);
+        line("line2", "b1", "b2", 0.25);
+        line("line3", "b2", "b3", 0.1);
+        PowerFlowCase pfCase = PowerFlowCase.fromElements(elements);
+        AdmittanceMatrix y = new AdmittanceMatrix(pfCase);
+
+        // Three diagonal entries and one entry each way for the two pairs of buses with a branch between them
+        assertEquals(7, y.nonZeros());
+        PowerFlowCase.Branch line1 = pfCase.branches.get(0);
+        PowerFlowCase.Branch line2 = pfCase.branches.get(1);
+        PowerFlowCase.Branch line3 = pfCase.branches.get(2);
+        assertEntry(y, 0, 0, line1.yff.plus(line2.yff));
+        assertEntry(y, 0, 1, line1.yft.plus(line2.yft));
+        assertEntry(y, 1, 0, line1.ytf.plus(line2.ytf));
+        assertEntry(y, 1, 1, line1.ytt.plus(line2.ytt).plus(line3.yff));
+        assertMatchesDense(pfCase, y);
+    }
+
+    @Test
+    public void matchesDenseAssemblyOfMeshedCase() {
+        bus("hv", 20);
+        for (int i = 1; i <= 5; i++) {
+            bus("b" + i, 0.4);
+        }
+        trafo("trafo1", "hv", "b1");
+        trafo("trafo2", "hv", "b4");
+        line("line1", "b1", "b2", 0.1);
+        line("line2", "b2", "b3", 0.2);
+        line("line3", "b3", "b4", 0.15);
+        line("line4", "b4", "b1", 0.3);
+        line("line5", "b2", "b5", 0.05);
+        line("line6", "b5", "b3", 0.05);
+        line("line7", "b3", "b2", 0.4);
+        PowerFlowCase pfCase = PowerFlowCase.fromElements(elements);
+        AdmittanceMatrix y = new AdmittanceMatrix(pfCase);
+
+        assertEquals(6 + 2 * 8, y.nonZeros());
+        assertMatchesDense(pfCase, y);
+    }
+
+    @Test
+    public void leavesOutInactiveBranches() {
+        bus("b1", 0.4);
+        bus("b2", 0.4);
+        bus("b3", 0.4);
+        bus("b4", 0.4);
+        bus("isolated", 0.4);
+        line("line1", "b1", "b2", 0.1);
+        line("line2", "b2", "b3", 0.1);
+        line("line3", "b3", "b4", 0.1);
+        elements.getAsJsonObject("line2").addProperty("in_service", false);
+        elements.getAsJsonObject("b4").addProperty("in_service", false);
+        PowerFlowCase pfCase = PowerFlowCase.fromElements(elements);
+        AdmittanceMatrix y = new AdmittanceMatrix(pfCase);
+
+        // Only line1 is active, and every bus keeps its diagonal entry
+        assertEquals(5 + 2, y.nonZeros());
+        PowerFlowCase.Branch line1 = pfCase.branches.get(0);
+        assertEntry(y, 1, 1, line1.ytt);
+        assertEntry(y, 2, 2, new Complex(0, 0));
+        assertEntry(y, 4, 4, new Complex(0, 0));
+        assertMatchesDense(pfCase, y);
+    }
+
+    private static void assertEntry(AdmittanceMatrix y, int row, int column, Complex expected) {
+        for (int k = y.rowPtr[row]; k < y.rowPtr[row + 1]; k++) {
+            if (y.col[k] == column) {
+                assertEquals(expected.re, y.g[k], 1e-9 * Math.max(1, expected.abs()));
+                assertEquals(expected.im, y.b[k], 1e-9 * Math.max(1, expected.abs()));
+                return;
+            }
+        }
+        throw new AssertionError("No entry at " + row + ", " + column);
+    }
+
+    /**
+     * Asserts that rows are sorted without duplicates, that diag points at the diagonal and that the stored entries are
+     * exactly the diagonal and the pairs of buses joined by an active branch, with the values of a dense assembly
+     */
+    private static void assertMatchesDense(PowerFlowCase pfCase, AdmittanceMatrix y) {
+        int n = pfCase.size();
+        Complex[][] dense = new Complex[n][n];
+        for (int i = 0; i < n; i++) {
+            dense[i][i] = new Complex(0, 0);
+        }
+        for (PowerFlowCase.Branch branch : pfCase.branches) {
+            if (pfCase.isActive(branch)) {
+                int f = branch.from;
+                int t = branch.to;
+                dense[f][f] = dense[f][f].plus(branch.yff);
+                dense[f][t] = dense[f][t] == null ? branch.yft : dense[f][t].plus(branch.yft);
+                dense[t][f] = dense[t][f] == null ? branch.ytf : dense[t][f].plus(branch.ytf);
+                dense[t][t] = dense[t][t].plus(branch.ytt);
+            }
+        }
+
+        assertEquals(n, y.n);
+        int expectedNonZeros = 0;
+        for (int i = 0; i < n; i++) {
+            for (int k = y.rowPtr[i] + 1; k < y.rowPtr[i + 1]; k++) {
+                assertTrue("Row " + i + " is not sorted", y.col[k - 1] < y.col[k]);
+            }
+            assertEquals(i, y.col[y.diag[i]]);
+            for (int j = 0; j < n; j++) {
+                if (dense[i][j] != null) {
+                    expectedNonZeros++;
+                    assertEntry(y, i, j, dense[i][j]);
+                }
+            }
+        }
+        assertEquals(expectedNonZeros, y.nonZeros());
+    }
+
+    private void bus(String id, double vnKv) {
+        element(id, "bus").addProperty("vn_kv", vnKv);
+    }
+
+    private void line(String id, String from, String to, double lengthKm) {
+        JsonObject element = element(id, "line");
+        element.addProperty("from_bus", from);
+        element.addProperty("to_bus", to);
+        element.addProperty("length_km", lengthKm);
+        element.addProperty("std_type", "NAYY 4x50 SE");
+    }
+
+    private void trafo(String id, String hv, String lv) {
+        JsonObject element = element(id, "trafo");
+        element.addProperty("hv_bus", hv);
+        element.addProperty("lv_bus", lv);
+        element.addProperty("sn_mva", 0.4);
+        element.addProperty("vn_hv_kv", 20.0);
+        element.addProperty("vn_lv_kv", 0.4);
+        element.addProperty("vk_percent", 6.0);
+        element.addProperty("vkr_percent", 1.425);
+        element.addProperty("pfe_kw", 1.35);
+        element.addProperty("i0_percent", 0.3375);
+        element.addProperty("shift_degree", 150.0);
+    }
+
+    private JsonObject element(String id, String etype) {
+        JsonObject element = new JsonObject();
+        element.addProperty("etype", etype);
+        element.addProperty("in_service", true);
+        elements.add(id, element);
+        return element;
+    }
+
+}
@@ -0,0 +1,331 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+
+import edu.uidaho.electricblocks.simulation.SimulationResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Solves small networks with the embedded power flow and compares the results with solutions worked out in physical
+ * units, kV, kA, ohm and MVA per phase, from pandapower's models of lines and transformers. The reference solutions
+ * don't use the per unit system or Newton-Raphson: networks with a load are solved by fixed point iteration on the
+ * voltage at the load and networks with a PV generator by bisection on its voltage angle.
+ */
+public class EmbeddedPowerFlowTest {
+
+    private static final double SQRT_3 = Math.sqrt(3);
+    private static final double OMEGA = 2 * Math.PI * PowerFlowCase.F_HZ;
+    private static final double TOLERANCE = 1e-7;
+
+    private JsonObject elements;
+
+    @Before
+    public void setUp() {
+        elements = new JsonObject();
+    }
+
+    @Test
+    public void extGridLineAndLoad() {
+        bus("b1", 0.4);
+        bus("b2", 0.4);
+        extGrid("grid", "b1", 1.0);
+        line("line", "b1", "b2", 0.1, "NAYY 4x50 SE");
+        load("load", "b2", 0.05, 0.02);
+        JsonObject results = solve();
+
+        // NAYY 4x50 SE: 0.642 ohm/km, 0.083 ohm/km, 210 nF/km, 0.142 kA
+        Complex z = new Complex(0.642 * 0.1, 0.083 * 0.1);
+        Complex shunt = new Complex(0, OMEGA * 210e-9 * 0.1 / 2);
+        Complex v1 = new Complex(0.4 / SQRT_3, 0);
+        Complex s = new Complex(0.05 / 3, 0.02 / 3);
+        Complex v2 = v1;
+        for (int i = 0; i < 200; i++) {
+            Complex series = s.divide(v2).conj().plus(v2.times(shunt));
+            v2 = v1.minus(z.times(series));
+        }
+        Complex series = s.divide(v2).conj().plus(v2.times(shunt));
+        Complex iFrom = series.plus(v1.times(shunt));
+        Complex iTo = v2.times(shunt).minus(series);
+        Complex sFrom = v1.times(iFrom.conj()).times(3);
+        Complex sTo = v2.times(iTo.conj()).times(3);
+
+        JsonObject bus2 = results.getAsJsonObject("b2");
+        assertEquals(v2.abs() / v1.abs(), bus2.get("vm_pu").getAsDouble(), TOLERANCE);
+        assertEquals(Math.toDegrees(Math.atan2(v2.im, v2.re)), bus2.get("va_degree").getAsDouble(), TOLERANCE);
+        assertEquals(0.05, bus2.get("p_mw").getAsDouble(), TOLERANCE);
+        assertEquals(0.02, bus2.get("q_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(1.0, results.getAsJsonObject("b1").get("vm_pu").getAsDouble(), TOLERANCE);
+
+        JsonObject lineResult = results.getAsJsonObject("line");
+        assertEquals(sFrom.re, lineResult.get("p_from_mw").getAsDouble(), TOLERANCE);
+        assertEquals(sFrom.im, lineResult.get("q_from_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(sTo.re, lineResult.get("p_to_mw").getAsDouble(), TOLERANCE);
+        assertEquals(sTo.im, lineResult.get("q_to_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(sFrom.re + sTo.re, lineResult.get("pl_mw").getAsDouble(), TOLERANCE);
+        assertEquals(sFrom.im + sTo.im, lineResult.get("ql_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(iFrom.abs(), lineResult.get("i_from_ka").getAsDouble(), TOLERANCE);
+        assertEquals(iTo.abs(), lineResult.get("i_to_ka").getAsDouble(), TOLERANCE);
+        assertEquals(Math.max(iFrom.abs(), iTo.abs()), lineResult.get("i_ka").getAsDouble(), TOLERANCE);
+        assertEquals(Math.max(iFrom.abs(), iTo.abs()) / 0.142 * 100, lineResult.get("loading_percent").getAsDouble(), 1e-5);
+
+        JsonObject grid = results.getAsJsonObject("grid");
+        assertEquals(sFrom.re, grid.get("p_mw").getAsDouble(), TOLERANCE);
+        assertEquals(sFrom.im, grid.get("q_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(0.05, results.getAsJsonObject("load").get("p_mw").getAsDouble(), TOLERANCE);
+    }
+
+    @Test
+    public void extGridTransformerAndLoad() {
+        bus("hv", 20);
+        bus("lv", 0.4);
+        extGrid("grid", "hv", 1.02);
+        trafo("trafo", "hv", "lv", 0, 0, 0);
+        load("load", "lv", 0.2, 0.05);
+        JsonObject results = solve();
+
+        // Short circuit impedance referred to the low voltage side: vk 6 %, vkr 1.425 % of 0.4 MVA at 0.4 kV
+        double zk = 0.06 * 0.4 * 0.4 / 0.4;
+        double rk = 0.01425 * 0.4 * 0.4 / 0.4;
+        Complex z = new Complex(rk, Math.sqrt(zk * zk - rk * rk));
+        Complex v1 = new Complex(1.02 * 0.4 / SQRT_3, 0);
+        Complex s = new Complex(0.2 / 3, 0.05 / 3);
+        Complex v2 = v1;
+        for (int i = 0; i < 200; i++) {
+            v2 = v1.minus(z.times(s.divide(v2).conj()));
+        }
+        Complex current = s.divide(v2).conj();
+        Complex sHv = v1.times(current.conj()).times(3);
+        Complex sLv = v2.times(current.conj()).times(-3);
+
+        assertEquals(1.02, results.getAsJsonObject("hv").get("vm_pu").getAsDouble(), TOLERANCE);
+        JsonObject lv = results.getAsJsonObject("lv");
+        assertEquals(v2.abs() / (0.4 / SQRT_3), lv.get("vm_pu").getAsDouble(), TOLERANCE);
+        assertEquals(Math.toDegrees(Math.atan2(v2.im, v2.re)), lv.get("va_degree").getAsDouble(), TOLERANCE);
+
+        JsonObject trafo = results.getAsJsonObject("trafo");
+        assertEquals(sHv.re, trafo.get("p_hv_mw").getAsDouble(), TOLERANCE);
+        assertEquals(sHv.im, trafo.get("q_hv_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(sLv.re, trafo.get("p_lv_mw").getAsDouble(), TOLERANCE);
+        assertEquals(sLv.im, trafo.get("q_lv_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(sHv.re + sLv.re, trafo.get("pl_mw").getAsDouble(), TOLERANCE);
+        assertEquals(sHv.im + sLv.im, trafo.get("ql_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(current.abs() * 0.4 / 20, trafo.get("i_hv_ka").getAsDouble(), TOLERANCE);
+        assertEquals(current.abs(), trafo.get("i_lv_ka").getAsDouble(), TOLERANCE);
+        assertEquals(1.02, trafo.get("vm_hv_pu").getAsDouble(), TOLERANCE);
+        assertEquals(SQRT_3 * current.abs() * 0.4 / 0.4 * 100, trafo.get("loading_percent").getAsDouble(), 1e-5);
+        assertEquals(sHv.re, results.getAsJsonObject("grid").get("p_mw").getAsDouble(), TOLERANCE);
+    }
+
+    @Test
+    public void transformerShiftsTheLowVoltageAngle() {
+        bus("hv", 20);
+        bus("lv", 0.4);
+        extGrid("grid", "hv", 1.0);
+        trafo("trafo", "hv", "lv", 0, 0, 0);
+        load("load", "lv", 0.2, 0.05);
+        JsonObject unshifted = solve().getAsJsonObject("lv");
+        elements.getAsJsonObject("trafo").addProperty("shift_degree", 150.0);
+        JsonObject shifted = solve().getAsJsonObject("lv");
+
+        // The low voltage side lags by the shift, like a Dyn5 transformer in pandapower, and nothing else changes
+        assertEquals(unshifted.get("vm_pu").getAsDouble(), shifted.get("vm_pu").getAsDouble(), TOLERANCE);
+        assertEquals(unshifted.get("va_degree").getAsDouble() - 150, shifted.get("va_degree").getAsDouble(), TOLERANCE);
+        assertEquals(0.2, shifted.get("p_mw").getAsDouble(), TOLERANCE);
+    }
+
+    @Test
+    public void unloadedTransformerDrawsItsIronLosses() {
+        bus("hv", 20);
+        bus("lv", 0.4);
+        extGrid("grid", "hv", 1.0);
+        trafo("trafo", "hv", "lv", 1.35, 0.3375, 0);
+        JsonObject results = solve();
+
+        // The magnetizing current is small enough that both sides stay at almost exactly 1 pu
+        JsonObject trafo = results.getAsJsonObject("trafo");
+        assertEquals(0.00135, trafo.get("pl_mw").getAsDouble(), 1e-7);
+        assertEquals(0.00135, results.getAsJsonObject("grid").get("p_mw").getAsDouble(), 1e-7);
+        // i0 is the magnetizing current as a share of the rated current, so the reactive power is i0 * sn_mva
+        double q = Math.sqrt(Math.pow(0.003375 * 0.4, 2) - Math.pow(0.00135, 2));
+        assertEquals(q, trafo.get("ql_mvar").getAsDouble(), 1e-7);
+    }
+
+    @Test
+    public void pvGeneratorHoldsItsVoltage() {
+        bus("b1", 0.4);
+        bus("b2", 0.4);
+        extGrid("grid", "b1", 1.0);
+        line("line", "b1", "b2", 0.2, "NAYY 4x120 SE");
+        load("load", "b2", 0.05, 0.01);
+        gen("gen", "b2", 0.03, 1.01);
+        JsonObject results = solve();
+
+        // NAYY 4x120 SE: 0.225 ohm/km, 0.080 ohm/km, 264 nF/km
+        Complex z = new Complex(0.225 * 0.2, 0.080 * 0.2);
+        Complex shunt = new Complex(0, OMEGA * 264e-9 * 0.2 / 2);
+        Complex v1 = new Complex(0.4 / SQRT_3, 0);
+        double vm2 = 1.01 * 0.4 / SQRT_3;
+        double low = -Math.PI / 4;
+        double high = Math.PI / 4;
+        for (int i = 0; i < 200; i++) {
+            double angle = (low + high) / 2;
+            if (injection(Complex.polar(vm2, angle), v1, z, shunt).re > 0.03 - 0.05) {
+                high = angle; // Less power flows out of the bus at a lower angle
+            } else {
+                low = angle;
+            }
+        }
+        double angle = (low + high) / 2;
+        Complex s2 = injection(Complex.polar(vm2, angle), v1, z, shunt);
+
+        JsonObject bus2 = results.getAsJsonObject("b2");
+        assertEquals(1.01, bus2.get("vm_pu").getAsDouble(), TOLERANCE);
+        assertEquals(Math.toDegrees(angle), bus2.get("va_degree").getAsDouble(), TOLERANCE);
+        JsonObject genResult = results.getAsJsonObject("gen");
+        assertEquals(0.03, genResult.get("p_mw").getAsDouble(), TOLERANCE);
+        assertEquals(s2.im + 0.01, genResult.get("q_mvar").getAsDouble(), TOLERANCE);
+        assertEquals(1.01, genResult.get("vm_pu").getAsDouble(), TOLERANCE);
+        assertEquals(Math.toDegrees(angle), genResult.get("va_degree").getAsDouble(), TOLERANCE);
+        assertEquals(s2.re, results.getAsJsonObject("line").get("p_to_mw").getAsDouble(), TOLERANCE);
+    }
+
+    @Test
+    public void unsuppliedElementsHaveNullResults() {
+        bus("b1", 0.4);
+        bus("b2", 0.4);
+        bus("island", 0.4);
+        bus("far", 0.4);
+        extGrid("grid", "b1", 1.0);
+        line("line", "b1", "b2", 0.1, "NAYY 4x50 SE");
+        load("islandLoad", "island", 0.01, 0);
+        gen("islandGen", "island", 0.01, 1.0);
+        line("islandLine", "island", "far", 0.1, "NAYY 4x50 SE");
+        JsonObject results = solve();
+
+        assertNulls(results.getAsJsonObject("island"), "vm_pu", "va_degree", "p_mw", "q_mvar");
+        assertNulls(results.getAsJsonObject("far"), "vm_pu", "va_degree", "p_mw", "q_mvar");
+        assertNulls(results.getAsJsonObject("islandLoad"), "p_mw", "q_mvar");
+        assertNulls(results.getAsJsonObject("islandGen"), "p_mw", "q_mvar", "va_degree", "vm_pu");
+        assertNulls(results.getAsJsonObject("islandLine"), "p_from_mw", "q_from_mvar", "p_to_mw", "q_to_mvar",
+                "pl_mw", "ql_mvar", "i_from_ka", "i_to_ka", "vm_from_pu", "vm_to_pu", "loading_percent");
+        assertEquals(1.0, results.getAsJsonObject("b2").get("vm_pu").getAsDouble(), 1e-3);
+    }
+
+    @Test
+    public void outOfServiceElementsHaveZeroResults() {
+        bus("b1", 0.4);
+        bus("b2", 0.4);
+        bus("open", 0.4);
+        extGrid("grid", "b1", 1.0);
+        line("line", "b1", "b2", 0.1, "NAYY 4x50 SE");
+        load("load", "b2", 0.05, 0.02);
+        elements.getAsJsonObject("load").addProperty("in_service", false);
+        gen("gen", "b2", 0.01, 1.0);
+        elements.getAsJsonObject("gen").addProperty("in_service", false);
+        line("openLine", "b1", "open", 0.1, "NAYY 4x50 SE");
+        elements.getAsJsonObject("openLine").addProperty("in_service", false);
+        JsonObject results = solve();
+
+        assertZeros(results.getAsJsonObject("load"), "p_mw", "q_mvar");
+        assertZeros(results.getAsJsonObject("gen"), "p_mw", "q_mvar", "va_degree", "vm_pu");
+        assertZeros(results.getAsJsonObject("openLine"), "p_from_mw", "q_from_mvar", "p_to_mw", "q_to_mvar",
+                "pl_mw", "ql_mvar", "i_from_ka", "i_to_ka", "vm_from_pu", "vm_to_pu", "loading_percent");
+        assertNulls(results.getAsJsonObject("open"), "vm_pu", "va_degree", "p_mw", "q_mvar");
+        // Only the charging current of the line is drawn once the load is out of service
+        assertEquals(0, results.getAsJsonObject("line").get("p_to_mw").getAsDouble(), 1e-9);
+        assertTrue(results.getAsJsonObject("b2").get("vm_pu").getAsDouble() >= 1.0);
+    }
+
+    /**
+     * Calculates the power flowing into the far end of a line from the bus at that end, which is the power the bus
+     * injects into the network
+     * @return The power in MVA for all three phases
+     */
+    private static Complex injection(Complex v2, Complex v1, Complex z, Complex shunt) {
+        Complex current = v2.minus(v1).divide(z).plus(v2.times(shunt));
+        return v2.times(current.conj()).times(3);
+    }
+
+    private JsonObject solve() {
+        JsonObject request = new JsonObject();
+        request.addProperty("status", "SIM_REQUEST");
+        request.add("elements", elements);
+        JsonObject response = EmbeddedPowerFlow.solve(request);
+        assertEquals(response.toString(), SimulationResponse.SIM_RESULT, response.get("status").getAsString());
+        return response.getAsJsonObject("elements");
+    }
+
+    private static void assertNulls(JsonObject result, String... keys) {
+        for (String key : keys) {
+            assertTrue(key + " should be null in " + result, result.get(key).isJsonNull());
+        }
+    }
+
+    private static void assertZeros(JsonObject result, String... keys) {
+        for (String key : keys) {
+            assertEquals(key + " in " + result, 0, result.get(key).getAsDouble(), 0);
+        }
+    }
+
+    private JsonObject element(String id, String etype) {
+        JsonObject element = new JsonObject();
+        element.addProperty("etype", etype);
+        element.addProperty("in_service", true);
+        elements.add(id, element);
+        return element;
+    }
+
+    private void bus(String id, double vnKv) {
+        element(id, "bus").addProperty("vn_kv", vnKv);
+    }
+
+    private void extGrid(String id, String bus, double vmPu) {
+        JsonObject element = element(id, "ext_grid");
+        element.addProperty("bus", bus);
+        element.addProperty("vm_pu", vmPu);
+    }
+
+    private void load(String id, String bus, double pMw, double qMvar) {
+        JsonObject element = element(id, "load");
+        element.addProperty("bus", bus);
+        element.addProperty("p_mw", pMw);
+        element.addProperty("q_mvar", qMvar);
+    }
+
+    private void gen(String id, String bus, double pMw, double vmPu) {
+        JsonObject element = element(id, "gen");
+        element.addProperty("bus", bus);
+        element.addProperty("p_mw", pMw);
+        element.addProperty("vm_pu", vmPu);
+    }
+
+    private void line(String id, String from, String to, double lengthKm, String stdType) {
+        JsonObject element = element(id, "line");
+        element.addProperty("from_bus", from);
+        element.addProperty("to_bus", to);
+        element.addProperty("length_km", lengthKm);
+        element.addProperty("std_type", stdType);
+    }
+
+    /**
+     * Adds a 0.4 MVA 20/0.4 kV transformer with the short circuit voltages of pandapower's standard type of that name
+     */
+    private void trafo(String id, String hv, String lv, double pfeKw, double i0Percent, double shiftDegree) {
+        JsonObject element = element(id, "trafo");
+        element.addProperty("hv_bus", hv);
+        element.addProperty("lv_bus", lv);
+        element.addProperty("sn_mva", 0.4);
+        element.addProperty("vn_hv_kv", 20.0);
+        element.addProperty("vn_lv_kv", 0.4);
+        element.addProperty("vk_percent", 6.0);
+        element.addProperty("vkr_percent", 1.425);
+        element.addProperty("pfe_kw", pfeKw);
+        element.addProperty("i0_percent", i0Percent);
+        element.addProperty("shift_degree", shiftDegree);
+    }
+
+}
@@ -0,0 +1,294 @@
+package edu.uidaho.electricblocks.simulation.powerflow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks SparseLU and MinimumDegree against a dense Gaussian elimination with partial pivoting. The matrices are power
+ * flow Jacobians of random radial and meshed networks with every bus but the slack a PQ bus, laid out and ordered the
+ * same way NewtonRaphson lays them out and orders them.
+ */
+public class SparseLUTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * The Jacobian of a network in compressed sparse row form along with the same matrix as a dense array
+     */
+    private static class Jacobian {
+        final int size;
+        final int[] rowPtr;
+        final int[] col;
+        final double[] values;
+        final double[][] dense;
+        final int[] perm;
+
+        Jacobian(int size, int[] rowPtr, int[] col, double[] values, double[][] dense, int[] perm) {
+            this.size = size;
+            this.rowPtr = rowPtr;
+            this.col = col;
+            this.values = values;
+            this.dense = dense;
+            this.perm = perm;
+        }
+    }
+
+    @Test
+    public void solvesRadialJacobian() {
+        // A feeder with laterals: each bus hangs off a random earlier bus
+        Random random = new Random(1);
+        int[][] branches = new int[39][];
+        for (int i = 1; i < 40; i++) {
+            branches[i - 1] = new int[] {random.nextInt(i), i};
+        }
+        Jacobian jacobian = jacobian(40, branches, random);
+        assertSolves(jacobian, random);
+    }
+
+    @Test
+    public void solvesMeshedJacobian() {
+        // A 6 by 6 grid of buses, every one joined to its neighbours, plus a few long distance ties
+        Random random = new Random(2);
+        int[][] branches = new int[6 * 5 * 2 + 3][];
+        int b = 0;
+        for (int row = 0; row < 6; row++) {
+            for (int column = 0; column < 6; column++) {
+                int bus = row * 6 + column;
+                if (column < 5) {
+                    branches[b++] = new int[] {bus, bus + 1};
+                }
+                if (row < 5) {
+                    branches[b++] = new int[] {bus, bus + 6};
+                }
+            }
+        }
+        branches[b++] = new int[] {0, 35};
+        branches[b++] = new int[] {5, 30};
+        branches[b] = new int[] {14, 21};
+        Jacobian jacobian = jacobian(36, branches, random);
+
+        SparseLU lu = new SparseLU(jacobian.size, jacobian.rowPtr, jacobian.col, jacobian.perm);
+        assertTrue("A meshed network fills in", lu.nonZeros() > jacobian.col.length);
+        assertSolves(jacobian, random);
+    }
+
+    @Test
+    public void factorsNewValuesWithTheSameStructure() {
+        Random random = new Random(3);
+        int[][] branches = {{0, 1}, {1, 2}, {2, 3}, {3, 0}, {1, 4}, {4, 5}, {5, 2}};
+        Jacobian first = jacobian(6, branches, random);
+        Jacobian second = jacobian(6, branches, random);
+        SparseLU lu = new SparseLU(first.size, first.rowPtr, first.col, first.perm);
+        assertTrue(lu.factor(first.values));
+        assertTrue(lu.factor(second.values));
+
+        double[] rhs = randomVector(second.size, random);
+        double[] x = rhs.clone();
+        lu.solve(x);
+        assertArrayEquals(denseSolve(second.dense, rhs), x, TOLERANCE);
+    }
+
+    @Test
+    public void reportsZeroPivot() {
+        // Nonsingular, but the first pivot is zero and the factorisation doesn't pivot
+        int[] rowPtr = {0, 2, 4};
+        int[] col = {0, 1, 0, 1};
+        SparseLU lu = new SparseLU(2, rowPtr, col, new int[] {0, 1});
+        assertFalse(lu.factor(new double[] {0, 1, 1, 0}));
+        // Singular, the second pivot is eliminated to zero
+        assertFalse(lu.factor(new double[] {1, 2, 2, 4}));
+        assertTrue(lu.factor(new double[] {2, 1, 1, 2}));
+    }
+
+    @Test
+    public void minimumDegreeEliminatesLeavesFirst() {
+        // A star with node 0 at its centre and a path 0, 6, 7 hanging off it
+        int[][] edges = {{0, 1}, {0, 2}, {0, 3}, {0, 4}, {0, 5}, {0, 6}, {6, 7}};
+        int n = 8;
+        int[] rowPtr = new int[n + 1];
+        for (int[] edge : edges) {
+            rowPtr[edge[0] + 1]++;
+            rowPtr[edge[1] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            rowPtr[i + 1] += rowPtr[i];
+        }
+        int[] col = new int[rowPtr[n]];
+        int[] next = Arrays.copyOf(rowPtr, n);
+        for (int[] edge : edges) {
+            col[next[edge[0]]++] = edge[1];
+            col[next[edge[1]]++] = edge[0];
+        }
+
+        // The leaves go first, which leaves the centre with one neighbour, and ties go to the lower index
+        assertArrayEquals(new int[] {1, 2, 3, 4, 5, 0, 6, 7}, MinimumDegree.order(n, rowPtr, col));
+    }
+
+    private static void assertSolves(Jacobian jacobian, Random random) {
+        SparseLU lu = new SparseLU(jacobian.size, jacobian.rowPtr, jacobian.col, jacobian.perm);
+        assertTrue(lu.factor(jacobian.values));
+        for (int trial = 0; trial < 3; trial++) {
+            double[] rhs = randomVector(jacobian.size, random);
+            double[] x = rhs.clone();
+            lu.solve(x);
+            double[] expected = denseSolve(jacobian.dense, rhs);
+            for (int i = 0; i < x.length; i++) {
+                assertEquals("Entry " + i, expected[i], x[i], TOLERANCE * Math.max(1, Math.abs(expected[i])));
+            }
+        }
+    }
+
+    /**
+     * Builds the Jacobian of a network with a random admittance on each branch and random voltages near 1 pu. Bus 0 is
+     * the slack bus. Rows are the active power of buses 1 to n - 1 followed by their reactive power, and columns are
+     * their angles followed by their magnitudes. Buses are ordered by minimum degree with the angle and magnitude of
+     * each bus next to each other, as in NewtonRaphson.
+     */
+    private static Jacobian jacobian(int n, int[][] branches, Random random) {
+        double[][] g = new double[n][n];
+        double[][] b = new double[n][n];
+        boolean[][] adjacent = new boolean[n][n];
+        for (int[] branch : branches) {
+            Complex y = new Complex(0.01 + random.nextDouble() * 0.1, 0.05 + random.nextDouble() * 0.5).reciprocal();
+            double charging = random.nextDouble() * 0.01;
+            int f = branch[0];
+            int t = branch[1];
+            g[f][f] += y.re;
+            b[f][f] += y.im + charging;
+            g[t][t] += y.re;
+            b[t][t] += y.im + charging;
+            g[f][t] -= y.re;
+            b[f][t] -= y.im;
+            g[t][f] -= y.re;
+            b[t][f] -= y.im;
+            adjacent[f][t] = true;
+            adjacent[t][f] = true;
+        }
+        double[] vm = new double[n];
+        double[] va = new double[n];
+        double[] p = new double[n];
+        double[] q = new double[n];
+        for (int i = 0; i < n; i++) {
+            vm[i] = i == 0 ? 1 : 0.95 + random.nextDouble() * 0.1;
+            va[i] = i == 0 ? 0 : (random.nextDouble() - 0.5) * 0.2;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double theta = va[i] - va[j];
+                p[i] += vm[i] * vm[j] * (g[i][j] * Math.cos(theta) + b[i][j] * Math.sin(theta));
+                q[i] += vm[i] * vm[j] * (g[i][j] * Math.sin(theta) - b[i][j] * Math.cos(theta));
+            }
+        }
+
+        int m = n - 1;
+        int size = 2 * m;
+        double[][] dense = new double[size][size];
+        for (int i = 1; i < n; i++) {
+            for (int j = 1; j < n; j++) {
+                if (i == j) {
+                    dense[i - 1][j - 1] = -q[i] - b[i][i] * vm[i] * vm[i];
+                    dense[i - 1][m + j - 1] = p[i] / vm[i] + g[i][i] * vm[i];
+                    dense[m + i - 1][j - 1] = p[i] - g[i][i] * vm[i] * vm[i];
+                    dense[m + i - 1][m + j - 1] = q[i] / vm[i] - b[i][i] * vm[i];
+                } else if (adjacent[i][j]) {
+                    double theta = va[i] - va[j];
+                    double gcbs = g[i][j] * Math.cos(theta) + b[i][j] * Math.sin(theta);
+                    double gsbc = g[i][j] * Math.sin(theta) - b[i][j] * Math.cos(theta);
+                    dense[i - 1][j - 1] = vm[i] * vm[j] * gsbc;
+                    dense[i - 1][m + j - 1] = vm[i] * gcbs;
+                    dense[m + i - 1][j - 1] = -vm[i] * vm[j] * gcbs;
+                    dense[m + i - 1][m + j - 1] = vm[i] * gsbc;
+                }
+            }
+        }
+
+        // The structure holds every entry between adjacent buses, even if its value happens to be zero
+        int[] rowPtr = new int[size + 1];
+        int[] col = new int[size * size];
+        double[] values = new double[size * size];
+        int nnz = 0;
+        for (int r = 0; r < size; r++) {
+            int i = r % m + 1;
+            for (int c = 0; c < size; c++) {
+                int j = c % m + 1;
+                if (i == j || adjacent[i][j]) {
+                    col[nnz] = c;
+                    values[nnz++] = dense[r][c];
+                }
+            }
+            rowPtr[r + 1] = nnz;
+        }
+
+        int[] busRowPtr = new int[m + 1];
+        int[] busCol = new int[m * m];
+        for (int i = 1; i < n; i++) {
+            busRowPtr[i] = busRowPtr[i - 1];
+            for (int j = 1; j < n; j++) {
+                if (adjacent[i][j]) {
+                    busCol[busRowPtr[i]++] = j - 1;
+                }
+            }
+        }
+        int[] perm = new int[size];
+        int next = 0;
+        for (int bus : MinimumDegree.order(m, busRowPtr, busCol)) {
+            perm[next++] = bus;
+            perm[next++] = m + bus;
+        }
+        return new Jacobian(size, rowPtr, Arrays.copyOf(col, nnz), Arrays.copyOf(values, nnz), dense, perm);
+    }
+
+    /**
+     * Solves a dense system by Gaussian elimination with partial pivoting
+     */
+    private static double[] denseSolve(double[][] matrix, double[] rhs) {
+        int n = rhs.length;
+        double[][] a = new double[n][];
+        for (int i = 0; i < n; i++) {
+            a[i] = Arrays.copyOf(matrix[i], n + 1);
+            a[i][n] = rhs[i];
+        }
+        for (int k = 0; k < n; k++) {
+            int pivot = k;
+            for (int i = k + 1; i < n; i++) {
+                if (Math.abs(a[i][k]) > Math.abs(a[pivot][k])) {
+                    pivot = i;
+                }
+            }
+            double[] swap = a[k];
+            a[k] = a[pivot];
+            a[pivot] = swap;
+            for (int i = k + 1; i < n; i++) {
+                double factor = a[i][k] / a[k][k];
+                for (int j = k; j <= n; j++) {
+                    a[i][j] -= factor * a[k][j];
+                }
+            }
+        }
+        double[] x = new double[n];
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = a[i][n];
+            for (int j = i + 1; j < n; j++) {
+                sum -= a[i][j] * x[j];
+            }
+            x[i] = sum / a[i][i];
+        }
+        return x;
+    }
+
+    private static double[] randomVector(int n, Random random) {
+        double[] vector = new double[n];
+        for (int i = 0; i < n; i++) {
+            vector[i] = random.nextDouble() * 2 - 1;
+        }
+        return vector;
+    }
+
+}